@@ -75,7 +75,7 @@ build_ibc_from_source() {
     fi
 
     # Remove build files
-    rm -rf "$l_dir/src" "$l_dir/build.xml" "$l_dir/README.md" "$l_dir/LICENSE"
+    rm -rf "$l_dir/src" "$l_dir/fleet" "$l_dir/simulator" "$l_dir/benchmarks" "$l_dir/build.xml" "$l_dir/README.md" "$l_dir/LICENSE"
 
     # # Configure now ?
     # while true; do
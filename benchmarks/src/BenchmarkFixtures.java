@@ -0,0 +1,178 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc;
+
+import java.awt.Container;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JMenu;
+import javax.swing.JMenuBar;
+import javax.swing.JMenuItem;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JRadioButton;
+import javax.swing.JTextArea;
+import javax.swing.JTextField;
+import javax.swing.JTextPane;
+import javax.swing.JToggleButton;
+import javax.swing.JTree;
+
+/**
+ * Synthetic fixtures shared by the benchmarks.
+ */
+final class BenchmarkFixtures {
+
+    static final String TARGET = "Target";
+
+    private BenchmarkFixtures() { }
+
+    /**
+     * Initialises the IBC singletons that the benchmarked code depends on, and
+     * discards IBC's console output so that logging doesn't swamp the results.
+     * @param isGateway
+     * true to initialise for Gateway rather than TWS
+     * @param settings
+     * lines for the IBC settings file
+     * @return
+     * the settings file
+     */
+    static Path initialiseEnvironment(boolean isGateway, List<String> settings) throws Exception {
+        Utils.sendConsoleOutputToTwsLog(true);
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+
+        List<String> lines = new ArrayList<>(settings);
+        // the session's login dialog watchdog must not end the benchmark
+        lines.add("LoginDialogDisplayTimeout=" + Integer.MAX_VALUE);
+
+        Path ini = Files.createTempFile("ibc-benchmark", ".ini");
+        ini.toFile().deleteOnExit();
+        Files.write(ini, lines, StandardCharsets.ISO_8859_1);
+        IbcTws.setupDefaultEnvironment(new String[] {ini.toString()}, isGateway);
+        SessionManager.startSession();
+        return ini;
+    }
+
+    /**
+     * Builds a tree of Swing components in which every container has
+     * fillerCount filler components and two child containers, down to the
+     * given depth. One component of each type sought by the SwingUtils finders
+     * is placed in the last container visited, so that every search has to
+     * traverse the whole tree.
+     */
+    static JPanel createComponentTree(int depth, int fillerCount) {
+        JPanel root = new JPanel();
+        JPanel last = addLevel(root, depth, fillerCount, new int[1]);
+
+        last.add(new JButton(TARGET));
+        last.add(new JCheckBox(TARGET));
+        last.add(new JRadioButton(TARGET));
+        last.add(new JToggleButton(TARGET));
+        last.add(new JLabel(TARGET));
+        last.add(new JTextArea(TARGET));
+        JTextPane textPane = new JTextPane();
+        textPane.setText(TARGET);
+        last.add(textPane);
+        last.add(new JComboBox<>(new String[] {TARGET}));
+        last.add(new JList<>(new String[] {TARGET}));
+        last.add(new JTree());
+        last.add(new JOptionPane(TARGET));
+        JPanel named = new JPanel();
+        named.setName(TARGET);
+        last.add(named);
+
+        JMenuBar menuBar = new JMenuBar();
+        JMenu menu = new JMenu("File");
+        menu.add(new JMenuItem(TARGET));
+        menuBar.add(menu);
+        last.add(menuBar);
+        return root;
+    }
+
+    private static JPanel addLevel(JPanel container, int depth, int fillerCount, int[] sequence) {
+        for (int i = 0; i < fillerCount; i++) {
+            int n = sequence[0]++;
+            switch (n % 4) {
+                case 0:
+                    container.add(new JLabel("label " + n));
+                    break;
+                case 1:
+                    container.add(new JButton("button " + n));
+                    break;
+                case 2:
+                    container.add(new JTextField("field " + n));
+                    break;
+                default:
+                    container.add(new JPanel());
+            }
+        }
+        if (depth == 0) return container;
+
+        JPanel left = new JPanel();
+        JPanel right = new JPanel();
+        container.add(left);
+        container.add(right);
+        addLevel(left, depth - 1, fillerCount, sequence);
+        return addLevel(right, depth - 1, fillerCount, sequence);
+    }
+
+    static int countTextFields(Container container) {
+        int count = 0;
+        ComponentIterator iter = new ComponentIterator(container);
+        while (iter.hasNext()) {
+            if (iter.next() instanceof JTextField) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Generates the lines of a jts.ini file with the given number of sections,
+     * each with ten settings, followed by the sections that IBC checks.
+     * @param complete
+     * if false, a setting that IBC requires is omitted, so that IBC has to
+     * rewrite the file
+     */
+    static List<String> createJtsIniLines(int sections, boolean complete) {
+        List<String> lines = new ArrayList<>();
+        for (int s = 0; s < sections; s++) {
+            lines.add("[Section" + s + "]");
+            for (int i = 0; i < 10; i++) lines.add("Setting" + i + "=value " + s + "." + i);
+            lines.add("");
+        }
+        lines.add("[IBGateway]");
+        if (complete) lines.add("ApiOnly=true");
+        lines.add("");
+        lines.add("[Logon]");
+        lines.add("s3store=true");
+        lines.add("Locale=en");
+        lines.add("displayedproxymsg=1");
+        lines.add("UseSSL=true");
+        return lines;
+    }
+}
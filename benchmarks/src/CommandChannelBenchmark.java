@@ -0,0 +1,92 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a command round trip through CommandChannel over a loopback
+ * connection: the client sends a command line, the channel reads it and
+ * writes a reply, and the client reads the reply.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CommandChannelBenchmark {
+
+    private static final byte[] COMMAND = "STATUS\n".getBytes(StandardCharsets.US_ASCII);
+
+    private ServerSocket mServerSocket;
+    private Socket mClientSocket;
+    private OutputStream mClientOut;
+    private BufferedReader mClientIn;
+    private CommandChannel mChannel;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkFixtures.initialiseEnvironment(false, Collections.emptyList());
+        mServerSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        mClientSocket = new Socket(InetAddress.getLoopbackAddress(), mServerSocket.getLocalPort());
+        mClientSocket.setTcpNoDelay(true);
+        mClientOut = mClientSocket.getOutputStream();
+        mClientIn = new BufferedReader(new InputStreamReader(mClientSocket.getInputStream(), StandardCharsets.US_ASCII));
+        Socket accepted = mServerSocket.accept();
+        accepted.setTcpNoDelay(true);
+        // info messages are suppressed by default, so there is no greeting to read
+        mChannel = new CommandChannel(accepted);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        mChannel.close();
+        mClientSocket.close();
+        mServerSocket.close();
+    }
+
+    @Benchmark
+    public String commandRoundTrip() throws Exception {
+        mClientOut.write(COMMAND);
+        mClientOut.flush();
+        String command = mChannel.getCommand();
+        mChannel.writeAck(command);
+        return mClientIn.readLine();
+    }
+}
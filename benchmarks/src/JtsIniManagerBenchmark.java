@@ -0,0 +1,93 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures JtsIniManager's checking of a large jts.ini file, both when the
+ * file already contains everything IBC requires and when it has to be
+ * rewritten.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class JtsIniManagerBenchmark {
+
+    @Param({"100", "1000"})
+    public int sections;
+
+    private Path mDirectory;
+    private Path mCompleteFile;
+    private Path mIncompleteFile;
+    private List<String> mIncompleteLines;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkFixtures.initialiseEnvironment(true, Collections.emptyList());
+        mDirectory = Files.createTempDirectory("ibc-benchmark");
+        mCompleteFile = mDirectory.resolve("complete.ini");
+        Files.write(mCompleteFile, BenchmarkFixtures.createJtsIniLines(sections, true), StandardCharsets.ISO_8859_1);
+        mIncompleteFile = mDirectory.resolve("incomplete.ini");
+        mIncompleteLines = BenchmarkFixtures.createJtsIniLines(sections, false);
+    }
+
+    @Setup(Level.Invocation)
+    public void restoreIncompleteFile() throws Exception {
+        Files.write(mIncompleteFile, mIncompleteLines, StandardCharsets.ISO_8859_1);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(mCompleteFile);
+        Files.deleteIfExists(mIncompleteFile);
+        Files.deleteIfExists(mDirectory);
+    }
+
+    @Benchmark
+    public void checkCompleteFile() {
+        JtsIniManager.initialise(mCompleteFile.toString());
+    }
+
+    @Benchmark
+    public void rewriteIncompleteFile() {
+        JtsIniManager.initialise(mIncompleteFile.toString());
+    }
+}
@@ -0,0 +1,91 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the typed getters of DefaultSettings on a settings file of
+ * realistic size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SettingsBenchmark {
+
+    private Settings mSettings;
+
+    @Setup
+    public void setup() throws Exception {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 200; i++) lines.add("Filler" + i + "=value" + i);
+        lines.add("StringSetting=some text");
+        lines.add("IntSetting=7462");
+        lines.add("BooleanSetting=yes");
+        lines.add("CharSetting=x");
+        lines.add("DoubleSetting=12.5");
+        BenchmarkFixtures.initialiseEnvironment(false, lines);
+        mSettings = Settings.settings();
+    }
+
+    @Benchmark
+    public String getString() {
+        return mSettings.getString("StringSetting", "");
+    }
+
+    @Benchmark
+    public String getMissingString() {
+        return mSettings.getString("MissingSetting", "default");
+    }
+
+    @Benchmark
+    public int getInt() {
+        return mSettings.getInt("IntSetting", 0);
+    }
+
+    @Benchmark
+    public boolean getBoolean() {
+        return mSettings.getBoolean("BooleanSetting", false);
+    }
+
+    @Benchmark
+    public char getChar() {
+        return mSettings.getChar("CharSetting", " ");
+    }
+
+    @Benchmark
+    public double getDouble() {
+        return mSettings.getDouble("DoubleSetting", 0.0);
+    }
+}
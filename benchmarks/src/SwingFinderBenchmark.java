@@ -0,0 +1,154 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc;
+
+import java.awt.Component;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import javax.swing.JPanel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures ComponentIterator and the SwingUtils finders on component trees
+ * where the sought component is the last one visited. These need no display.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SwingFinderBenchmark {
+
+    @Param({"4", "8"})
+    public int depth;
+
+    @Param({"10"})
+    public int fillerCount;
+
+    private JPanel mTree;
+    private int mLastTextField;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkFixtures.initialiseEnvironment(false, Collections.emptyList());
+        mTree = BenchmarkFixtures.createComponentTree(depth, fillerCount);
+        mLastTextField = BenchmarkFixtures.countTextFields(mTree) - 1;
+    }
+
+    @Benchmark
+    public void iterateAll(Blackhole bh) {
+        ComponentIterator iter = new ComponentIterator(mTree);
+        while (iter.hasNext()) {
+            Component component = iter.next();
+            bh.consume(component);
+        }
+    }
+
+    @Benchmark
+    public Object findButton() {
+        return SwingUtils.findButton(mTree, BenchmarkFixtures.TARGET);
+    }
+
+    @Benchmark
+    public Object findCheckBox() {
+        return SwingUtils.findCheckBox(mTree, BenchmarkFixtures.TARGET);
+    }
+
+    @Benchmark
+    public Object findComboBox() {
+        return SwingUtils.findComboBox(mTree, 0);
+    }
+
+    @Benchmark
+    public Object findComponent() {
+        return SwingUtils.findComponent(mTree, BenchmarkFixtures.TARGET);
+    }
+
+    @Benchmark
+    public Object findLabel() {
+        return SwingUtils.findLabel(mTree, BenchmarkFixtures.TARGET);
+    }
+
+    @Benchmark
+    public Object findList() {
+        return SwingUtils.findList(mTree, 0);
+    }
+
+    @Benchmark
+    public Object findMenuBar() {
+        return SwingUtils.findMenuBar(mTree);
+    }
+
+    @Benchmark
+    public Object findMenuItemInAnyMenuBar() {
+        return SwingUtils.findMenuItemInAnyMenuBar(mTree, new String[] {"File", BenchmarkFixtures.TARGET});
+    }
+
+    @Benchmark
+    public Object findOptionPane() {
+        return SwingUtils.findOptionPane(mTree);
+    }
+
+    @Benchmark
+    public Object findRadioButton() {
+        return SwingUtils.findRadioButton(mTree, BenchmarkFixtures.TARGET);
+    }
+
+    @Benchmark
+    public Object findTextArea() {
+        return SwingUtils.findTextArea(mTree, BenchmarkFixtures.TARGET);
+    }
+
+    @Benchmark
+    public Object findTextField() {
+        return SwingUtils.findTextField(mTree, mLastTextField);
+    }
+
+    @Benchmark
+    public Object findTextPane() {
+        return SwingUtils.findTextPane(mTree, BenchmarkFixtures.TARGET);
+    }
+
+    @Benchmark
+    public Object findToggleButton() {
+        return SwingUtils.findToggleButton(mTree, BenchmarkFixtures.TARGET);
+    }
+
+    @Benchmark
+    public Object findTree() {
+        return SwingUtils.findTree(mTree);
+    }
+
+    @Benchmark
+    public Object findMissingButton() {
+        return SwingUtils.findButton(mTree, "No such button");
+    }
+}
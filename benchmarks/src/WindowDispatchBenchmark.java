@@ -0,0 +1,100 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc;
+
+import java.awt.Frame;
+import java.awt.event.WindowEvent;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JPanel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures TwsListener's dispatch of a window event through IBC's full list
+ * of window handlers, and SwingUtils.getWindowStructure.
+ *
+ * The windows are never shown, but creating them needs a display: on Linux
+ * without a desktop, run under Xvfb.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class WindowDispatchBenchmark {
+
+    @Param({"4", "8"})
+    public int depth;
+
+    private TwsListener mListener;
+    private JDialog mUnknownDialog;
+    private JFrame mLoginFrame;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkFixtures.initialiseEnvironment(false, Arrays.asList("LogStructureWhen=never"));
+        mListener = new TwsListener(IbcTws.createWindowHandlers());
+
+        // no handler recognises this, so every handler is tried
+        mUnknownDialog = new JDialog((Frame) null, "Unknown dialog");
+        mUnknownDialog.setContentPane(BenchmarkFixtures.createComponentTree(depth, 10));
+
+        // recognised by LoginFrameHandler, which ignores WINDOW_ACTIVATED
+        mLoginFrame = new JFrame("Login");
+        JPanel loginPanel = BenchmarkFixtures.createComponentTree(depth, 10);
+        loginPanel.add(new JButton("Log In"));
+        mLoginFrame.setContentPane(loginPanel);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mUnknownDialog.dispose();
+        mLoginFrame.dispose();
+    }
+
+    @Benchmark
+    public void dispatchUnknownWindow() {
+        mListener.dispatch(mUnknownDialog, WindowEvent.WINDOW_ACTIVATED);
+    }
+
+    @Benchmark
+    public void dispatchLoginFrame() {
+        mListener.dispatch(mLoginFrame, WindowEvent.WINDOW_ACTIVATED);
+    }
+
+    @Benchmark
+    public String getWindowStructure() {
+        return SwingUtils.getWindowStructure(mUnknownDialog);
+    }
+}
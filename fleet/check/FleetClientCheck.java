@@ -0,0 +1,227 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc.fleet;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Checks FleetClient against in-process stand-ins for IBC's CommandServer.
+ *
+ * Each stand-in accepts connections on the loopback interface and replies to
+ * each command line, after a configurable delay, with an INFO line and then OK
+ * (or ERROR for an unknown command), just as CommandServer does. The checks
+ * cover a fleet whose instances all reply, a fleet containing instances that
+ * cannot be resolved or refuse the connection, and a fleet in which no
+ * instance can be reached at all.
+ *
+ * Run it with 'ant fleet-check'. It exits with a non-zero status if any check
+ * fails.
+ */
+public final class FleetClientCheck {
+
+    private static final long REPLY_DELAY_MILLIS = 300;
+    private static final int FLEET_SIZE = 8;
+
+    /**
+     * The longest time a check may take before FleetClient is considered to
+     * have hung.
+     */
+    private static final long HANG_SECONDS = 10;
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        List<StandIn> standIns = new ArrayList<>();
+        try {
+            for (int i = 0; i < FLEET_SIZE; i++) standIns.add(new StandIn(REPLY_DELAY_MILLIS));
+
+            checkAllReply(standIns);
+            checkUnreachableTargets(standIns.get(0));
+            checkNoReachableTargets();
+        } finally {
+            for (StandIn s : standIns) s.close();
+        }
+
+        if (failures != 0) {
+            System.out.println(failures + " check(s) failed");
+            System.exit(1);
+        }
+        System.out.println("All checks passed");
+    }
+
+    private static void checkAllReply(List<StandIn> standIns) throws Exception {
+        List<FleetTarget> targets = new ArrayList<>();
+        for (StandIn s : standIns) targets.add(s.target());
+
+        long start = System.nanoTime();
+        List<InstanceResult> results = execute(targets, Arrays.asList("RECONNECTDATA", "NOSUCHCOMMAND"));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (results == null) return;
+
+        for (InstanceResult r : results) {
+            expect(r.getStatus() == InstanceResult.Status.ERROR, "all reply: " + r);
+            expect(r.getReplies().size() == 2, "all reply: two terminal replies expected: " + r);
+        }
+        // the commands are pipelined to every instance at once, so the fleet
+        // takes about as long as one instance replying to both commands
+        long sequentialMillis = FLEET_SIZE * 2 * REPLY_DELAY_MILLIS;
+        expect(elapsedMillis < sequentialMillis / 2,
+                "all reply: took " + elapsedMillis + "ms, sequential would be " + sequentialMillis + "ms");
+    }
+
+    private static void checkUnreachableTargets(StandIn standIn) throws Exception {
+        List<FleetTarget> targets = Arrays.asList(
+                new FleetTarget("unresolvable", "nosuchhost.invalid", 7462),
+                new FleetTarget("refused", "127.0.0.1", unusedPort()),
+                standIn.target());
+
+        List<InstanceResult> results = execute(targets, Arrays.asList("RECONNECTDATA"));
+        if (results == null) return;
+
+        expect(results.get(0).getStatus() == InstanceResult.Status.CONNECT_FAILED, "unreachable: " + results.get(0));
+        expect(results.get(1).getStatus() == InstanceResult.Status.CONNECT_FAILED, "unreachable: " + results.get(1));
+        expect(results.get(2).getStatus() == InstanceResult.Status.OK, "unreachable: " + results.get(2));
+    }
+
+    private static void checkNoReachableTargets() throws Exception {
+        List<FleetTarget> targets = Arrays.asList(
+                new FleetTarget("unresolvable", "nosuchhost.invalid", 7462),
+                new FleetTarget("unresolvable2", "nosuchhost2.invalid", 7462));
+
+        List<InstanceResult> results = execute(targets, Arrays.asList("RECONNECTDATA"));
+        if (results == null) return;
+
+        for (InstanceResult r : results) {
+            expect(r.getStatus() == InstanceResult.Status.CONNECT_FAILED, "none reachable: " + r);
+        }
+    }
+
+    /**
+     * Runs the fleet client on another thread, so that a hang is reported as a
+     * failure rather than stopping the checks.
+     * @return
+     * the results, or null if the client failed or hung
+     */
+    private static List<InstanceResult> execute(List<FleetTarget> targets, List<String> commands) throws InterruptedException {
+        FleetClient client = new FleetClient(FLEET_SIZE, 5, TimeUnit.SECONDS);
+        ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "FleetClientCheck");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            Future<List<InstanceResult>> future = executor.submit(() -> client.execute(targets, commands));
+            return future.get(HANG_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            expect(false, "FleetClient.execute did not return within " + HANG_SECONDS + " seconds for " + targets);
+            return null;
+        } catch (ExecutionException e) {
+            expect(false, "FleetClient.execute failed for " + targets + ": " + e.getCause());
+            return null;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void expect(boolean condition, String description) {
+        if (condition) return;
+        failures++;
+        System.out.println("FAILED: " + description);
+    }
+
+    private static int unusedPort() throws IOException {
+        try (ServerSocket s = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return s.getLocalPort();
+        }
+    }
+
+    /**
+     * A minimal stand-in for IBC's CommandServer, speaking the same line
+     * protocol.
+     */
+    private static final class StandIn implements AutoCloseable {
+        private final ServerSocket server;
+        private final long replyDelayMillis;
+
+        StandIn(long replyDelayMillis) throws IOException {
+            this.replyDelayMillis = replyDelayMillis;
+            server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            Thread t = new Thread(this::accept, "StandIn-" + server.getLocalPort());
+            t.setDaemon(true);
+            t.start();
+        }
+
+        FleetTarget target() {
+            return new FleetTarget("standin-" + server.getLocalPort(), "127.0.0.1", server.getLocalPort());
+        }
+
+        private void accept() {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    Thread t = new Thread(() -> serve(socket), "StandInConnection");
+                    t.setDaemon(true);
+                    t.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void serve(Socket socket) {
+            try (Socket s = socket;
+                 BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8))) {
+                OutputStream out = s.getOutputStream();
+                out.write("INFO IBC Command Server\n".getBytes(StandardCharsets.UTF_8));
+                String command;
+                while ((command = in.readLine()) != null) {
+                    Thread.sleep(replyDelayMillis);
+                    String reply = command.equalsIgnoreCase("RECONNECTDATA")
+                            ? "INFO reconnecting data\nOK\n"
+                            : "ERROR unrecognised command\n";
+                    out.write(reply.getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                }
+            } catch (IOException | InterruptedException e) {
+                // the client has gone
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc.fleet;
+
+/**
+ * A single reply line sent by an IBC CommandServer.
+ *
+ * Replies take the form 'OK [text]', 'ERROR [text]' or 'INFO [text]'. OK and
+ * ERROR replies terminate a command; INFO replies are informational and may
+ * be interspersed (or suppressed altogether, see the SuppressInfoMessages
+ * setting).
+ */
+public final class CommandReply {
+
+    public enum Kind {
+        OK,
+        ERROR,
+        INFO,
+        UNKNOWN
+    }
+
+    private final Kind kind;
+    private final String text;
+
+    CommandReply(Kind kind, String text) {
+        this.kind = kind;
+        this.text = text;
+    }
+
+    /**
+     * Parses a reply line.
+     * @param line
+     * the line received, without its line terminator
+     * @param prompt
+     * the CommandPrompt configured for the IBC instance: since the prompt is
+     * not followed by a newline, it appears at the start of the next reply line
+     * and is removed before parsing. May be empty.
+     * @return
+     * the parsed reply
+     */
+    public static CommandReply parse(String line, String prompt) {
+        String s = line;
+        if (prompt != null && !prompt.isEmpty()) {
+            while (s.startsWith(prompt)) s = s.substring(prompt.length());
+        }
+        int space = s.indexOf(' ');
+        String keyword = space < 0 ? s : s.substring(0, space);
+        String text = space < 0 ? "" : s.substring(space + 1);
+        switch (keyword) {
+            case "OK":
+                return new CommandReply(Kind.OK, text);
+            case "ERROR":
+                return new CommandReply(Kind.ERROR, text);
+            case "INFO":
+                return new CommandReply(Kind.INFO, text);
+            default:
+                return new CommandReply(Kind.UNKNOWN, s);
+        }
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public boolean isTerminal() {
+        return kind == Kind.OK || kind == Kind.ERROR;
+    }
+
+    @Override
+    public String toString() {
+        return kind == Kind.UNKNOWN ? text : (text.isEmpty() ? kind.name() : kind.name() + " " + text);
+    }
+}
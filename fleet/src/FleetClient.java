@@ -0,0 +1,272 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc.fleet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the same sequence of commands to many IBC CommandServers at once.
+ *
+ * All connections are driven by a single selector on the calling thread. The
+ * commands are pipelined: they are all written as soon as the connection is
+ * established, and the replies are matched up in order as they arrive. So the
+ * time taken for a fleet-wide command is roughly one round trip to the slowest
+ * instance, rather than the sum of the round trips to every instance.
+ *
+ * An instance is considered to have completed when it has sent one terminating
+ * reply (OK or ERROR) for each command. INFO replies are recorded but otherwise
+ * ignored.
+ */
+public final class FleetClient {
+
+    private final int concurrency;
+    private final long timeoutNanos;
+    private volatile String prompt = "";
+
+    /**
+     * @param concurrency
+     * the maximum number of instances that may be connected at the same time
+     * @param timeout
+     * the maximum time allowed for each instance to connect and reply to all
+     * the commands
+     * @param unit
+     * the time unit of the timeout argument
+     */
+    public FleetClient(int concurrency, long timeout, TimeUnit unit) {
+        if (concurrency < 1) throw new IllegalArgumentException("concurrency must be at least 1");
+        if (timeout <= 0) throw new IllegalArgumentException("timeout must be positive");
+        this.concurrency = concurrency;
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Sets the CommandPrompt value configured for the IBC instances, so that it
+     * can be removed from reply lines.
+     * @param prompt
+     * the prompt; null or empty if no prompt is configured
+     */
+    public void setPrompt(String prompt) {
+        this.prompt = prompt == null ? "" : prompt;
+    }
+
+    /**
+     * Sends the commands to each target, and waits until every target has
+     * either replied to all of them, failed, or timed out.
+     * @param targets
+     * the IBC instances to send the commands to
+     * @param commands
+     * the commands to send, in order
+     * @return
+     * the results, in the same order as the targets
+     * @throws IOException
+     * the selector could not be opened
+     */
+    public List<InstanceResult> execute(List<FleetTarget> targets, List<String> commands) throws IOException {
+        if (commands.isEmpty()) throw new IllegalArgumentException("no commands specified");
+
+        StringBuilder sb = new StringBuilder();
+        for (String command : commands) sb.append(command.trim()).append('\n');
+        final byte[] request = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+        final InstanceResult[] results = new InstanceResult[targets.size()];
+        final List<Connection> active = new ArrayList<>();
+
+        try (Selector selector = Selector.open()) {
+            int next = 0;
+            while (next < targets.size() || !active.isEmpty()) {
+                while (active.size() < concurrency && next < targets.size()) {
+                    Connection c = new Connection(next, targets.get(next), request, commands.size());
+                    next++;
+                    if (c.start(selector)) {
+                        active.add(c);
+                    } else {
+                        results[c.index] = c.result;
+                    }
+                }
+                // every connection started so far failed at once, so there is
+                // nothing to wait for
+                if (active.isEmpty()) continue;
+
+                long waitNanos = Long.MAX_VALUE;
+                long now = System.nanoTime();
+                for (Connection c : active) waitNanos = Math.min(waitNanos, c.deadline - now);
+                if (waitNanos > 0) {
+                    selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos)));
+                } else {
+                    selector.selectNow();
+                }
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    ((Connection) key.attachment()).handle(key);
+                }
+
+                now = System.nanoTime();
+                Iterator<Connection> ci = active.iterator();
+                while (ci.hasNext()) {
+                    Connection c = ci.next();
+                    if (c.result == null && now - c.deadline >= 0) {
+                        c.finish(InstanceResult.Status.TIMEOUT,
+                                "timed out after " + c.replies.size() + " of " + c.expectedReplies + " replies");
+                    }
+                    if (c.result != null) {
+                        results[c.index] = c.result;
+                        ci.remove();
+                    }
+                }
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    private final class Connection {
+        final int index;
+        final FleetTarget target;
+        final int expectedReplies;
+        final ByteBuffer out;
+        final ByteBuffer in = ByteBuffer.allocate(4096);
+        final ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        final List<CommandReply> replies = new ArrayList<>();
+        final long startNanos = System.nanoTime();
+        final long deadline = startNanos + timeoutNanos;
+        long connectNanos;
+        SocketChannel channel;
+        InstanceResult result;
+
+        Connection(int index, FleetTarget target, byte[] request, int expectedReplies) {
+            this.index = index;
+            this.target = target;
+            this.expectedReplies = expectedReplies;
+            this.out = ByteBuffer.wrap(request);
+        }
+
+        boolean start(Selector selector) {
+            try {
+                InetSocketAddress address = target.toSocketAddress();
+                if (address.isUnresolved()) {
+                    finish(InstanceResult.Status.CONNECT_FAILED, "cannot resolve " + target.getHost());
+                    return false;
+                }
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                if (channel.connect(address)) {
+                    connectNanos = System.nanoTime() - startNanos;
+                    channel.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE, this);
+                } else {
+                    channel.register(selector, SelectionKey.OP_CONNECT, this);
+                }
+                return true;
+            } catch (IOException e) {
+                finish(InstanceResult.Status.CONNECT_FAILED, e.toString());
+                return false;
+            }
+        }
+
+        void handle(SelectionKey key) {
+            if (result != null || !key.isValid()) return;
+            try {
+                if (key.isConnectable()) {
+                    channel.finishConnect();
+                    connectNanos = System.nanoTime() - startNanos;
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+            } catch (IOException e) {
+                finish(InstanceResult.Status.CONNECT_FAILED, e.toString());
+                return;
+            }
+            try {
+                if (key.isWritable()) {
+                    channel.write(out);
+                    if (!out.hasRemaining()) key.interestOps(SelectionKey.OP_READ);
+                }
+                if (key.isReadable()) read();
+            } catch (IOException e) {
+                finish(InstanceResult.Status.CLOSED, e.toString());
+            }
+        }
+
+        private void read() throws IOException {
+            int n = channel.read(in);
+            if (n < 0) {
+                finish(InstanceResult.Status.CLOSED,
+                        "connection closed after " + replies.size() + " of " + expectedReplies + " replies");
+                return;
+            }
+            in.flip();
+            while (in.hasRemaining() && result == null) {
+                byte b = in.get();
+                if (b == '\n') {
+                    byte[] bytes = line.toByteArray();
+                    int len = bytes.length;
+                    if (len > 0 && bytes[len - 1] == '\r') len--;
+                    line.reset();
+                    processLine(new String(bytes, 0, len, StandardCharsets.UTF_8));
+                } else {
+                    line.write(b);
+                }
+            }
+            in.clear();
+        }
+
+        private void processLine(String text) {
+            CommandReply reply = CommandReply.parse(text, prompt);
+            if (!reply.isTerminal()) return;
+            replies.add(reply);
+            if (replies.size() < expectedReplies) return;
+
+            boolean anyError = false;
+            for (CommandReply r : replies) anyError |= (r.getKind() == CommandReply.Kind.ERROR);
+            finish(anyError ? InstanceResult.Status.ERROR : InstanceResult.Status.OK, null);
+        }
+
+        void finish(InstanceResult.Status status, String detail) {
+            if (result != null) return;
+            result = new InstanceResult(target,
+                                        status,
+                                        new ArrayList<>(replies),
+                                        connectNanos,
+                                        System.nanoTime() - startNanos,
+                                        detail);
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // nothing useful can be done
+                }
+            }
+        }
+    }
+}
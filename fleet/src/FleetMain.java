@@ -0,0 +1,128 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc.fleet;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command line entry point for the fleet client.
+ *
+ * Usage:
+ *
+ *      java -jar IBCFleet.jar [-n concurrency] [-t timeoutMillis] [-p prompt]
+ *                             [-f targetsFile] -c command [-c command]... [target]...
+ *
+ * where each target is [name=]host:port, and a targets file contains one target per
+ * line (blank lines and lines starting with # are ignored).
+ *
+ * The exit code is 0 if every instance acknowledged every command, 1 if any did not,
+ * and 2 if the arguments are invalid.
+ */
+public class FleetMain {
+
+    private FleetMain() { }
+
+    public static void main(String[] args) {
+        int concurrency = 64;
+        long timeoutMillis = 10000;
+        String prompt = "";
+        List<String> commands = new ArrayList<>();
+        List<FleetTarget> targets = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-n":
+                        concurrency = Integer.parseInt(requireValue(args, ++i));
+                        break;
+                    case "-t":
+                        timeoutMillis = Long.parseLong(requireValue(args, ++i));
+                        break;
+                    case "-p":
+                        prompt = requireValue(args, ++i);
+                        break;
+                    case "-c":
+                        commands.add(requireValue(args, ++i));
+                        break;
+                    case "-f":
+                        targets.addAll(readTargets(requireValue(args, ++i)));
+                        break;
+                    case "-h":
+                    case "--help":
+                        usage(null);
+                        return;
+                    default:
+                        targets.add(FleetTarget.parse(args[i]));
+                }
+            }
+            if (commands.isEmpty()) throw new IllegalArgumentException("no command specified");
+            if (targets.isEmpty()) throw new IllegalArgumentException("no targets specified");
+        } catch (IllegalArgumentException e) {
+            usage(e.getMessage());
+            System.exit(2);
+            return;
+        } catch (IOException e) {
+            usage("can't read targets file: " + e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        FleetClient client = new FleetClient(concurrency, timeoutMillis, TimeUnit.MILLISECONDS);
+        client.setPrompt(prompt);
+
+        try {
+            long start = System.nanoTime();
+            List<InstanceResult> results = client.execute(targets, commands);
+            FleetSummary summary = new FleetSummary(results, System.nanoTime() - start);
+            for (InstanceResult result : results) System.out.println(result);
+            System.out.println(summary);
+            System.exit(summary.allSucceeded() ? 0 : 1);
+        } catch (IOException e) {
+            System.err.println("Fleet command failed: " + e);
+            System.exit(1);
+        }
+    }
+
+    private static String requireValue(String[] args, int i) {
+        if (i >= args.length) throw new IllegalArgumentException("missing value for " + args[i - 1]);
+        return args[i];
+    }
+
+    private static List<FleetTarget> readTargets(String path) throws IOException {
+        List<FleetTarget> targets = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(path))) {
+            String s = line.trim();
+            if (s.isEmpty() || s.startsWith("#")) continue;
+            targets.add(FleetTarget.parse(s));
+        }
+        return targets;
+    }
+
+    private static void usage(String error) {
+        if (error != null) System.err.println("Error: " + error);
+        System.err.println("Usage: java -jar IBCFleet.jar [-n concurrency] [-t timeoutMillis] [-p prompt]");
+        System.err.println("                              [-f targetsFile] -c command [-c command]... [target]...");
+        System.err.println("       target ::= [name=]host:port");
+    }
+}
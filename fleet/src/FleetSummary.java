@@ -0,0 +1,100 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc.fleet;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aggregates the results of a fleet-wide command.
+ */
+public final class FleetSummary {
+
+    private final Map<InstanceResult.Status, Integer> counts = new EnumMap<>(InstanceResult.Status.class);
+    private final long[] sortedLatencies;
+    private final long wallClockNanos;
+
+    public FleetSummary(List<InstanceResult> results, long wallClockNanos) {
+        for (InstanceResult.Status status : InstanceResult.Status.values()) counts.put(status, 0);
+        sortedLatencies = new long[results.size()];
+        int i = 0;
+        for (InstanceResult result : results) {
+            counts.merge(result.getStatus(), 1, Integer::sum);
+            sortedLatencies[i++] = result.getLatencyNanos();
+        }
+        Arrays.sort(sortedLatencies);
+        this.wallClockNanos = wallClockNanos;
+    }
+
+    public int getCount(InstanceResult.Status status) {
+        return counts.get(status);
+    }
+
+    public int getTotal() {
+        return sortedLatencies.length;
+    }
+
+    public boolean allSucceeded() {
+        return getCount(InstanceResult.Status.OK) == getTotal();
+    }
+
+    /**
+     * Returns a latency percentile across all instances.
+     * @param percentile
+     * the required percentile, between 0 and 100
+     * @return
+     * the latency in milliseconds, or 0 if there were no instances
+     */
+    public double getLatencyMillis(double percentile) {
+        if (sortedLatencies.length == 0) return 0;
+        int index = (int) Math.ceil(percentile / 100.0 * sortedLatencies.length) - 1;
+        index = Math.max(0, Math.min(sortedLatencies.length - 1, index));
+        return sortedLatencies[index] / 1e6;
+    }
+
+    public double getMeanLatencyMillis() {
+        if (sortedLatencies.length == 0) return 0;
+        double sum = 0;
+        for (long l : sortedLatencies) sum += l;
+        return sum / sortedLatencies.length / 1e6;
+    }
+
+    public double getWallClockMillis() {
+        return wallClockNanos / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("instances=").append(getTotal());
+        for (Map.Entry<InstanceResult.Status, Integer> e : counts.entrySet()) {
+            if (e.getValue() != 0) sb.append(' ').append(e.getKey().name().toLowerCase()).append('=').append(e.getValue());
+        }
+        sb.append(String.format(" latency(ms): min=%.3f p50=%.3f p95=%.3f max=%.3f mean=%.3f; elapsed=%.3fms",
+                                getLatencyMillis(0),
+                                getLatencyMillis(50),
+                                getLatencyMillis(95),
+                                getLatencyMillis(100),
+                                getMeanLatencyMillis(),
+                                getWallClockMillis()));
+        return sb.toString();
+    }
+}
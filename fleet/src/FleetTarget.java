@@ -0,0 +1,90 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc.fleet;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Identifies one IBC instance's CommandServer.
+ */
+public final class FleetTarget {
+
+    private final String name;
+    private final String host;
+    private final int port;
+
+    public FleetTarget(String name, String host, int port) {
+        if (host == null || host.isEmpty()) throw new IllegalArgumentException("host");
+        if (port < 1 || port > 65535) throw new IllegalArgumentException("port: " + port);
+        this.name = (name == null || name.isEmpty()) ? host + ":" + port : name;
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Parses a target specification.
+     * @param spec
+     * a value of the form [name=]host:port, for example gw1=10.0.0.5:7462
+     * @return
+     * the corresponding target
+     * @throws IllegalArgumentException
+     * the specification is not in the required format
+     */
+    public static FleetTarget parse(String spec) throws IllegalArgumentException {
+        String s = spec.trim();
+        String name = null;
+        int eq = s.indexOf('=');
+        if (eq >= 0) {
+            name = s.substring(0, eq).trim();
+            s = s.substring(eq + 1).trim();
+        }
+        int colon = s.lastIndexOf(':');
+        if (colon <= 0 || colon == s.length() - 1) {
+            throw new IllegalArgumentException("target '" + spec + "' should be in the format [name=]host:port");
+        }
+        String host = s.substring(0, colon);
+        if (host.startsWith("[") && host.endsWith("]")) host = host.substring(1, host.length() - 1);
+        try {
+            return new FleetTarget(name, host, Integer.parseInt(s.substring(colon + 1)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("target '" + spec + "' has an invalid port number");
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    InetSocketAddress toSocketAddress() {
+        return new InetSocketAddress(host, port);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
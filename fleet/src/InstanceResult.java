@@ -0,0 +1,116 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc.fleet;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome of sending a batch of commands to one IBC instance.
+ */
+public final class InstanceResult {
+
+    public enum Status {
+        /** every command was acknowledged with OK */
+        OK,
+        /** at least one command was rejected with ERROR */
+        ERROR,
+        /** the instance did not reply to every command within the timeout */
+        TIMEOUT,
+        /** a connection could not be established */
+        CONNECT_FAILED,
+        /** the instance closed the connection before replying to every command */
+        CLOSED
+    }
+
+    private final FleetTarget target;
+    private final Status status;
+    private final List<CommandReply> replies;
+    private final long connectNanos;
+    private final long totalNanos;
+    private final String detail;
+
+    InstanceResult(FleetTarget target,
+                   Status status,
+                   List<CommandReply> replies,
+                   long connectNanos,
+                   long totalNanos,
+                   String detail) {
+        this.target = target;
+        this.status = status;
+        this.replies = Collections.unmodifiableList(replies);
+        this.connectNanos = connectNanos;
+        this.totalNanos = totalNanos;
+        this.detail = detail == null ? "" : detail;
+    }
+
+    public FleetTarget getTarget() {
+        return target;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns the terminating (OK or ERROR) replies received, in command order.
+     * There may be fewer replies than commands if the status is not OK or ERROR.
+     * @return
+     * the terminating replies
+     */
+    public List<CommandReply> getReplies() {
+        return replies;
+    }
+
+    public long getConnectLatency(TimeUnit unit) {
+        return unit.convert(connectNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the time from starting to connect until the last reply was
+     * received (or the failure was detected).
+     * @param unit
+     * the required time unit
+     * @return
+     * the latency in the required unit
+     */
+    public long getLatency(TimeUnit unit) {
+        return unit.convert(totalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    long getLatencyNanos() {
+        return totalNanos;
+    }
+
+    public String getDetail() {
+        return detail;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(target.getName())
+          .append(' ').append(status)
+          .append(String.format(" %.3fms", totalNanos / 1e6));
+        for (CommandReply reply : replies) sb.append(" [").append(reply).append(']');
+        if (!detail.isEmpty()) sb.append(" (").append(detail).append(')');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,48 @@
+#!/bin/bash
+
+# Runs IBC against the simulated TWS or Gateway in IBCSimulator.jar, on its own
+# Xvfb display, so that IBC's startup, configuration and command handling can
+# be exercised and measured without an IB installation or account.
+#
+# Usage: scripts/simulate.sh [-g] [ini-file]
+#
+#   -g          simulate Gateway rather than TWS
+#   ini-file    IBC settings to use (EntryPoint is set automatically)
+#
+# IBC.jar and IBCSimulator.jar are expected in the current directory (build them
+# with 'ant jar simulator-jar'). Simulator delays and other JVM options can be
+# given in JAVA_OPTS, for example:
+#
+#   JAVA_OPTS="-Dibcsim.loginDelay=200 -Dibcsim.splashDelay=0" scripts/simulate.sh -g my.ini
+
+l_dir="$(cd "$(dirname "${BASH_SOURCE[0]}")/.." && pwd)"
+
+entry_point=ibcalpha.ibc.IbcTws
+simulator=ibcalpha.ibc.simulator.SimulatedTws
+if [[ "$1" == "-g" ]]; then
+	entry_point=ibcalpha.ibc.IbcGateway
+	simulator=ibcalpha.ibc.simulator.SimulatedGateway
+	shift
+fi
+
+settings_dir=$(mktemp -d)
+ibc_ini="$settings_dir/config.ini"
+if [[ -n "$1" ]]; then
+	grep -v "^EntryPoint=" "$1" > "$ibc_ini"
+fi
+echo "EntryPoint=$simulator" >> "$ibc_ini"
+# keep the simulated session's files away from any real TWS settings
+echo "IbDir=$settings_dir" >> "$ibc_ini"
+
+_current_xvfb_display_=
+source "$l_dir/scripts/xvfb-functions.sh"
+start_xvfb || exit 1
+export DISPLAY=":$_current_xvfb_display_"
+
+java -cp "IBC.jar:IBCSimulator.jar" $JAVA_OPTS $entry_point "$ibc_ini"
+exit_code=$?
+
+stop_xvfb $_current_xvfb_display_
+rm -rf "$settings_dir"
+
+exit $exit_code
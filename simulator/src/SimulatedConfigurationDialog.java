@@ -0,0 +1,195 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc.simulator;
+
+import java.awt.BorderLayout;
+import java.awt.CardLayout;
+import java.awt.GridLayout;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.swing.ButtonGroup;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JRadioButton;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
+import javax.swing.JTree;
+import javax.swing.tree.DefaultMutableTreeNode;
+
+/**
+ * The Global Configuration dialog, with the sections and controls that IBC's
+ * configuration tasks use. Selecting a node in the tree shows its section.
+ * Values are kept by the Simulator when OK or Apply is clicked, so they
+ * persist until the simulated session ends.
+ */
+final class SimulatedConfigurationDialog extends JDialog {
+    private static final long serialVersionUID = 1L;
+
+    private static final String[] PRECAUTIONS = {
+        "Bypass Order Precautions for API Orders",
+        "Bypass Bond warning for API Orders",
+        "Bypass negative yield to worst confirmation for API Orders",
+        "Bypass Called Bond warning for API Orders",
+        "Bypass \"same action pair trade\" warning for API orders.",
+        "Bypass price-based volatility risk warning for API Orders",
+        "Bypass US Stocks market data in shares warning for API Orders",
+        "Bypass Redirect Order warning for Stock API Orders",
+        "Bypass No Overfill Protection precaution for destinations where implied natively"
+    };
+
+    private final Simulator mSimulator;
+    private final Map<String, String> mConfiguration;
+    private final List<Runnable> mSavers = new ArrayList<>();
+    private final CardLayout mCards = new CardLayout();
+    private final JPanel mSections = new JPanel(mCards);
+
+    SimulatedConfigurationDialog(Simulator simulator) {
+        super(simulator.getMainWindow(), simulator.isGateway() ? "Configuration" : "Global Configuration");
+        mSimulator = simulator;
+        mConfiguration = simulator.getConfiguration();
+
+        DefaultMutableTreeNode root = new DefaultMutableTreeNode("Configuration");
+        DefaultMutableTreeNode api = new DefaultMutableTreeNode("API");
+        api.add(section("Settings", createApiSettings()));
+        api.add(section("Precautions", createApiPrecautions()));
+        root.add(api);
+        root.add(section("Lock and Exit", createLockAndExit()));
+
+        JTree tree = new JTree(root);
+        // section names are unique, so each card is keyed by its node's name
+        tree.addTreeSelectionListener(e -> mCards.show(mSections, e.getPath().getLastPathComponent().toString()));
+
+        JButton ok = new JButton("OK");
+        ok.addActionListener(e -> {
+            boolean apiChanged = save();
+            dispose();
+            if (apiChanged) mSimulator.apiSettingChanged();
+        });
+        JButton apply = new JButton("Apply");
+        apply.addActionListener(e -> save());
+        JButton cancel = new JButton("Cancel");
+        cancel.addActionListener(e -> dispose());
+        JPanel buttons = new JPanel();
+        buttons.add(ok);
+        buttons.add(apply);
+        buttons.add(cancel);
+
+        add(new JScrollPane(tree), BorderLayout.WEST);
+        add(mSections, BorderLayout.CENTER);
+        add(buttons, BorderLayout.SOUTH);
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+    }
+
+    private DefaultMutableTreeNode section(String name, JPanel panel) {
+        mSections.add(panel, name);
+        return new DefaultMutableTreeNode(name);
+    }
+
+    private JPanel createApiSettings() {
+        JPanel panel = new JPanel(new GridLayout(0, 1));
+        if (!mSimulator.isGateway()) checkBox(panel, "Enable ActiveX and Socket Clients", "activeX", "true");
+        checkBox(panel, "Read-Only API", "readOnlyApi", "true");
+        checkBox(panel, "Allow connections from localhost only", "localhostOnly", "true");
+        checkBox(panel, "Send market data in lots for US stocks for dual-mode API clients", "marketDataInLots", "true");
+        namedField(panel, "Socket port", "socketPort", getDefaultPort());
+        namedField(panel, "Master API client ID", "masterClientId", "");
+        JButton reset = new JButton("Reset API order ID sequence");
+        reset.addActionListener(e -> Simulator.log("API order ID sequence reset"));
+        panel.add(reset);
+        return panel;
+    }
+
+    private JPanel createApiPrecautions() {
+        JPanel panel = new JPanel(new GridLayout(0, 1));
+        for (String precaution : PRECAUTIONS) checkBox(panel, precaution, "precaution." + precaution, "false");
+        return panel;
+    }
+
+    private JPanel createLockAndExit() {
+        JPanel panel = new JPanel(new GridLayout(0, 1));
+
+        JRadioButton logoff = radioButton(panel, "Auto logoff", "autoAction", "Auto restart");
+        JRadioButton restart = radioButton(panel, "Auto restart", "autoAction", "Auto restart");
+        group(logoff, restart);
+
+        JPanel row = new JPanel();
+        row.add(new JLabel("Set Auto Restart Time (HH:MM)"));
+        JTextField time = new JTextField(mConfiguration.getOrDefault("autoTime", "11:45"), 5);
+        mSavers.add(() -> mConfiguration.put("autoTime", time.getText()));
+        row.add(time);
+        panel.add(row);
+
+        JRadioButton am = radioButton(panel, "AM", "autoAmPm", "PM");
+        JRadioButton pm = radioButton(panel, "PM", "autoAmPm", "PM");
+        group(am, pm);
+        return panel;
+    }
+
+    private void checkBox(JPanel panel, String text, String key, String defaultValue) {
+        JCheckBox checkBox = new JCheckBox(text, Boolean.parseBoolean(mConfiguration.getOrDefault(key, defaultValue)));
+        mSavers.add(() -> mConfiguration.put(key, Boolean.toString(checkBox.isSelected())));
+        panel.add(checkBox);
+    }
+
+    private void namedField(JPanel panel, String name, String key, String defaultValue) {
+        // IBC finds these fields by the name of their container
+        JPanel container = new JPanel();
+        container.setName(name);
+        container.add(new JLabel(name));
+        JTextField field = new JTextField(mConfiguration.getOrDefault(key, defaultValue), 8);
+        mSavers.add(() -> mConfiguration.put(key, field.getText()));
+        container.add(field);
+        panel.add(container);
+    }
+
+    private JRadioButton radioButton(JPanel panel, String text, String key, String defaultValue) {
+        JRadioButton button = new JRadioButton(text, text.equals(mConfiguration.getOrDefault(key, defaultValue)));
+        mSavers.add(() -> {
+            if (button.isSelected()) mConfiguration.put(key, text);
+        });
+        panel.add(button);
+        return button;
+    }
+
+    private static void group(JRadioButton... buttons) {
+        ButtonGroup group = new ButtonGroup();
+        for (JRadioButton button : buttons) group.add(button);
+    }
+
+    /**
+     * Stores the dialog's values.
+     * @return
+     * true if TWS would ask for confirmation of a changed socket port
+     */
+    private boolean save() {
+        String previousPort = mConfiguration.getOrDefault("socketPort", getDefaultPort());
+        for (Runnable saver : mSavers) saver.run();
+        return !mSimulator.isGateway() &&
+                !previousPort.equals(mConfiguration.get("socketPort")) &&
+                Boolean.parseBoolean(mConfiguration.get("activeX"));
+    }
+
+    private String getDefaultPort() {
+        return mSimulator.isGateway() ? "4001" : "7496";
+    }
+}
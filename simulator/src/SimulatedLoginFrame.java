@@ -0,0 +1,97 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc.simulator;
+
+import java.awt.GridLayout;
+import javax.swing.ButtonGroup;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JPasswordField;
+import javax.swing.JTextField;
+import javax.swing.JToggleButton;
+
+/**
+ * The login frame, laid out as in TWS and Gateway 1016 onwards: the frame
+ * itself becomes the second factor authentication frame by changing its
+ * heading label.
+ */
+final class SimulatedLoginFrame extends JFrame {
+    private static final long serialVersionUID = 1L;
+
+    private final JLabel mHeading = new JLabel("LOGIN");
+    private final JPanel mFields = new JPanel(new GridLayout(0, 2));
+
+    SimulatedLoginFrame(Simulator simulator) {
+        super(simulator.isGateway() ? simulator.getProductName() : "Login");
+
+        JPanel panel = new JPanel(new GridLayout(0, 1));
+        panel.add(mHeading);
+
+        if (simulator.isGateway()) {
+            JToggleButton api = new JToggleButton("IB API", true);
+            JToggleButton fix = new JToggleButton("FIX CTCI");
+            fix.setEnabled(false);
+            group(panel, api, fix);
+            panel.add(new JLabel("Trading Mode"));
+        }
+
+        JToggleButton live = new JToggleButton("Live Trading", true);
+        JToggleButton paper = new JToggleButton("Paper Trading");
+        group(panel, live, paper);
+
+        mFields.add(new JLabel("Username"));
+        mFields.add(new JTextField(16));
+        mFields.add(new JLabel("Password"));
+        mFields.add(new JPasswordField(16));
+        panel.add(mFields);
+
+        if (!simulator.isGateway()) panel.add(new JCheckBox("Use/store settings on server"));
+
+        JButton login = new JButton("Log In");
+        login.addActionListener(e -> {
+            login.setEnabled(false);
+            simulator.loginRequested(this, paper.isSelected());
+        });
+        panel.add(login);
+
+        add(panel);
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+    }
+
+    void showSecondFactorAuthentication() {
+        Simulator.log("second factor authentication started");
+        mHeading.setText("SECOND FACTOR AUTHENTICATION");
+        mFields.removeAll();
+        mFields.add(new JLabel("Check your mobile device to complete authentication"));
+        mFields.revalidate();
+    }
+
+    private static void group(JPanel panel, JToggleButton... buttons) {
+        ButtonGroup group = new ButtonGroup();
+        JPanel row = new JPanel();
+        for (JToggleButton button : buttons) {
+            group.add(button);
+            row.add(button);
+        }
+        panel.add(row);
+    }
+}
@@ -0,0 +1,106 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc.simulator;
+
+import java.awt.BorderLayout;
+import java.awt.event.ActionListener;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JMenu;
+import javax.swing.JMenuBar;
+import javax.swing.JMenuItem;
+import javax.swing.JScrollPane;
+import javax.swing.JTabbedPane;
+import javax.swing.JTextArea;
+import javax.swing.Timer;
+
+/**
+ * The main window, with the menus that IBC uses. Gateway's main window also
+ * has a log tab to which a line is appended every ibcsim.logInterval
+ * milliseconds.
+ */
+final class SimulatedMainWindow extends JFrame {
+    private static final long serialVersionUID = 1L;
+
+    private Timer mLogTimer;
+
+    SimulatedMainWindow(Simulator simulator) {
+        super(simulator.getProductName());
+
+        JMenuBar menuBar = new JMenuBar();
+        if (simulator.isGateway()) {
+            menuBar.add(menu("File",
+                             item("Save Settings", e -> Simulator.log("settings saved")),
+                             item("Restart...", e -> simulator.restartRequested()),
+                             item("Close", e -> simulator.exitRequested())));
+            menuBar.add(menu("Configure",
+                             item("Settings", e -> simulator.configurationRequested())));
+            menuBar.add(menu("Help",
+                             item("About IB Gateway", e -> { })));
+        } else {
+            menuBar.add(menu("File",
+                             item("Global Configuration...", e -> simulator.configurationRequested()),
+                             item("Save Settings", e -> Simulator.log("settings saved")),
+                             item("Lock Application", e -> { }),
+                             item("Restart...", e -> simulator.restartRequested()),
+                             item("Exit", e -> simulator.exitRequested())));
+            menuBar.add(menu("Edit",
+                             item("Global Configuration...", e -> simulator.configurationRequested())));
+            menuBar.add(menu("Help",
+                             item("About Trader Workstation", e -> { })));
+        }
+        setJMenuBar(menuBar);
+
+        if (simulator.isGateway()) {
+            JTextArea log = new JTextArea(20, 80);
+            log.setEditable(false);
+            JTabbedPane tabs = new JTabbedPane();
+            tabs.addTab("API Log", new JScrollPane(log));
+            add(tabs, BorderLayout.CENTER);
+
+            int interval = Simulator.delay("logInterval", 1000);
+            if (interval > 0) {
+                int[] sequence = new int[1];
+                mLogTimer = new Timer(interval, e -> log.append("Simulated log line " + ++sequence[0] + "\n"));
+                mLogTimer.start();
+            }
+        } else {
+            add(new JLabel("Simulated " + simulator.getProductName()), BorderLayout.CENTER);
+        }
+        setDefaultCloseOperation(DO_NOTHING_ON_CLOSE);
+    }
+
+    @Override
+    public void dispose() {
+        if (mLogTimer != null) mLogTimer.stop();
+        super.dispose();
+    }
+
+    private static JMenu menu(String text, JMenuItem... items) {
+        JMenu menu = new JMenu(text);
+        for (JMenuItem item : items) menu.add(item);
+        return menu;
+    }
+
+    private static JMenuItem item(String text, ActionListener action) {
+        JMenuItem item = new JMenuItem(text);
+        item.addActionListener(action);
+        return item;
+    }
+}
@@ -0,0 +1,33 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc.simulator;
+
+/**
+ * A launch target that simulates Trader Workstation, for use in place of
+ * jclient.LoginFrame by setting EntryPoint=ibcalpha.ibc.simulator.SimulatedTws in
+ * IBC's settings.
+ */
+public class SimulatedTws {
+
+    private SimulatedTws() { }
+
+    public static void main(String[] args) {
+        new Simulator(false, args).start();
+    }
+}
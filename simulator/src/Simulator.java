@@ -0,0 +1,205 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc.simulator;
+
+import java.awt.Window;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * Drives a simulated TWS or Gateway session.
+ *
+ * The simulator displays the same sequence of windows that IBC handles for the
+ * real products: the login frame (optionally turning into the second factor
+ * authentication frame), the splash frame, the main window with its menus, the
+ * Global Configuration dialog and the exit and restart confirmation dialogs.
+ * Each window contains the components that IBC's window handlers and
+ * configuration tasks look for, so IBC can be run, measured and load-tested
+ * without an IB installation or account.
+ *
+ * Delays are set by system properties, all in milliseconds:
+ *
+ *      ibcsim.loginDelay           from Log In to the next window (default 1000)
+ *      ibcsim.secondFactor         if true, live logins go through second
+ *                                  factor authentication (default false)
+ *      ibcsim.secondFactorDelay    time taken to complete it (default 3000)
+ *      ibcsim.splashDelay          time the splash frame is shown (default 1000)
+ *      ibcsim.configDialogDelay    from the menu item to the Global
+ *                                  Configuration dialog (default 300)
+ *      ibcsim.exitDelay            time the shutdown progress dialog is shown
+ *                                  (default 500)
+ *      ibcsim.logInterval          interval between simulated log lines in the
+ *                                  Gateway's main window, or 0 for none
+ *                                  (default 1000)
+ *
+ * Only the IB API login is simulated, not FIX CTCI.
+ */
+final class Simulator {
+
+    private final boolean mGateway;
+    private final String mSettingsDirectory;
+
+    // the Global Configuration values, which persist between openings of the dialog
+    private final Map<String, String> mConfiguration = new HashMap<>();
+
+    private SimulatedMainWindow mMainWindow;
+
+    Simulator(boolean gateway, String[] args) {
+        mGateway = gateway;
+        mSettingsDirectory = args.length > 0 ? args[0] : System.getProperty("user.dir");
+    }
+
+    void start() {
+        log("simulating " + getProductName() + " with settings directory " + mSettingsDirectory);
+        SwingUtilities.invokeLater(this::showLogin);
+    }
+
+    boolean isGateway() {
+        return mGateway;
+    }
+
+    String getProductName() {
+        return mGateway ? "IBKR Gateway" : "Trader Workstation";
+    }
+
+    Map<String, String> getConfiguration() {
+        return mConfiguration;
+    }
+
+    SimulatedMainWindow getMainWindow() {
+        return mMainWindow;
+    }
+
+    private void showLogin() {
+        show(new SimulatedLoginFrame(this));
+    }
+
+    void loginRequested(SimulatedLoginFrame frame, boolean paper) {
+        log("login requested: " + (paper ? "paper" : "live") + " trading");
+        after(delay("loginDelay", 1000), () -> {
+            if (!paper && Boolean.getBoolean("ibcsim.secondFactor")) {
+                frame.showSecondFactorAuthentication();
+                after(delay("secondFactorDelay", 3000), () -> loginCompleted(frame));
+            } else {
+                loginCompleted(frame);
+            }
+        });
+    }
+
+    private void loginCompleted(SimulatedLoginFrame frame) {
+        log("login completed");
+        frame.dispose();
+        showSplashThenMainWindow();
+    }
+
+    private void showSplashThenMainWindow() {
+        JFrame splash = new JFrame("Starting application...");
+        splash.add(new JLabel("Starting application..."));
+        show(splash);
+        after(delay("splashDelay", 1000), () -> {
+            splash.dispose();
+            mMainWindow = new SimulatedMainWindow(this);
+            show(mMainWindow);
+        });
+    }
+
+    void configurationRequested() {
+        after(delay("configDialogDelay", 300), () -> show(new SimulatedConfigurationDialog(this)));
+    }
+
+    void exitRequested() {
+        show(createConfirmationDialog("Exit", "Are you sure you want to exit?", () -> {
+            JDialog progress = new JDialog(mMainWindow, "Shutdown progress");
+            progress.add(new JLabel("Shutting down..."));
+            show(progress);
+            after(delay("exitDelay", 500), () -> {
+                log("exiting");
+                System.exit(0);
+            });
+        }));
+    }
+
+    void restartRequested() {
+        show(createConfirmationDialog("Restart",
+                                      "Are you sure you would like to restart the application?",
+                                      () -> {
+            // a restart logs in again automatically, so there is no login frame
+            log("restarting");
+            mMainWindow.dispose();
+            mMainWindow = null;
+            showSplashThenMainWindow();
+        }));
+    }
+
+    void apiSettingChanged() {
+        show(createConfirmationDialog("Confirm", "Do you want to apply the new socket port setting?", () -> { }));
+    }
+
+    /**
+     * Creates a non-modal dialog with a message and Yes and No buttons.
+     */
+    JDialog createConfirmationDialog(String title, String message, Runnable onYes) {
+        JDialog dialog = new JDialog(mMainWindow, title);
+        JPanel panel = new JPanel();
+        panel.add(new JLabel(message));
+        JButton yes = new JButton("Yes");
+        yes.addActionListener(e -> {
+            dialog.dispose();
+            onYes.run();
+        });
+        JButton no = new JButton("No");
+        no.addActionListener(e -> dialog.dispose());
+        panel.add(yes);
+        panel.add(no);
+        dialog.add(panel);
+        return dialog;
+    }
+
+    static void show(Window window) {
+        window.pack();
+        window.setLocationByPlatform(true);
+        window.setVisible(true);
+    }
+
+    /**
+     * Runs an action on the event dispatch thread after a delay.
+     */
+    static void after(int millis, Runnable action) {
+        Timer timer = new Timer(millis, e -> action.run());
+        timer.setRepeats(false);
+        timer.start();
+    }
+
+    static int delay(String name, int defaultMillis) {
+        return Math.max(0, Integer.getInteger("ibcsim." + name, defaultMillis));
+    }
+
+    static void log(String message) {
+        System.out.println((new SimpleDateFormat("yyyy-MM-dd HH:mm:ss:SSS")).format(new Date()) + " Simulator: " + message);
+    }
+}
@@ -89,7 +89,8 @@ public abstract class AbstractLoginHandler implements WindowHandler {
                     autorestartFile.delete();
                 };
 
-                initiateLogin(window);
+                // after a failed login and cold restart, this waits before trying again
+                LoginRetryScheduler.getInstance().runAfterBackoff("login", false, 0, () -> initiateLogin(window));
         }
     }
 
@@ -109,6 +110,7 @@ public abstract class AbstractLoginHandler implements WindowHandler {
             if (!preLogin(window, WindowEvent.WINDOW_OPENED)) return;
 
             Utils.logToConsole("Login attempt: " + ++loginAttemptNumber);
+            LoginRetryScheduler.getInstance().recordAttempt(loginAttemptNumber, "login");
             doLogin(window);
         } catch (IbcException e) {
             Utils.exitWithError(ErrorCodes.CANT_FIND_CONTROL, "could not login: could not find control: " + e.getMessage());
@@ -120,7 +122,7 @@ public abstract class AbstractLoginHandler implements WindowHandler {
         // this JLabel is only present for the 1016+ versions
         final JLabel initialTitleLabel = SwingUtils.findLabel(window, "LOGIN");
         
-        GuiDeferredExecutor.instance().execute(() -> {
+        GuiDeferredExecutor.instance().execute(EdtScheduler.Priority.LOGIN, () -> {
             final JButton loginButton = findLoginButton(window);
             LoginManager.loginManager().setLoginState(LoginManager.LoginState.LOGGING_IN);
             SwingUtils.clickButton(loginButton);
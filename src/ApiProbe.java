@@ -0,0 +1,233 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Periodically checks that TWS's API port is accepting connections.
+ *
+ * Each probe connects to the port and performs the start of the API handshake:
+ * it sends the "API\0" prefix and the range of client versions it supports, and
+ * waits for TWS to reply with its server version. It then disconnects, without
+ * starting an API session, so no client id is used.
+ *
+ * The probe runs every ApiProbeInterval seconds (0, the default, disables it),
+ * starting when login has completed. The port is ApiProbePort if set, otherwise
+ * OverrideTwsApiPort, otherwise TWS's default port for the trading mode; the
+ * host is ApiProbeHost (default 127.0.0.1). Each step must complete within
+ * ApiProbeTimeout seconds (default 5).
+ *
+ * Changes in the API's readiness are published as API_READY events and in the
+ * status snapshot. If ApiProbeFailureAction is set to reconnectdata or restart,
+ * that action is taken after ApiProbeFailureThreshold (default 3) consecutive
+ * failed probes while logged in; it is not repeated until a probe has
+ * succeeded.
+ */
+class ApiProbe
+        implements Runnable {
+
+    private static final ApiProbe _instance = new ApiProbe();
+
+    static ApiProbe getInstance() {
+        return _instance;
+    }
+
+    private static final int MIN_CLIENT_VERSION = 100;
+    private static final int MAX_CLIENT_VERSION = 176;
+
+    private final AtomicBoolean mStarted = new AtomicBoolean();
+
+    private final LatencyHistogram mConnectLatency = new LatencyHistogram();
+    private final LatencyHistogram mHandshakeLatency = new LatencyHistogram();
+
+    private volatile String mHost;
+    private volatile int mPort;
+    private volatile boolean mReady;
+    private boolean mReadyKnown;
+    private volatile long mProbes;
+    private volatile long mFailures;
+    private volatile int mConsecutiveFailures;
+    private volatile boolean mActionTaken;
+    private volatile String mLastError = "";
+    private volatile int mServerVersion;
+
+    /**
+     * Starts probing, if it is configured and has not already been started.
+     */
+    void start() {
+        if (Settings.settings().getInt("ApiProbeInterval", 0) <= 0) return;
+        if (!mStarted.compareAndSet(false, true)) return;
+        mHost = Settings.settings().getString("ApiProbeHost", "127.0.0.1");
+        mPort = getPort();
+        MyCachedThreadPool.getInstance().execute(this);
+    }
+
+    @Override
+    public void run() {
+        Thread.currentThread().setName("ApiProbe");
+
+        final int interval = Settings.settings().getInt("ApiProbeInterval", 0);
+        final int timeout = Math.max(1, Settings.settings().getInt("ApiProbeTimeout", 5));
+        final int threshold = Math.max(1, Settings.settings().getInt("ApiProbeFailureThreshold", 3));
+        final String action = Settings.settings().getString("ApiProbeFailureAction", "none").toLowerCase();
+
+        Utils.logToConsole("ApiProbe checking " + mHost + ":" + mPort + " every " + interval + " seconds");
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                probe(timeout * 1000);
+                if (mConsecutiveFailures >= threshold) takeAction(action);
+                TimeUnit.SECONDS.sleep(interval);
+            }
+        } catch (InterruptedException e) {
+            // IBC is shutting down
+        }
+    }
+
+    private static int getPort() {
+        int port = Settings.settings().getInt("ApiProbePort", Settings.settings().getInt("OverrideTwsApiPort", 0));
+        if (port != 0) return port;
+        boolean paper = Settings.settings().getString("TradingMode", "live").equalsIgnoreCase("paper");
+        if (SessionManager.isGateway()) return paper ? 4002 : 4001;
+        return paper ? 7497 : 7496;
+    }
+
+    /**
+     * Performs a single probe.
+     * @param timeoutMillis
+     * the maximum time allowed for each of the connection and the handshake
+     * @return
+     * true if TWS completed the handshake
+     */
+    boolean probe(int timeoutMillis) {
+        mProbes++;
+        String error = null;
+        try (Socket socket = new Socket()) {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(timeoutMillis);
+
+            long start = System.nanoTime();
+            socket.connect(new InetSocketAddress(mHost, mPort), timeoutMillis);
+            long connected = System.nanoTime();
+            mConnectLatency.record(connected - start, TimeUnit.NANOSECONDS);
+
+            mServerVersion = handshake(socket);
+            mHandshakeLatency.record(System.nanoTime() - connected, TimeUnit.NANOSECONDS);
+        } catch (IOException | IllegalStateException e) {
+            error = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+        }
+
+        if (error == null) {
+            mConsecutiveFailures = 0;
+            mActionTaken = false;
+        } else {
+            mFailures++;
+            mConsecutiveFailures++;
+            mLastError = error;
+        }
+        setReady(error == null, error);
+        return error == null;
+    }
+
+    private static int handshake(Socket socket) throws IOException {
+        byte[] versions = ("v" + MIN_CLIENT_VERSION + ".." + MAX_CLIENT_VERSION).getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer request = ByteBuffer.allocate(4 + 4 + versions.length);
+        request.put("API\0".getBytes(StandardCharsets.US_ASCII)).putInt(versions.length).put(versions);
+        OutputStream out = socket.getOutputStream();
+        out.write(request.array());
+        out.flush();
+
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        int length = in.readInt();
+        if (length <= 0 || length > 1024) throw new IllegalStateException("invalid handshake reply length " + length);
+        byte[] reply = new byte[length];
+        in.readFully(reply);
+
+        // the reply is the server version followed by the connection time, each null-terminated
+        String serverVersion = new String(reply, StandardCharsets.US_ASCII).split("\0", 2)[0];
+        try {
+            return Integer.parseInt(serverVersion);
+        } catch (NumberFormatException e) {
+            throw new IllegalStateException("invalid server version " + serverVersion);
+        }
+    }
+
+    private void setReady(boolean ready, String error) {
+        if (ready == mReady && mReadyKnown) return;
+        mReady = ready;
+        mReadyKnown = true;
+        if (ready) {
+            Utils.logToConsole("ApiProbe: API is ready on port " + mPort + ": server version " + mServerVersion);
+        } else {
+            Utils.logToConsole("ApiProbe: API is not ready on port " + mPort + ": " + error);
+        }
+        IbcStatus.update(s -> s.withApiReady(ready));
+        IbcEventBus.getInstance().publish(IbcEvent.Type.API_READY,
+                                          "ready=" + ready + " port=" + mPort +
+                                          (ready ? " serverVersion=" + mServerVersion : " error=" + IbcEvent.quote(error)));
+    }
+
+    private void takeAction(String action) {
+        if (mActionTaken) return;
+        if (LoginManager.loginManager().getLoginState() != LoginManager.LoginState.LOGGED_IN) return;
+        try {
+            switch (action) {
+                case "reconnectdata":
+                    mActionTaken = true;
+                    Utils.logError("ApiProbe: API not ready after " + mConsecutiveFailures + " attempts: reconnecting data");
+                    // if it can't be done now, it is tried again after the next failed probe
+                    if (!CommandDispatcher.reconnectData()) mActionTaken = false;
+                    break;
+                case "restart":
+                    mActionTaken = true;
+                    Utils.logError("ApiProbe: API not ready after " + mConsecutiveFailures + " attempts: restarting");
+                    (new RestartTask(null)).run();
+                    break;
+                default:
+                    break;
+            }
+        } catch (RuntimeException e) {
+            // a failed remedy mustn't stop the probing
+            Utils.logException(e);
+            mActionTaken = false;
+        }
+    }
+
+    String getStatistics() {
+        if (!mStarted.get()) return "state=notstarted";
+        return "host=" + mHost +
+               " port=" + mPort +
+               " ready=" + mReady +
+               " serverVersion=" + mServerVersion +
+               " probes=" + mProbes +
+               " failures=" + mFailures +
+               " consecutiveFailures=" + mConsecutiveFailures +
+               " lastError=" + IbcEvent.quote(mLastError) +
+               " " + mConnectLatency.toString("connect") +
+               " " + mHandshakeLatency.toString("handshake");
+    }
+}
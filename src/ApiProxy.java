@@ -0,0 +1,495 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A TCP forwarder for the TWS API port, so that API clients can connect to a
+ * port that is independent of TWS's own API port setting.
+ *
+ * The proxy is enabled by setting ApiProxyListenPort, and forwards each
+ * connection to OverrideTwsApiPort on the loopback address (ApiProxyTargetPort
+ * may be used to forward to a different port). It starts listening when login
+ * has completed, and then keeps listening for the life of IBC: a client that
+ * connects while TWS isn't accepting API connections is simply disconnected.
+ *
+ * TWS sees every forwarded connection as coming from the local host, so its
+ * trusted IP addresses don't apply: instead clients are checked against the
+ * ApiProxyAllowFrom setting, which has the same syntax as ControlFrom. Clients
+ * on the local host are always permitted.
+ *
+ * All connections are serviced by a single thread using a selector, and data is
+ * relayed through direct buffers without being copied onto the Java heap. The
+ * proxy counts the bytes and API messages relayed in each direction; if
+ * ApiProxyCaptureSampleRate is set to N, the start of every Nth message (up to
+ * ApiProxyCaptureBytes bytes, default 64) is also logged.
+ *
+ * The APIPROXY command reports the counters.
+ */
+class ApiProxy
+        implements Runnable {
+
+    private static final ApiProxy _instance = new ApiProxy();
+
+    static ApiProxy getInstance() {
+        return _instance;
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final AtomicBoolean mStarted = new AtomicBoolean();
+    private volatile boolean mQuitting;
+    private volatile Selector mSelector;
+
+    private int mListenPort;
+    private int mTargetPort;
+    private ClientAddressFilter mClientFilter;
+    private int mSampleRate;
+    private int mCaptureBytes;
+
+    private final Map<Integer, Connection> mConnections = new ConcurrentSkipListMap<>();
+    private int mNextConnectionId = 1;
+    private final AtomicLong mAccepted = new AtomicLong();
+    private final AtomicLong mRejected = new AtomicLong();
+    private final AtomicLong mFailed = new AtomicLong();
+    // the counters of connections that have closed
+    private final AtomicLong mClosedBytesUp = new AtomicLong();
+    private final AtomicLong mClosedMessagesUp = new AtomicLong();
+    private final AtomicLong mClosedBytesDown = new AtomicLong();
+    private final AtomicLong mClosedMessagesDown = new AtomicLong();
+
+    private final BlockingQueue<String> mCaptureQueue = new ArrayBlockingQueue<>(1000);
+    private final AtomicLong mCaptureDropped = new AtomicLong();
+
+    private ApiProxy() {}
+
+    /**
+     * Starts the proxy, if it is configured and has not already been started.
+     */
+    void start() {
+        final int listenPort = Settings.settings().getInt("ApiProxyListenPort", 0);
+        if (listenPort == 0) return;
+        if (!mStarted.compareAndSet(false, true)) return;
+
+        mListenPort = listenPort;
+        mTargetPort = Settings.settings().getInt("ApiProxyTargetPort", Settings.settings().getInt("OverrideTwsApiPort", 0));
+        if (mTargetPort == 0) {
+            Utils.logError("ApiProxy is not started because neither ApiProxyTargetPort nor OverrideTwsApiPort is set");
+            return;
+        }
+        mClientFilter = ClientAddressFilter.compile(Settings.settings().getString("ApiProxyAllowFrom", ""));
+        mSampleRate = Math.max(0, Settings.settings().getInt("ApiProxyCaptureSampleRate", 0));
+        mCaptureBytes = Math.max(0, Settings.settings().getInt("ApiProxyCaptureBytes", 64));
+
+        mClientFilter.startResolving();
+        MyCachedThreadPool.getInstance().execute(this);
+        if (mSampleRate != 0) MyCachedThreadPool.getInstance().execute(this::writeCaptures);
+    }
+
+    void shutdown() {
+        mQuitting = true;
+        Selector selector = mSelector;
+        if (selector != null) selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        Thread.currentThread().setName("ApiProxy");
+
+        try (Selector selector = Selector.open();
+             ServerSocketChannel server = ServerSocketChannel.open()) {
+            mSelector = selector;
+            server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            final String bindAddress = Settings.settings().getString("ApiProxyBindAddress", "");
+            server.bind(bindAddress.isEmpty() ? new InetSocketAddress(mListenPort)
+                                              : new InetSocketAddress(InetAddress.getByName(bindAddress), mListenPort));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            Utils.logToConsole("ApiProxy listening on port " + mListenPort + " and forwarding to port " + mTargetPort);
+
+            while (!mQuitting && !Thread.currentThread().isInterrupted()) {
+                selector.select();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept(server, selector);
+                    } else {
+                        ((Endpoint) key.attachment()).handle(key);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            Utils.logException(e);
+            Utils.logError("ApiProxy cannot forward API connections");
+        } finally {
+            mSelector = null;
+            for (Connection c : mConnections.values()) c.close();
+            mClientFilter.stopResolving();
+            Utils.logToConsole("ApiProxy is shutdown");
+        }
+    }
+
+    private void accept(ServerSocketChannel server, Selector selector) {
+        SocketChannel client = null;
+        try {
+            client = server.accept();
+            if (client == null) return;
+            InetAddress address = ((InetSocketAddress) client.getRemoteAddress()).getAddress();
+            if (!address.isLoopbackAddress() && !mClientFilter.isPermitted(address)) {
+                mRejected.incrementAndGet();
+                Utils.logToConsole("ApiProxy denied access to: " + address);
+                client.close();
+                return;
+            }
+            mAccepted.incrementAndGet();
+
+            client.configureBlocking(false);
+            client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            SocketChannel upstream = SocketChannel.open();
+            upstream.configureBlocking(false);
+            upstream.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+            Connection connection = new Connection(mNextConnectionId++, client, upstream, address);
+            mConnections.put(connection.id, connection);
+            connection.connect(selector);
+        } catch (IOException e) {
+            Utils.logException(e);
+            if (client != null) {
+                try {
+                    client.close();
+                } catch (IOException ex) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the proxy's counters.
+     * @param perConnection
+     * true to report each open connection's counters rather than the totals
+     * @return
+     * the counters as key=value pairs
+     */
+    String getStatistics(boolean perConnection) {
+        if (mSelector == null) return "state=notlistening";
+
+        StringBuilder sb = new StringBuilder();
+        if (perConnection) {
+            for (Connection c : mConnections.values()) {
+                if (sb.length() != 0) sb.append("; ");
+                sb.append("id=").append(c.id)
+                  .append(" client=").append(c.clientAddress.getHostAddress())
+                  .append(" connected=").append(c.connected)
+                  .append(" upBytes=").append(c.up.bytes)
+                  .append(" upMessages=").append(c.up.counter.messages)
+                  .append(" downBytes=").append(c.down.bytes)
+                  .append(" downMessages=").append(c.down.counter.messages);
+            }
+            return sb.length() == 0 ? "no connections" : sb.toString();
+        }
+
+        long upBytes = mClosedBytesUp.get(), upMessages = mClosedMessagesUp.get();
+        long downBytes = mClosedBytesDown.get(), downMessages = mClosedMessagesDown.get();
+        for (Connection c : mConnections.values()) {
+            upBytes += c.up.bytes;
+            upMessages += c.up.counter.messages;
+            downBytes += c.down.bytes;
+            downMessages += c.down.counter.messages;
+        }
+        return sb.append("listenPort=").append(mListenPort)
+                 .append(" targetPort=").append(mTargetPort)
+                 .append(" accepted=").append(mAccepted.get())
+                 .append(" rejected=").append(mRejected.get())
+                 .append(" failed=").append(mFailed.get())
+                 .append(" active=").append(mConnections.size())
+                 .append(" upBytes=").append(upBytes)
+                 .append(" upMessages=").append(upMessages)
+                 .append(" downBytes=").append(downBytes)
+                 .append(" downMessages=").append(downMessages)
+                 .append(" capturesDropped=").append(mCaptureDropped.get())
+                 .toString();
+    }
+
+    private void capture(String record) {
+        if (!mCaptureQueue.offer(record)) mCaptureDropped.incrementAndGet();
+    }
+
+    // logging can block, so it is kept off the selector thread
+    private void writeCaptures() {
+        Thread.currentThread().setName("ApiProxyCapture");
+        try {
+            while (!mQuitting) Utils.logToConsole(mCaptureQueue.take());
+        } catch (InterruptedException e) {
+            // IBC is shutting down
+        }
+    }
+
+    private interface Endpoint {
+        void handle(SelectionKey key);
+    }
+
+    private final class Connection {
+        final int id;
+        final InetAddress clientAddress;
+        final SocketChannel client;
+        final SocketChannel upstream;
+        final Relay up;
+        final Relay down;
+        SelectionKey clientKey;
+        SelectionKey upstreamKey;
+        volatile boolean connected;
+        private boolean closed;
+
+        Connection(int id, SocketChannel client, SocketChannel upstream, InetAddress clientAddress) {
+            this.id = id;
+            this.clientAddress = clientAddress;
+            this.client = client;
+            this.upstream = upstream;
+            // the client starts its connection with the "API\0" prefix, which isn't
+            // a length-prefixed message
+            up = new Relay("up", client, upstream, 4);
+            down = new Relay("down", upstream, client, 0);
+        }
+
+        void connect(Selector selector) throws IOException {
+            clientKey = client.register(selector, 0, (Endpoint) key -> handleReady(key, client));
+            upstreamKey = upstream.register(selector, SelectionKey.OP_CONNECT, (Endpoint) key -> handleReady(key, upstream));
+            if (upstream.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), mTargetPort))) connected();
+        }
+
+        private void connected() {
+            connected = true;
+            Utils.logToConsole("ApiProxy connection " + id + " from " + clientAddress.getHostAddress() + " forwarded to port " + mTargetPort);
+            updateInterest();
+        }
+
+        private void handleReady(SelectionKey key, SocketChannel channel) {
+            try {
+                if (key.isConnectable()) {
+                    if (upstream.finishConnect()) connected();
+                    return;
+                }
+                if (key.isWritable()) {
+                    // data is written to a channel by the relay whose destination it is
+                    if (!(channel == upstream ? up : down).flush()) return;
+                }
+                if (key.isValid() && key.isReadable()) {
+                    if (!(channel == client ? up : down).fill()) return;
+                }
+                updateInterest();
+            } catch (IOException e) {
+                if (!connected) {
+                    mFailed.incrementAndGet();
+                    Utils.logToConsole("ApiProxy connection " + id + " cannot connect to port " + mTargetPort + ": " + e.getMessage());
+                }
+                close();
+            }
+        }
+
+        private void updateInterest() {
+            if (closed) return;
+            clientKey.interestOps((up.wantsRead() ? SelectionKey.OP_READ : 0) | (down.wantsWrite() ? SelectionKey.OP_WRITE : 0));
+            upstreamKey.interestOps((down.wantsRead() ? SelectionKey.OP_READ : 0) | (up.wantsWrite() ? SelectionKey.OP_WRITE : 0));
+        }
+
+        void close() {
+            if (closed) return;
+            closed = true;
+            mConnections.remove(id);
+            mClosedBytesUp.addAndGet(up.bytes);
+            mClosedMessagesUp.addAndGet(up.counter.messages);
+            mClosedBytesDown.addAndGet(down.bytes);
+            mClosedMessagesDown.addAndGet(down.counter.messages);
+            try {
+                client.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            try {
+                upstream.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            if (connected) {
+                Utils.logToConsole("ApiProxy connection " + id + " closed: upBytes=" + up.bytes + " upMessages=" + up.counter.messages +
+                                   " downBytes=" + down.bytes + " downMessages=" + down.counter.messages);
+            }
+        }
+
+        /*
+         * Relays data in one direction. Data read from the source is written to the
+         * destination; if the destination can't accept it all, reading from the
+         * source is suspended until the buffer has been drained, so a slow reader
+         * applies back-pressure rather than causing unbounded buffering.
+         */
+        private final class Relay {
+            private final String direction;
+            private final SocketChannel source;
+            private final SocketChannel destination;
+            private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            private final MessageCounter counter;
+            private boolean sourceEnded;
+            // only updated by the selector thread
+            volatile long bytes;
+
+            Relay(String direction, SocketChannel source, SocketChannel destination, int prefixLength) {
+                this.direction = direction;
+                this.source = source;
+                this.destination = destination;
+                this.counter = new MessageCounter(direction, prefixLength);
+            }
+
+            boolean wantsRead() {
+                return connected && !sourceEnded && buffer.hasRemaining();
+            }
+
+            boolean wantsWrite() {
+                return buffer.position() != 0;
+            }
+
+            /**
+             * @return false if the connection has been closed
+             */
+            boolean fill() throws IOException {
+                int start = buffer.position();
+                int n = source.read(buffer);
+                if (n < 0) {
+                    sourceEnded = true;
+                    if (buffer.position() == 0) {
+                        close();
+                        return false;
+                    }
+                    return true;
+                }
+                bytes += n;
+                counter.scan(buffer, start, buffer.position());
+                return flush();
+            }
+
+            /**
+             * @return false if the connection has been closed
+             */
+            boolean flush() throws IOException {
+                buffer.flip();
+                destination.write(buffer);
+                buffer.compact();
+                if (sourceEnded && buffer.position() == 0) {
+                    close();
+                    return false;
+                }
+                return true;
+            }
+        }
+
+        /*
+         * Counts API messages, each of which consists of a 4-byte big-endian length
+         * followed by that number of bytes. Only the length fields are examined.
+         */
+        private final class MessageCounter {
+            private final String direction;
+            private int prefixRemaining;
+            private int headerRemaining = 4;
+            private int length;
+            private int bodyRemaining;
+            private byte[] capture;
+            private int captureLength;
+            private int messageLength;
+            volatile long messages;
+
+            MessageCounter(String direction, int prefixLength) {
+                this.direction = direction;
+                this.prefixRemaining = prefixLength;
+            }
+
+            void scan(ByteBuffer buffer, int from, int to) {
+                int i = from;
+                while (i < to) {
+                    if (prefixRemaining > 0) {
+                        int n = Math.min(prefixRemaining, to - i);
+                        prefixRemaining -= n;
+                        i += n;
+                    } else if (bodyRemaining > 0) {
+                        int n = Math.min(bodyRemaining, to - i);
+                        if (capture != null) {
+                            int c = Math.min(n, capture.length - captureLength);
+                            for (int j = 0; j < c; j++) capture[captureLength++] = buffer.get(i + j);
+                        }
+                        bodyRemaining -= n;
+                        i += n;
+                        if (bodyRemaining == 0) endMessage();
+                    } else {
+                        length = (length << 8) | (buffer.get(i++) & 0xff);
+                        if (--headerRemaining == 0) startMessage();
+                    }
+                }
+            }
+
+            private void startMessage() {
+                messages++;
+                messageLength = length;
+                bodyRemaining = length;
+                headerRemaining = 4;
+                length = 0;
+                if (mSampleRate != 0 && messages % mSampleRate == 0) {
+                    capture = new byte[Math.min(messageLength, mCaptureBytes)];
+                    captureLength = 0;
+                }
+                if (bodyRemaining == 0) endMessage();
+            }
+
+            private void endMessage() {
+                if (capture == null) return;
+                StringBuilder sb = new StringBuilder("ApiProxy capture: connection=").append(id)
+                        .append(" direction=").append(direction)
+                        .append(" message=").append(messages)
+                        .append(" length=").append(messageLength)
+                        .append(" data=");
+                // API message fields are null-terminated strings
+                for (int i = 0; i < captureLength; i++) {
+                    int b = capture[i] & 0xff;
+                    sb.append(b == 0 ? '|' : (b >= 0x20 && b < 0x7f ? (char) b : '.'));
+                }
+                if (captureLength < messageLength) sb.append("...");
+                capture(sb.toString());
+                capture = null;
+            }
+        }
+    }
+}
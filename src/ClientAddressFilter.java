@@ -0,0 +1,206 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+/**
+ * The set of client addresses permitted by the ControlFrom setting.
+ *
+ * The setting is a comma-separated list whose entries may be IPv4 or IPv6
+ * addresses, CIDR prefixes (eg 192.168.1.0/24 or fd00::/8), or host names.
+ * Addresses and prefixes are compiled once into a binary prefix trie, so
+ * checking a client address takes at most one step per address bit and never
+ * blocks.
+ *
+ * Host names are resolved to addresses in the background, and re-resolved
+ * every ControlFromResolveInterval seconds (default 300), so the accept thread
+ * never waits for DNS. A client connecting from a host name's address before
+ * the first resolution has completed is refused.
+ */
+final class ClientAddressFilter {
+
+    private static final Pattern IPV4_LITERAL = Pattern.compile("\\d{1,3}(\\.\\d{1,3}){3}");
+
+    private final PrefixTrie mPrefixes;
+    private final List<String> mHostNames;
+    private volatile PrefixTrie mResolvedHostNames = new PrefixTrie();
+    private volatile ScheduledFuture<?> mRefresher;
+    private final AtomicBoolean mResolving = new AtomicBoolean();
+    // only accessed by the thread that holds mResolving
+    private final Map<String, InetAddress[]> mLastResolved = new HashMap<>();
+
+    private ClientAddressFilter(PrefixTrie prefixes, List<String> hostNames) {
+        mPrefixes = prefixes;
+        mHostNames = hostNames;
+    }
+
+    /**
+     * Compiles a ControlFrom setting. Entries that are neither valid addresses
+     * nor valid prefixes are treated as host names.
+     * @param allowedClients
+     * the comma-separated list of permitted clients
+     * @return
+     * the filter
+     */
+    static ClientAddressFilter compile(String allowedClients) {
+        PrefixTrie prefixes = new PrefixTrie();
+        List<String> hostNames = new ArrayList<>();
+        for (String entry : allowedClients.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) continue;
+            try {
+                int slash = entry.indexOf('/');
+                if (slash >= 0) {
+                    byte[] address = parseLiteral(entry.substring(0, slash));
+                    if (address == null) throw new IllegalArgumentException("not an IP address");
+                    int length = Integer.parseInt(entry.substring(slash + 1));
+                    if (length < 0 || length > address.length * 8) throw new IllegalArgumentException("invalid prefix length");
+                    prefixes.add(address, length);
+                } else {
+                    byte[] address = parseLiteral(entry);
+                    if (address != null) {
+                        prefixes.add(address, address.length * 8);
+                    } else {
+                        hostNames.add(entry);
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                Utils.logError("CommandServer: invalid ControlFrom entry ignored: " + entry + ": " + e.getMessage());
+            }
+        }
+        return new ClientAddressFilter(prefixes, Collections.unmodifiableList(hostNames));
+    }
+
+    /**
+     * Determines whether an address is permitted. This never blocks.
+     * @param address
+     * the client's address
+     * @return
+     * true if the address matches a configured address or prefix, or a current
+     * address of a configured host name
+     */
+    boolean isPermitted(InetAddress address) {
+        byte[] bytes = address.getAddress();
+        return mPrefixes.contains(bytes) || mResolvedHostNames.contains(bytes);
+    }
+
+    /**
+     * Starts resolving the configured host names in the background, if there
+     * are any.
+     */
+    void startResolving() {
+        if (mHostNames.isEmpty()) return;
+        final int interval = Math.max(1, Settings.settings().getInt("ControlFromResolveInterval", 300));
+        Utils.logToConsole("CommandServer: ControlFrom host names will be resolved every " + interval + " seconds: " + mHostNames);
+        // the scheduler has a single thread, so the lookups must not run on it
+        mRefresher = MyScheduledExecutorService.getInstance().scheduleWithFixedDelay(
+                () -> MyCachedThreadPool.getInstance().execute(this::resolveHostNames),
+                0, interval, TimeUnit.SECONDS);
+    }
+
+    void stopResolving() {
+        ScheduledFuture<?> refresher = mRefresher;
+        if (refresher != null) refresher.cancel(false);
+    }
+
+    private void resolveHostNames() {
+        // a slow resolver may still be busy when the next refresh is due
+        if (!mResolving.compareAndSet(false, true)) return;
+        try {
+            PrefixTrie resolved = new PrefixTrie();
+            for (String hostName : mHostNames) {
+                try {
+                    mLastResolved.put(hostName, InetAddress.getAllByName(hostName));
+                } catch (UnknownHostException e) {
+                    // keep the addresses from the last successful lookup, so that a
+                    // temporary DNS failure doesn't lock out a permitted client
+                    Utils.logError("CommandServer: cannot resolve ControlFrom host name " + hostName);
+                }
+                for (InetAddress address : mLastResolved.getOrDefault(hostName, new InetAddress[0])) {
+                    resolved.add(address.getAddress(), address.getAddress().length * 8);
+                }
+            }
+            mResolvedHostNames = resolved;
+        } finally {
+            mResolving.set(false);
+        }
+    }
+
+    /*
+     * Parses an IPv4 or IPv6 address literal without any DNS lookup.
+     */
+    private static byte[] parseLiteral(String s) {
+        if (!IPV4_LITERAL.matcher(s).matches() && s.indexOf(':') < 0) return null;
+        try {
+            // getByName doesn't consult DNS when given a literal address
+            return InetAddress.getByName(s).getAddress();
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("invalid IP address");
+        }
+    }
+
+    /*
+     * A binary trie of address prefixes. IPv4 and IPv6 addresses are held in
+     * separate tries because they have different lengths.
+     */
+    private static final class PrefixTrie {
+        private final Node ipv4 = new Node();
+        private final Node ipv6 = new Node();
+
+        private static final class Node {
+            final Node[] children = new Node[2];
+            boolean terminal;
+        }
+
+        void add(byte[] address, int length) {
+            Node node = address.length == 4 ? ipv4 : ipv6;
+            for (int i = 0; i < length && !node.terminal; i++) {
+                int bit = bitAt(address, i);
+                if (node.children[bit] == null) node.children[bit] = new Node();
+                node = node.children[bit];
+            }
+            node.terminal = true;
+        }
+
+        boolean contains(byte[] address) {
+            Node node = address.length == 4 ? ipv4 : ipv6;
+            for (int i = 0; node != null; i++) {
+                if (node.terminal) return true;
+                if (i == address.length * 8) return false;
+                node = node.children[bitAt(address, i)];
+            }
+            return false;
+        }
+
+        private static int bitAt(byte[] address, int i) {
+            return (address[i >> 3] >> (7 - (i & 7))) & 1;
+        }
+    }
+}
@@ -21,30 +21,66 @@ package ibcalpha.ibc;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 
-final class CommandChannel {
+class CommandChannel {
 
     private static final String _Prompt = Settings.settings().getString("CommandPrompt", "");
     private static final boolean _SuppressInfo = Settings.settings().getBoolean("SuppressInfoMessages", true);
 
     private Socket mSocket;
+    private SocketChannel mSocketChannel;
     private BufferedReader mInstream = null;
     private BufferedWriter mOutstream = null;
 
     CommandChannel(Socket socket) {
 
         mSocket = socket;
-        if (! setupStreams()) return;
+        try {
+            setupStreams(socket.getInputStream(), socket.getOutputStream());
+        } catch (IOException e) {
+            // this is most likely a result of the user closing the command connection
+            Utils.logException(e);
+            return;
+        }
+
+        writeInfo("IBC Command Server");
+    }
+
+    /**
+     * Creates a command channel for a connection accepted by a ServerSocketChannel,
+     * such as a Unix domain socket connection.
+     * @param socketChannel
+     * the connected channel, in blocking mode
+     */
+    CommandChannel(SocketChannel socketChannel) {
+
+        mSocketChannel = socketChannel;
+        setupStreams(new ChannelInputStream(socketChannel), new ChannelOutputStream(socketChannel));
 
         writeInfo("IBC Command Server");
     }
 
-    void close() {
+    /**
+     * For use by channels that write through another channel rather than
+     * owning a connection.
+     */
+    CommandChannel() {
+    }
+
+    synchronized void close() {
         try {
+            if (mSocketChannel != null) {
+                closeSocketChannel();
+                return;
+            }
             if (mSocket == null || mSocket.isClosed()) return;
             
             Utils.logToConsole("Closing command channel");
@@ -68,6 +104,20 @@ final class CommandChannel {
         }
     }
 
+    private void closeSocketChannel() throws IOException {
+        if (!mSocketChannel.isOpen()) return;
+
+        Utils.logToConsole("Closing command channel");
+        mSocketChannel.shutdownInput();
+        mSocketChannel.shutdownOutput();
+
+        mInstream = null;
+        mOutstream = null;
+
+        mSocketChannel.close();
+        mSocketChannel = null;
+    }
+
     String getCommand() {
         String cmd = null;
 
@@ -96,7 +146,7 @@ final class CommandChannel {
         replyLine("OK " + info);
     }
 
-    final void writeInfo(String info) {
+    void writeInfo(String info) {
         if (! _SuppressInfo) replyLine("INFO " + info);
     }
 
@@ -104,41 +154,111 @@ final class CommandChannel {
         replyLine("ERROR " + info);
     }
 
+    /**
+     * Writes an event line to a subscribed client.
+     * @param event
+     * the event, formatted as by IbcEvent.toLine()
+     * @return
+     * true if the event was written; false if the client has disconnected
+     */
+    boolean writeEvent(String event) {
+        return replyLine("EVENT " + event);
+    }
+
     void writePrompt() {
         if (! _Prompt.isEmpty()) reply(_Prompt);
     }
 
-    private void reply(String message) {
-        reply(message, false);
+    /**
+     * Writes a line exactly as supplied.
+     * @param line
+     * the line to be written, without a line terminator
+     * @return
+     * true if the line was written; false if the client has disconnected
+     */
+    boolean writeLine(String line) {
+        return replyLine(line);
+    }
+
+    boolean isInfoSuppressed() {
+        return _SuppressInfo;
+    }
+
+    private boolean reply(String message) {
+        return reply(message, false);
     }
 
-    private void reply(String message, boolean addNewline) {
-        if (mOutstream == null) return;
+    // replies may be written by several threads when commands run asynchronously
+    private synchronized boolean reply(String message, boolean addNewline) {
+        if (mOutstream == null) return false;
         try {
             mOutstream.write(message);
             if (addNewline) mOutstream.newLine();
             mOutstream.flush();
+            return true;
         } catch (SocketException e) {
             // the socket was reset by the client
             Utils.logException(e);
         } catch (Exception e) {
             e.printStackTrace();
         }
+        return false;
     }
 
-    private void replyLine(String message) {
-        reply(message,true);
+    private boolean replyLine(String message) {
+        return reply(message,true);
     }
 
-    private boolean setupStreams() {
-        try {
-            mInstream = new BufferedReader(new InputStreamReader(mSocket.getInputStream()));
-            mOutstream = new BufferedWriter(new OutputStreamWriter(mSocket.getOutputStream()));
-            return true;
-        } catch (IOException e) {
-            // this is most likely a result of the user closing the command connection
-            Utils.logException(e);
-            return false;
+    private void setupStreams(InputStream in, OutputStream out) {
+        mInstream = new BufferedReader(new InputStreamReader(in));
+        mOutstream = new BufferedWriter(new OutputStreamWriter(out));
+    }
+
+    /*
+     * The streams returned by java.nio.channels.Channels serialise reads and
+     * writes on the channel's blocking lock, so a reply could not be written
+     * while the dispatcher is waiting for the next command (as happens in tagged
+     * mode). These streams call the channel directly, which allows a read and a
+     * write to proceed at the same time.
+     */
+
+    private static final class ChannelInputStream extends InputStream {
+        private final SocketChannel mChannel;
+
+        ChannelInputStream(SocketChannel channel) {
+            mChannel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return n <= 0 ? -1 : (b[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            return mChannel.read(ByteBuffer.wrap(b, off, len));
+        }
+    }
+
+    private static final class ChannelOutputStream extends OutputStream {
+        private final SocketChannel mChannel;
+
+        ChannelOutputStream(SocketChannel channel) {
+            mChannel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte)b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) mChannel.write(buffer);
         }
     }
 
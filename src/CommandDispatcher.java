@@ -20,6 +20,12 @@ package ibcalpha.ibc;
 
 import java.awt.Toolkit;
 import java.awt.event.KeyEvent;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import javax.swing.JFrame;
 
@@ -30,7 +36,24 @@ class CommandDispatcher
 
     private final static int SHORTCUT_MODIFIERS = Toolkit.getDefaultToolkit().getMenuShortcutKeyMask() | KeyEvent.ALT_DOWN_MASK;
 
-            
+    /*
+     * In tagged mode, each command line has the form:
+     *
+     *      <id> <command> [args] [timeout=<seconds>]
+     *
+     * and each command runs asynchronously, so several may be in progress at
+     * once. Replies are prefixed with the id of the command they relate to, and
+     * may arrive in a different order from the commands. A command that has not
+     * completed within its timeout (by default the CommandTimeout setting, in
+     * seconds) is cancelled and an ERROR reply is sent for it.
+     */
+    private boolean mTaggedMode;
+    private final List<TaggedCommand> mOutstandingCommands = new CopyOnWriteArrayList<>();
+
+    // once STOP has been received no more commands are read, but the channel is
+    // left open so that the shutdown's progress can be reported on it
+    private volatile boolean mStopReceived;
+
     CommandDispatcher(CommandChannel channel) {
         mChannel = channel;
     }
@@ -38,49 +61,240 @@ class CommandDispatcher
     @Override public void run() {
         String cmd = mChannel.getCommand();
         while (cmd != null) {
-            if (cmd.equalsIgnoreCase("EXIT")) {
-                mChannel.writeAck("Goodbye");
-                break;
-            } else if (cmd.equalsIgnoreCase("STOP")) {
-                handleStopCommand();
-            } else if (cmd.equalsIgnoreCase("ENABLEAPI")) {
-                handleEnableAPICommand();
-            } else if (cmd.equalsIgnoreCase("RECONNECTDATA")) {
-            	handleReconnectDataCommand();
-            } else if (cmd.equalsIgnoreCase("RECONNECTACCOUNT")) {
-            	handleReconnectAccountCommand();
-            } else if (cmd.equalsIgnoreCase("RESTART")) {
-            	handleRestartCommand();
+            if (mTaggedMode) {
+                if (!dispatchTagged(cmd)) break;
             } else {
-                handleInvalidCommand(cmd);
+                if (cmd.equalsIgnoreCase("TAGGED")) {
+                    mTaggedMode = true;
+                    mChannel.writeAck("tagged mode");
+                } else {
+                    JfrEvents.CommandEvent jfr = JfrEvents.beginCommand();
+                    boolean keepOpen = dispatch(cmd, mChannel);
+                    JfrEvents.endCommand(jfr, cmd, null);
+                    if (!keepOpen) break;
+                }
+                mChannel.writePrompt();
             }
-            mChannel.writePrompt();
             cmd = mChannel.getCommand();
         }
-        mChannel.close();
+        if (!mStopReceived) mChannel.close();
+    }
+
+    /**
+     * Executes a command on the current thread.
+     * @param cmd
+     * the command line, excluding any tag
+     * @param channel
+     * the channel to write replies to
+     * @return
+     * false if no more commands are to be read from the connection; otherwise
+     * true
+     */
+    private boolean dispatch(String cmd, CommandChannel channel) {
+        if (cmd.equalsIgnoreCase("EXIT")) {
+            channel.writeAck("Goodbye");
+            return false;
+        } else if (cmd.equalsIgnoreCase("STOP")) {
+            mStopReceived = true;
+            handleStopCommand(channel);
+            return false;
+        } else if (cmd.equalsIgnoreCase("ENABLEAPI")) {
+            handleEnableAPICommand(channel);
+        } else if (cmd.equalsIgnoreCase("RECONNECTDATA")) {
+            handleReconnectDataCommand(channel);
+        } else if (cmd.equalsIgnoreCase("RECONNECTACCOUNT")) {
+            handleReconnectAccountCommand(channel);
+        } else if (cmd.equalsIgnoreCase("RESTART")) {
+            handleRestartCommand(channel);
+        } else if (cmd.equalsIgnoreCase("STATUS")) {
+            handleStatusCommand(false, channel);
+        } else if (cmd.matches("(?i)STATUS\\s+JSON")) {
+            handleStatusCommand(true, channel);
+        } else if (cmd.equalsIgnoreCase("HEALTH")) {
+            handleHealthCommand(channel);
+        } else if (cmd.equalsIgnoreCase("APIPROXY")) {
+            handleApiProxyCommand(false, channel);
+        } else if (cmd.matches("(?i)APIPROXY\\s+CONNECTIONS")) {
+            handleApiProxyCommand(true, channel);
+        } else if (cmd.equalsIgnoreCase("APIPROBE")) {
+            handleApiProbeCommand(channel);
+        } else if (cmd.equalsIgnoreCase("HEAPMONITOR")) {
+            handleHeapMonitorCommand(false, channel);
+        } else if (cmd.matches("(?i)HEAPMONITOR\\s+DECISIONS")) {
+            handleHeapMonitorCommand(true, channel);
+        } else if (cmd.matches("(?i)RULES(\\s+RELOAD)?")) {
+            handleRulesCommand(cmd.length() > "RULES".length(), channel);
+        } else if (cmd.equalsIgnoreCase("LOGEVENTS")) {
+            handleLogEventsCommand(channel);
+        } else if (cmd.equalsIgnoreCase("LOG") || cmd.toUpperCase().startsWith("LOG ")) {
+            handleLogCommand(cmd.substring("LOG".length()), channel);
+        } else if (cmd.equalsIgnoreCase("EDTQUEUE")) {
+            handleEdtQueueCommand(channel);
+        } else if (cmd.equalsIgnoreCase("RESTARTSLOT")) {
+            handleRestartSlotCommand(channel);
+        } else if (cmd.matches("(?i)RESTORE(\\s+.*)?")) {
+            handleRestoreCommand(cmd.substring("RESTORE".length()).trim(), channel);
+        } else if (isSubscribeCommand(cmd)) {
+            // the subscription only ends when the client disconnects
+            if (handleSubscribeCommand(cmd.substring("SUBSCRIBE".length()), channel)) return false;
+        } else {
+            handleInvalidCommand(cmd, channel);
+        }
+        return true;
+    }
+
+    private static boolean isSubscribeCommand(String cmd) {
+        return cmd.equalsIgnoreCase("SUBSCRIBE") || cmd.toUpperCase().startsWith("SUBSCRIBE ");
+    }
+
+    private boolean dispatchTagged(String line) {
+        String[] parts = line.trim().split("\\s+", 2);
+        if (parts.length < 2) {
+            mChannel.writeNack("tagged commands must have the form: <id> <command> [args] [timeout=<seconds>]");
+            return true;
+        }
+
+        final TaggedCommandChannel channel = new TaggedCommandChannel(mChannel, parts[0]);
+
+        int timeout = Settings.settings().getInt("CommandTimeout", 60);
+        List<String> words = new ArrayList<>();
+        for (String word : parts[1].split("\\s+")) {
+            if (word.toLowerCase().startsWith("timeout=")) {
+                try {
+                    timeout = Integer.parseInt(word.substring("timeout=".length()));
+                } catch (NumberFormatException e) {
+                    channel.writeNack("invalid timeout: " + word);
+                    return true;
+                }
+            } else {
+                words.add(word);
+            }
+        }
+        final String cmd = String.join(" ", words);
+
+        if (cmd.equalsIgnoreCase("EXIT")) {
+            awaitOutstandingCommands();
+            channel.writeAck("Goodbye");
+            return false;
+        }
+        if (isSubscribeCommand(cmd)) {
+            channel.writeNack("SUBSCRIBE is not valid in tagged mode");
+            return true;
+        }
+        if (timeout <= 0) {
+            channel.writeNack("timeout must be positive");
+            return true;
+        }
+
+        if (cmd.equalsIgnoreCase("STOP")) mStopReceived = true;
+        (new TaggedCommand(cmd, channel)).start(timeout);
+        return !mStopReceived;
+    }
+
+    private void awaitOutstandingCommands() {
+        // each command is bounded by its own timeout, so this can't wait indefinitely
+        for (TaggedCommand command : mOutstandingCommands) command.await();
     }
 
-    private void handleInvalidCommand(String cmd) {
-        mChannel.writeNack("Command invalid");
+    private final class TaggedCommand implements Runnable {
+        private final String mCommand;
+        private final TaggedCommandChannel mTaggedChannel;
+        private volatile ScheduledFuture<?> mDeadline;
+
+        private final FutureTask<Void> mTask = new FutureTask<Void>(this, null) {
+            @Override
+            protected void done() {
+                ScheduledFuture<?> deadline = mDeadline;
+                if (deadline != null) deadline.cancel(false);
+                mOutstandingCommands.remove(TaggedCommand.this);
+            }
+        };
+
+        TaggedCommand(String command, TaggedCommandChannel channel) {
+            mCommand = command;
+            mTaggedChannel = channel;
+        }
+
+        void start(int timeout) {
+            mOutstandingCommands.add(this);
+            try {
+                mDeadline = MyScheduledExecutorService.getInstance().schedule(() -> expire(timeout), timeout, TimeUnit.SECONDS);
+                MyCachedThreadPool.getInstance().execute(mTask);
+            } catch (RejectedExecutionException e) {
+                // IBC is shutting down
+                mTaggedChannel.writeNack("IBC is shutting down");
+                mTask.cancel(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            JfrEvents.CommandEvent jfr = JfrEvents.beginCommand();
+            try {
+                dispatch(mCommand, mTaggedChannel);
+            } catch (Throwable t) {
+                Utils.logException(t);
+                mTaggedChannel.writeNack(t.toString());
+            } finally {
+                JfrEvents.endCommand(jfr, mCommand, mTaggedChannel.getTag());
+                if (!mTaggedChannel.hasReplied()) mTaggedChannel.writeNack("command did not complete");
+            }
+        }
+
+        private void expire(int timeout) {
+            if (mTask.isDone()) return;
+            Utils.logError("CommandServer: command " + mTaggedChannel.getTag() + " " + mCommand + " timed out after " + timeout + " seconds");
+            mTaggedChannel.writeNack("timed out after " + timeout + " seconds");
+            mTask.cancel(true);
+        }
+
+        void await() {
+            try {
+                mTask.get();
+            } catch (Exception e) {
+                // the outcome has already been reported to the client
+            }
+        }
+    }
+
+    private void handleInvalidCommand(String cmd, CommandChannel channel) {
+        channel.writeNack("Command invalid");
         Utils.logError("CommandServer: invalid command received: " + cmd);
     }
 
-    private void handleEnableAPICommand() {
+    private void handleEnableAPICommand(CommandChannel channel) {
         if (SessionManager.isGateway()) {
-            mChannel.writeNack("ENABLEAPI is not valid for the IB Gateway");
+            channel.writeNack("ENABLEAPI is not valid for the IB Gateway");
             return;
         }
 
         // run on the current thread
-        (new ConfigurationTask(new EnableApiTask(mChannel))).execute();
+        (new ConfigurationTask(new EnableApiTask(channel))).execute();
    }
 
-    private void handleReconnectDataCommand() {
+    private void handleReconnectDataCommand(CommandChannel channel) {
         if (SessionManager.isFIX()) {
-            mChannel.writeNack("RECONNECTDATA is not valid for the FIX Gateway");
+            channel.writeNack("RECONNECTDATA is not valid for the FIX Gateway");
             return;
         }
+        if (reconnectData()) {
+            channel.writeAck("");
+        } else {
+            channel.writeNack("main window not available");
+        }
+   }
+
+    /**
+     * Sends TWS the keystrokes that reconnect its market data connections.
+     * @return
+     * false if the main window is not available
+     */
+    static boolean reconnectData() {
         JFrame jf = MainWindowManager.mainWindowManager().getMainWindow(1, TimeUnit.MILLISECONDS);
+        if (jf == null) {
+            Utils.logError("Can't reconnect data: the main window is not available");
+            return false;
+        }
 
         KeyEvent pressed=new KeyEvent(jf,  KeyEvent.KEY_PRESSED, System.currentTimeMillis(), SHORTCUT_MODIFIERS, KeyEvent.VK_F, KeyEvent.CHAR_UNDEFINED);
         KeyEvent typed=new KeyEvent(jf, KeyEvent.KEY_TYPED, System.currentTimeMillis(), SHORTCUT_MODIFIERS, KeyEvent.VK_UNDEFINED, 'F' );
@@ -88,15 +302,22 @@ class CommandDispatcher
         jf.dispatchEvent(pressed);
         jf.dispatchEvent(typed);
         jf.dispatchEvent(released);
-  
-        mChannel.writeAck("");
-   }
+        return true;
+    }
 
-    private void handleReconnectAccountCommand() {
+    private void handleReconnectAccountCommand(CommandChannel channel) {
         if (SessionManager.isFIX()) {
-            mChannel.writeNack("RECONNECTACCOUNT is not valid for the FIX Gateway");
+            channel.writeNack("RECONNECTACCOUNT is not valid for the FIX Gateway");
             return;
         }
+        reconnectAccount();
+        channel.writeAck("");
+    }
+
+    /**
+     * Sends TWS the keystrokes that reconnect its account connection.
+     */
+    static void reconnectAccount() {
         JFrame jf = MainWindowManager.mainWindowManager().getMainWindow();
 
         KeyEvent pressed=new KeyEvent(jf,  KeyEvent.KEY_PRESSED, System.currentTimeMillis(), SHORTCUT_MODIFIERS, KeyEvent.VK_R, KeyEvent.CHAR_UNDEFINED);
@@ -105,20 +326,100 @@ class CommandDispatcher
         jf.dispatchEvent(pressed);
         jf.dispatchEvent(typed);
         jf.dispatchEvent(released);
+    }
+
+    private boolean handleSubscribeCommand(String arguments, CommandChannel channel) {
+        SubscribeTask task = new SubscribeTask(channel, arguments);
+        task.run();     // run on the current thread
+        return task.argumentsValid();
+    }
+
+    private void handleStatusCommand(boolean json, CommandChannel channel) {
+        // uses only the status snapshot, so never waits for the event dispatch thread
+        IbcStatus status = IbcStatus.current();
+        channel.writeAck(json ? status.toJson() : status.toKeyValueString());
+    }
+
+    private void handleHealthCommand(CommandChannel channel) {
+        String reason = IbcStatus.current().getUnhealthyReason();
+        if (reason == null) {
+            channel.writeAck("healthy");
+        } else {
+            channel.writeNack(reason);
+        }
+    }
+
+    private void handleApiProxyCommand(boolean perConnection, CommandChannel channel) {
+        channel.writeAck(ApiProxy.getInstance().getStatistics(perConnection));
+    }
 
-        mChannel.writeAck("");
+    private void handleApiProbeCommand(CommandChannel channel) {
+        channel.writeAck(ApiProbe.getInstance().getStatistics());
+    }
+
+    private void handleHeapMonitorCommand(boolean decisions, CommandChannel channel) {
+        channel.writeAck(HeapMonitor.getInstance().getStatistics(decisions));
+    }
+
+    private void handleRulesCommand(boolean reload, CommandChannel channel) {
+        WindowRulesHandler handler = WindowRulesHandler.getInstance();
+        channel.writeAck(reload ? handler.reload(true) : handler.getStatus());
+    }
+
+    private void handleLogEventsCommand(CommandChannel channel) {
+        channel.writeAck(LogEventDetector.getInstance().getStatistics());
+    }
+
+    private void handleLogCommand(String arguments, CommandChannel channel) {
+        (new LogQueryTask(channel, arguments)).run();     // run on the current thread
+    }
+
+    private void handleEdtQueueCommand(CommandChannel channel) {
+        channel.writeAck(EdtScheduler.getInstance().getStatistics());
+    }
+
+    private void handleRestartSlotCommand(CommandChannel channel) {
+        channel.writeAck(RestartCoordinator.getInstance().getStatus());
+    }
+
+    /*
+     * RESTORE [LIST]           lists the settings snapshots
+     * RESTORE <id> | LATEST    restores a snapshot when IBC next starts
+     * RESTORE CANCEL           cancels a requested restore
+     */
+    private void handleRestoreCommand(String arguments, CommandChannel channel) {
+        SettingsSnapshotStore store = SettingsSnapshotStore.getInstance();
+        if (!store.isAvailable()) {
+            channel.writeNack("settings snapshots are not enabled");
+            return;
+        }
+        if (arguments.isEmpty() || arguments.equalsIgnoreCase("LIST")) {
+            List<String> snapshots = store.describeSnapshots();
+            String pending = store.getPendingRestore();
+            channel.writeAck((snapshots.isEmpty() ? "no snapshots" : String.join("; ", snapshots)) +
+                    (pending == null ? "" : "; pending restore=" + pending));
+        } else if (arguments.equalsIgnoreCase("CANCEL")) {
+            channel.writeAck(store.cancelRestore() ? "restore cancelled" : "no restore pending");
+        } else {
+            try {
+                String id = store.requestRestore(arguments);
+                channel.writeAck("snapshot " + id + " will be restored when IBC next starts: use STOP to restart now");
+            } catch (IbcException e) {
+                channel.writeNack(e.getMessage());
+            }
+        }
     }
 
-    private void handleStopCommand() {
-        (new StopTask(mChannel, false, "STOP command")).run();     // run on the current thread
+    private void handleStopCommand(CommandChannel channel) {
+        (new StopTask(channel, false, "STOP command")).run();     // run on the current thread
     }
     
-    private void handleRestartCommand() {
+    private void handleRestartCommand(CommandChannel channel) {
         if (SessionManager.isFIX()) {
-            mChannel.writeNack("RESTART is not valid for the FIX Gateway");
+            channel.writeNack("RESTART is not valid for the FIX Gateway");
             return;
         }
-        (new RestartTask(mChannel)).run();     // run on the current thread
+        (new RestartTask(channel)).run();     // run on the current thread
     }
     
 }
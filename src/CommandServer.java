@@ -33,6 +33,8 @@ class CommandServer
 
     private ServerSocket mSocket = null;
     private volatile boolean mQuitting = false;
+    private final UnixCommandServer mUnixCommandServer = new UnixCommandServer();
+    private volatile ClientAddressFilter mClientFilter;
 
     private static CommandServer _commandServer;
 
@@ -50,6 +52,9 @@ class CommandServer
     public void run() {
         Thread.currentThread().setName("CommandServer");
 
+        // the Unix domain socket (if configured) is served independently of the TCP port
+        MyCachedThreadPool.getInstance().execute(mUnixCommandServer);
+
         final int port = Settings.settings().getInt("CommandServerPort", 0);
         if (port == 0) {
             Utils.logToConsole("CommandServer is not started because the port is not configured");
@@ -59,6 +64,11 @@ class CommandServer
         Utils.logToConsole("CommandServer is starting with port " + port);
 
         if (createSocket(port)) {
+            final String allowedAddresses = Settings.settings().getString("ControlFrom", "");
+            Utils.logToConsole("CommandServer: ControlFrom setting = " + allowedAddresses);
+            mClientFilter = ClientAddressFilter.compile(allowedAddresses);
+            mClientFilter.startResolving();
+
             Utils.logToConsole("CommandServer started and is ready to accept commands");
             for (; !mQuitting;) {
                 // this will return null if the shutDown method is called
@@ -75,6 +85,8 @@ class CommandServer
 
     public void shutdown() {
         mQuitting = true;
+        mUnixCommandServer.shutdown();
+        if (mClientFilter != null) mClientFilter.stopResolving();
         if (mSocket != null) {
             try {
                 Utils.logToConsole("CommandServer closing");
@@ -125,10 +137,7 @@ class CommandServer
             
             final Socket socket = mSocket.accept();
 
-            final String allowedAddresses = Settings.settings().getString("ControlFrom", "");
-            Utils.logToConsole("CommandServer: ControlFrom setting = " + allowedAddresses);
-
-            if (!isPermittedClient(socket, allowedAddresses)) {
+            if (!isPermittedClient(socket)) {
                 Utils.logToConsole("CommandServer denied access to: " +
                                     socket.getInetAddress().toString());
                 socket.close();
@@ -176,18 +185,17 @@ class CommandServer
         return addressList;
     }
     
-    private boolean isPermittedClient(final Socket socket, final String allowedAddresses) {
-        if (socket.getInetAddress().getHostAddress().equals(mSocket.getInetAddress().getHostAddress())) return true;
-        
-        if (socket.getInetAddress().getHostAddress().equals(InetAddress.getLoopbackAddress().getHostAddress())) return true;
-
-        for (String allowedClient : allowedAddresses.split(",")){
-            if (allowedClient.equals(socket.getInetAddress().getHostAddress()) ||
-                allowedClient.equalsIgnoreCase(socket.getInetAddress().getHostName())) {
-                return true;
-            }
-        }
-        
-        return false;
+    /*
+     * This is called on the accept thread, so it must not block: in particular it
+     * must not do a reverse DNS lookup of the client's address.
+     */
+    private boolean isPermittedClient(final Socket socket) {
+        final InetAddress address = socket.getInetAddress();
+
+        if (address.equals(mSocket.getInetAddress())) return true;
+
+        if (address.isLoopbackAddress()) return true;
+
+        return mClientFilter.isPermitted(address);
     }
 }
@@ -31,6 +31,8 @@ class ComponentIterator implements Iterator<Component> {
 
     Component mCurrent;
 
+    int mCount;
+
     ComponentIterator(Container container) {
         if (container == null) Utils.exitWithException(ErrorCodes.UNHANDLED_EXCEPTION,new NullPointerException());
         mStack.push(new NodeState(container));
@@ -50,6 +52,13 @@ class ComponentIterator implements Iterator<Component> {
         return result;
     }
 
+    /**
+     * @return the number of components visited so far
+     */
+    int getCount() {
+        return mCount;
+    }
+
     @Override
     public void remove() {
         throw new UnsupportedOperationException("Not supported");
@@ -65,6 +74,7 @@ class ComponentIterator implements Iterator<Component> {
             } else {
                 if (currentState.index < currentState.subComponents.length) {
                     mCurrent = currentState.subComponents[currentState.index++];
+                    mCount++;
                     mStack.push(new NodeState(mCurrent));
                     return true;
                 } else {
@@ -40,17 +40,38 @@ public class ConfigurationTask {
     private class ConfigTaskRunner implements Runnable {
         @Override
         public void run() {
+            final String taskName = configAction.getClass().getSimpleName();
+            IbcEventBus.getInstance().publish(IbcEvent.Type.CONFIG_TASK_STARTED, "task=" + taskName);
+            boolean succeeded = false;
+            // each phase is recorded separately, so that time spent waiting for
+            // the dialog can be distinguished from time spent using it
+            String phase = "await dialog";
+            JfrEvents.ConfigurationTaskEvent jfr = JfrEvents.beginConfigurationTask();
             try {
                 final JDialog configDialog = ConfigDialogManager.configDialogManager().getConfigDialog();    // blocks the thread until the config dialog is available
+                // null if the wait was interrupted, for example because a command timed out
+                if (configDialog == null) throw new IbcException("Global Configuration dialog is not available");
                 configAction.initialise(configDialog);
+                JfrEvents.endConfigurationTask(jfr, taskName, phase, true);
    
+                phase = "run";
+                jfr = JfrEvents.beginConfigurationTask();
                 FutureTask<?> t = new FutureTask<>((Runnable)configAction, null);
-                GuiExecutor.instance().execute(t);
+                GuiExecutor.instance().execute(EdtScheduler.Priority.CONFIGURATION, t);
                 t.get();
+                JfrEvents.endConfigurationTask(jfr, taskName, phase, true);
 
+                phase = "release";
+                jfr = JfrEvents.beginConfigurationTask();
                 ConfigDialogManager.configDialogManager().releaseConfigDialog();
+                JfrEvents.endConfigurationTask(jfr, taskName, phase, true);
+                succeeded = true;
             } catch (Exception e){
+                JfrEvents.endConfigurationTask(jfr, taskName, phase, false);
                 Utils.logException(e);
+            } finally {
+                IbcEventBus.getInstance().publish(IbcEvent.Type.CONFIG_TASK_FINISHED,
+                                                  "task=" + taskName + " result=" + (succeeded ? "ok" : "failed"));
             }
         }
     }
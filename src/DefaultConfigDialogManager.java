@@ -53,6 +53,7 @@ public class DefaultConfigDialogManager extends ConfigDialogManager {
     public void clearConfigDialog() {
         openedByUser = false;
         configDialog = null;
+        IbcStatus.update(s -> s.withConfigDialogOpen(false));
     }
 
     /**
@@ -152,6 +153,7 @@ public class DefaultConfigDialogManager extends ConfigDialogManager {
     @Override
     public void setConfigDialog(JDialog window) {
         configDialog = window;
+        IbcStatus.update(s -> s.withConfigDialogOpen(true));
         if (configDialogTask == null) {
             // config dialog opened by user
             openedByUser = true;
@@ -185,14 +187,19 @@ public class DefaultConfigDialogManager extends ConfigDialogManager {
 
     private synchronized void incrementUsage() {
         usageCount++;
+        final int count = usageCount;
+        IbcStatus.update(s -> s.withConfigTasksInProgress(count));
     }
 
     private synchronized void decrementUsage() {
         usageCount--;
+        final int count = usageCount;
+        IbcStatus.update(s -> s.withConfigTasksInProgress(count));
         if (openedByUser) return;
         if (usageCount == 0){
-            GuiDeferredExecutor.instance().execute(() -> {
+            GuiDeferredExecutor.instance().execute(EdtScheduler.Priority.CONFIGURATION, () -> {
                 Utils.logToConsole("Configuration tasks completed");
+                IbcStatus.update(IbcStatus::withConfigurationCompleted);
                 SwingUtils.clickButton(configDialog, "OK");
                 GuiDeferredExecutor.instance().execute(() -> MainWindowManager.mainWindowManager().iconizeIfRequired());
             });
@@ -132,6 +132,7 @@ public class DefaultMainWindowManager extends MainWindowManager {
     public void setMainWindow(JFrame window) {
         Utils.logToConsole("Found " + (SessionManager.isGateway() ? "Gateway" : "TWS") + " main window");
         mainWindow = window;
+        IbcStatus.update(IbcStatus::withMainWindowAvailable);
 
         // For TWS, the main window being opened indicates that login is complete. This is not the case
         // for the Gateway, because the main window is created right at the start, but the splash frame
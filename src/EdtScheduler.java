@@ -0,0 +1,226 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.swing.SwingUtilities;
+
+/**
+ * Runs IBC's work on the event dispatch thread in priority order.
+ *
+ * Rather than posting each task to the Swing event queue, where it would wait
+ * behind TWS's own events and IBC's diagnostic work, tasks are held in one
+ * queue per Priority, and a single drain task is posted to the event queue.
+ * Each time it runs, the drain task executes the highest priority tasks for at
+ * most EdtTimeSlice milliseconds (default 10), then re-posts itself so that
+ * TWS's painting and input events are not held up.
+ *
+ * A drain only runs tasks that were queued before it started, so a task that
+ * queues another (as GuiDeferredExecutor is intended for) still lets the
+ * pending Swing events run first.
+ *
+ * A task submitted with a key is dropped if a task with an equal key is still
+ * waiting to run: this coalesces repeated events for the same window.
+ *
+ * An exception thrown by a task is passed to the event dispatch thread's
+ * uncaught exception handler, just as if the task had been posted to the
+ * Swing event queue directly: so IBC's default handler still exits with
+ * UNHANDLED_EXCEPTION.
+ */
+class EdtScheduler {
+
+    /**
+     * The priorities, highest first.
+     */
+    enum Priority {
+        LOGIN,
+        DIALOG,
+        CONFIGURATION,
+        DIAGNOSTIC
+    }
+
+    private static final class Task {
+        final long sequence;
+        final long queuedTime;
+        final Object key;
+        final Runnable runnable;
+
+        Task(long sequence, Object key, Runnable runnable) {
+            this.sequence = sequence;
+            this.queuedTime = System.nanoTime();
+            this.key = key;
+            this.runnable = runnable;
+        }
+    }
+
+    private static final int PRIORITIES = Priority.values().length;
+
+    // declared after PRIORITIES, which the constructor uses
+    private static final EdtScheduler instance = new EdtScheduler();
+
+    static EdtScheduler getInstance() {
+        return instance;
+    }
+
+    private final List<Queue<Task>> mQueues = new ArrayList<>(PRIORITIES);
+    private final AtomicInteger[] mDepths = new AtomicInteger[PRIORITIES];
+    private final AtomicLong[] mExecuted = new AtomicLong[PRIORITIES];
+    private final AtomicLong[] mMaxWaitNanos = new AtomicLong[PRIORITIES];
+    private final ConcurrentHashMap<Object, Task> mPendingByKey = new ConcurrentHashMap<>();
+    private final AtomicLong mSequence = new AtomicLong();
+    private final AtomicLong mCoalesced = new AtomicLong();
+    private final AtomicLong mSlices = new AtomicLong();
+    private final AtomicBoolean mDrainPosted = new AtomicBoolean();
+    private volatile long mSliceNanos = -1;
+
+    private EdtScheduler() {
+        for (int i = 0; i < PRIORITIES; i++) {
+            mQueues.add(new ConcurrentLinkedQueue<>());
+            mDepths[i] = new AtomicInteger();
+            mExecuted[i] = new AtomicLong();
+            mMaxWaitNanos[i] = new AtomicLong();
+        }
+    }
+
+    /**
+     * Queues a task to run on the event dispatch thread.
+     * @param priority
+     * the task's priority
+     * @param task
+     * the task
+     */
+    void execute(Priority priority, Runnable task) {
+        execute(priority, null, task);
+    }
+
+    /**
+     * Queues a task to run on the event dispatch thread, unless an equivalent
+     * task is already waiting to run.
+     * @param priority
+     * the task's priority
+     * @param key
+     * identifies equivalent tasks, using equals(); or null if the task is
+     * never to be coalesced
+     * @param task
+     * the task
+     */
+    void execute(Priority priority, Object key, Runnable task) {
+        Task t = new Task(mSequence.incrementAndGet(), key, task);
+        if (key != null && mPendingByKey.putIfAbsent(key, t) != null) {
+            mCoalesced.incrementAndGet();
+            return;
+        }
+        mDepths[priority.ordinal()].incrementAndGet();
+        mQueues.get(priority.ordinal()).add(t);
+        if (mDrainPosted.compareAndSet(false, true)) SwingUtilities.invokeLater(this::drain);
+    }
+
+    private void drain() {
+        mSlices.incrementAndGet();
+        final long limit = mSequence.get();
+        final long endTime = System.nanoTime() + getSliceNanos();
+
+        do {
+            int priority = nextPriority(limit);
+            if (priority < 0) {
+                mDrainPosted.set(false);
+                // tasks queued during this drain, or while the flag was being cleared
+                if (hasQueuedTasks() && mDrainPosted.compareAndSet(false, true)) SwingUtilities.invokeLater(this::drain);
+                return;
+            }
+            run(priority, mQueues.get(priority).poll());
+        } while (System.nanoTime() < endTime);
+
+        // let the Swing event queue run before continuing
+        SwingUtilities.invokeLater(this::drain);
+    }
+
+    /*
+     * Returns the highest priority with a task that was queued before the
+     * current drain started, or -1 if there is none. Only the event dispatch
+     * thread removes tasks, so the head of each queue cannot change between
+     * here and the subsequent poll.
+     */
+    private int nextPriority(long limit) {
+        for (int i = 0; i < PRIORITIES; i++) {
+            Task head = mQueues.get(i).peek();
+            if (head != null && head.sequence <= limit) return i;
+        }
+        return -1;
+    }
+
+    private boolean hasQueuedTasks() {
+        for (Queue<Task> queue : mQueues) {
+            if (!queue.isEmpty()) return true;
+        }
+        return false;
+    }
+
+    private void run(int priority, Task task) {
+        mDepths[priority].decrementAndGet();
+        // once a task has started, a further event is no longer a duplicate
+        if (task.key != null) mPendingByKey.remove(task.key, task);
+        mMaxWaitNanos[priority].accumulateAndGet(System.nanoTime() - task.queuedTime, Math::max);
+        mExecuted[priority].incrementAndGet();
+        try {
+            task.runnable.run();
+        } catch (Throwable e) {
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+    }
+
+    private long getSliceNanos() {
+        if (mSliceNanos < 0) {
+            mSliceNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, Settings.settings().getInt("EdtTimeSlice", 10)));
+        }
+        return mSliceNanos;
+    }
+
+    int getQueueDepth(Priority priority) {
+        return mDepths[priority.ordinal()].get();
+    }
+
+    /**
+     * Returns the queue depth, tasks executed and maximum wait for each
+     * priority, plus the number of coalesced tasks and drain slices.
+     * @return
+     * the statistics, in key=value form
+     */
+    String getStatistics() {
+        StringBuilder sb = new StringBuilder();
+        for (Priority p : Priority.values()) {
+            String name = p.toString().toLowerCase();
+            sb.append(name).append("Depth=").append(mDepths[p.ordinal()].get()).append(' ')
+              .append(name).append("Executed=").append(mExecuted[p.ordinal()].get()).append(' ')
+              .append(name).append("MaxWaitMs=").append(TimeUnit.NANOSECONDS.toMillis(mMaxWaitNanos[p.ordinal()].get())).append(' ');
+        }
+        sb.append("coalesced=").append(mCoalesced.get()).append(' ')
+          .append("slices=").append(mSlices.get());
+        return sb.toString();
+    }
+}
@@ -33,4 +33,5 @@ public final class ErrorCodes {
     public static final int INVALID_STATE = 1110;
     public static final int SECOND_FACTOR_AUTH_LOGIN_TIMED_OUT = 1111;
     public static final int LOGIN_DIALOG_DISPLAY_TIMED_OUT = 1112;
+    public static final int SHUTDOWN_DEADLINE_EXCEEDED = 1113;
 }
@@ -39,7 +39,9 @@ public class ExitConfirmationDialogHandler implements WindowHandler {
         
         if (!SwingUtils.clickButton(window, "Yes")) {
             Utils.logError("could not ignore shutdown confirmation dialog because we could not find one of the controls.");
+            return;
         }
+        ShutdownCoordinator.getInstance().phase(ShutdownCoordinator.Phase.EXIT_CONFIRMED, "");
     }
 
     public boolean recogniseWindow(Window window) {
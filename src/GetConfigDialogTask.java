@@ -19,6 +19,7 @@
 package ibcalpha.ibc;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -30,11 +31,24 @@ class GetConfigDialogTask implements Callable<JDialog>{
     private final Lock lock = new ReentrantLock();
     private final Condition gotConfigDialog = lock.newCondition();
 
+    private static final int READY_WAIT_SECONDS = 10;
+    private static final int READY_LOG_INTERVAL_SECONDS = 60;
+
     @Override
     public JDialog call() throws IbcException, InterruptedException {
         final JFrame mainForm = MainWindowManager.mainWindowManager().getMainWindow();
         
-        SessionManager.awaitReady();
+        // login may legitimately take a long time (second factor authentication,
+        // retry backoff), so there is no overall limit, but the wait is abandoned
+        // if IBC starts shutting down
+        int waited = 0;
+        while (!SessionManager.awaitReady(READY_WAIT_SECONDS, TimeUnit.SECONDS)) {
+            if (StopTask.shutdownInProgress()) throw new IbcException("a ready session: IBC is shutting down");
+            waited += READY_WAIT_SECONDS;
+            if (waited % READY_LOG_INTERVAL_SECONDS == 0) {
+                Utils.logToConsole("Still waiting for TWS to be ready before invoking config dialog menu: " + waited + " seconds so far");
+            }
+        }
 
         Utils.logToConsole("Invoking config dialog menu");
         if (SessionManager.isGateway()) {
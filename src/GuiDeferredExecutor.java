@@ -19,7 +19,6 @@
 package ibcalpha.ibc;
 
 import java.util.concurrent.Executor;
-import javax.swing.SwingUtilities;
 
 class GuiDeferredExecutor implements Executor {
     private static final GuiDeferredExecutor instance = new GuiDeferredExecutor();
@@ -29,6 +28,10 @@ class GuiDeferredExecutor implements Executor {
     static GuiDeferredExecutor instance() {return instance;}
 
     public void execute(Runnable task) {
-        SwingUtilities.invokeLater(task);
+        execute(EdtScheduler.Priority.DIALOG, task);
+    }
+
+    void execute(EdtScheduler.Priority priority, Runnable task) {
+        EdtScheduler.getInstance().execute(priority, task);
     }
 }
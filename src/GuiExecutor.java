@@ -29,10 +29,14 @@ class GuiExecutor implements Executor {
     static GuiExecutor instance() {return instance;}
 
     public void execute(Runnable task) {
+        execute(EdtScheduler.Priority.DIALOG, task);
+    }
+
+    void execute(EdtScheduler.Priority priority, Runnable task) {
         if (SwingUtilities.isEventDispatchThread()) {
             task.run();
         } else {
-            SwingUtilities.invokeLater(task);
+            EdtScheduler.getInstance().execute(priority, task);
         }
     }
 }
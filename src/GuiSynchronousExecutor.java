@@ -19,6 +19,7 @@
 package ibcalpha.ibc;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 import javax.swing.SwingUtilities;
 
 class GuiSynchronousExecutor implements Executor{
@@ -33,8 +34,10 @@ class GuiSynchronousExecutor implements Executor{
         if (SwingUtilities.isEventDispatchThread()) {
             task.run();
         } else {
+            FutureTask<?> t = new FutureTask<>(task, null);
+            EdtScheduler.getInstance().execute(EdtScheduler.Priority.DIALOG, t);
             try {
-                SwingUtilities.invokeAndWait(task);
+                t.get();
             } catch (Exception ex){
 
             }
@@ -0,0 +1,334 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.text.SimpleDateFormat;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Restarts TWS when its heap is under sustained pressure, at a time when a
+ * restart will do least harm.
+ *
+ * Every HeapMonitorInterval seconds (0, the default, disables monitoring) the
+ * monitor samples the occupancy of the old generation immediately after the
+ * last garbage collection, and the proportion of time spent in garbage
+ * collection since the previous sample. A restart is needed if either:
+ *
+ *  - for HeapRestartSamples consecutive samples (default 5), old generation
+ *    occupancy exceeds HeapRestartOldGenPercent (default 85) or the garbage
+ *    collection time exceeds HeapRestartGcTimePercent (default 10); or
+ *
+ *  - old generation occupancy is rising steadily enough that, on its current
+ *    trend, it will exceed HeapRestartOldGenPercent before the quiet window
+ *    after next.
+ *
+ * The restart is then scheduled for the start of the next quiet window, given
+ * by HeapRestartWindow in the form hh:mm-hh:mm (the window may span midnight).
+ * If no window is set, the need is only reported. When the window arrives the
+ * need is re-assessed, and the restart is abandoned if the pressure has gone.
+ * HeapRestartAction determines whether the restart is a cold restart (the
+ * default) or a TWS auto-restart (as the RESTART command).
+ *
+ * Each decision is recorded, and the HEAPMONITOR command reports the current
+ * measurements and the decision trail.
+ */
+class HeapMonitor
+        implements Runnable {
+
+    private static final HeapMonitor _instance = new HeapMonitor();
+
+    static HeapMonitor getInstance() {
+        return _instance;
+    }
+
+    private static final int MAX_DECISIONS = 50;
+    // the number of samples used to estimate the trend, and the minimum span
+    // of time they must cover before the trend is trusted
+    private static final int TREND_SAMPLES = 120;
+    private static final Duration MIN_TREND_SPAN = Duration.ofHours(1);
+
+    private final AtomicBoolean mStarted = new AtomicBoolean();
+
+    private int mOldGenThreshold;
+    private int mGcTimeThreshold;
+    private int mRequiredSamples;
+    private LocalTime mWindowStart;
+    private LocalTime mWindowEnd;
+    private boolean mColdRestart;
+
+    private MemoryPoolMXBean mOldGen;
+    private long mLastGcMillis;
+    private long mLastSampleNanos;
+
+    private final Deque<long[]> mTrendSamples = new ArrayDeque<>();
+    private final Deque<String> mDecisions = new ArrayDeque<>();
+
+    private volatile double mOldGenPercent;
+    private volatile double mGcTimePercent;
+    private volatile double mTrendPercentPerHour;
+    private volatile int mConsecutiveOver;
+    private volatile long mSamples;
+    private volatile String mRestartReason;
+    private volatile long mRestartTime;
+    private ScheduledFuture<?> mRestartFuture;
+    private boolean mRestartInitiated;
+
+    private HeapMonitor() {}
+
+    void start() {
+        final int interval = Settings.settings().getInt("HeapMonitorInterval", 0);
+        if (interval <= 0) return;
+        if (!mStarted.compareAndSet(false, true)) return;
+
+        mOldGenThreshold = Settings.settings().getInt("HeapRestartOldGenPercent", 85);
+        mGcTimeThreshold = Settings.settings().getInt("HeapRestartGcTimePercent", 10);
+        mRequiredSamples = Math.max(1, Settings.settings().getInt("HeapRestartSamples", 5));
+        mColdRestart = !Settings.settings().getString("HeapRestartAction", "coldrestart").equalsIgnoreCase("restart");
+        parseWindow(Settings.settings().getString("HeapRestartWindow", ""));
+        mOldGen = findOldGenPool();
+
+        mLastGcMillis = totalGcMillis();
+        mLastSampleNanos = System.nanoTime();
+
+        Utils.logToConsole("HeapMonitor sampling every " + interval + " seconds: old generation pool is " +
+                           (mOldGen == null ? "unknown: using whole heap" : mOldGen.getName()) +
+                           "; quiet window is " + (mWindowStart == null ? "not set" : mWindowStart + "-" + mWindowEnd));
+        MyScheduledExecutorService.getInstance().scheduleWithFixedDelay(this, interval, interval, TimeUnit.SECONDS);
+    }
+
+    private void parseWindow(String window) {
+        if (window.isEmpty()) return;
+        String[] times = window.split("-");
+        try {
+            if (times.length != 2) throw new DateTimeParseException("", window, 0);
+            mWindowStart = LocalTime.parse(times[0].trim());
+            mWindowEnd = LocalTime.parse(times[1].trim());
+        } catch (DateTimeParseException e) {
+            Utils.logError("Invalid HeapRestartWindow setting: '" + window + "'; format should be: <hh:mm>-<hh:mm>   eg 02:00-04:30");
+            mWindowStart = null;
+            mWindowEnd = null;
+        }
+    }
+
+    private static MemoryPoolMXBean findOldGenPool() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP || !pool.isCollectionUsageThresholdSupported()) continue;
+            String name = pool.getName();
+            if (name.contains("Old") || name.contains("Tenured")) return pool;
+        }
+        return null;
+    }
+
+    private static long totalGcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized void run() {
+        try {
+            sample();
+            assess();
+        } catch (Throwable t) {
+            // an exception would stop the periodic schedule
+            Utils.logException(t);
+        }
+    }
+
+    private void sample() {
+        MemoryUsage usage = mOldGen == null ? null : mOldGen.getCollectionUsage();
+        if (usage == null) usage = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        long max = usage.getMax() > 0 ? usage.getMax() : Runtime.getRuntime().maxMemory();
+        mOldGenPercent = 100.0 * usage.getUsed() / max;
+
+        long now = System.nanoTime();
+        long gcMillis = totalGcMillis();
+        long elapsedMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(now - mLastSampleNanos));
+        mGcTimePercent = 100.0 * (gcMillis - mLastGcMillis) / elapsedMillis;
+        mLastGcMillis = gcMillis;
+        mLastSampleNanos = now;
+        mSamples++;
+
+        if (mOldGenPercent > mOldGenThreshold || mGcTimePercent > mGcTimeThreshold) {
+            mConsecutiveOver++;
+        } else {
+            mConsecutiveOver = 0;
+        }
+
+        mTrendSamples.addLast(new long[] {System.currentTimeMillis(), Double.doubleToLongBits(mOldGenPercent)});
+        if (mTrendSamples.size() > TREND_SAMPLES) mTrendSamples.removeFirst();
+        mTrendPercentPerHour = estimateTrend();
+    }
+
+    /*
+     * Returns the least-squares slope of old generation occupancy against time,
+     * in percentage points per hour, or NaN if there isn't enough data.
+     */
+    private double estimateTrend() {
+        if (mTrendSamples.size() < 10) return Double.NaN;
+        long first = mTrendSamples.getFirst()[0];
+        if (mTrendSamples.getLast()[0] - first < MIN_TREND_SPAN.toMillis()) return Double.NaN;
+
+        double n = mTrendSamples.size(), sx = 0, sy = 0, sxx = 0, sxy = 0;
+        for (long[] s : mTrendSamples) {
+            double x = (s[0] - first) / 3600000.0;
+            double y = Double.longBitsToDouble(s[1]);
+            sx += x;
+            sy += y;
+            sxx += x * x;
+            sxy += x * y;
+        }
+        double denominator = n * sxx - sx * sx;
+        return denominator == 0 ? Double.NaN : (n * sxy - sx * sy) / denominator;
+    }
+
+    private void assess() {
+        if (mRestartInitiated) return;
+        String reason = restartReason();
+
+        if (mRestartFuture != null) {
+            if (reason == null) {
+                mRestartFuture.cancel(false);
+                mRestartFuture = null;
+                mRestartReason = null;
+                mRestartTime = 0;
+                decide("restart cancelled: heap pressure has eased");
+            }
+            return;
+        }
+        if (reason == null || mWindowStart == null) {
+            if (reason != null && !reason.equals(mRestartReason)) decide("restart needed but no HeapRestartWindow is set: " + reason);
+            mRestartReason = reason;
+            return;
+        }
+
+        LocalDateTime restartAt = nextWindowStart(LocalDateTime.now());
+        long delay = Math.max(0, Duration.between(LocalDateTime.now(), restartAt).toMillis());
+        final long restartTime = System.currentTimeMillis() + delay;
+        mRestartReason = reason;
+        mRestartTime = restartTime;
+        mRestartFuture = MyScheduledExecutorService.getInstance().schedule(this::restartIfStillNeeded, delay, TimeUnit.MILLISECONDS);
+
+        String time = (new SimpleDateFormat("yyyy-MM-dd'T'HH:mm")).format(new Date(mRestartTime));
+        decide((mColdRestart ? "cold restart" : "restart") + " scheduled for " + time + ": " + reason);
+        if (mColdRestart) {
+            IbcStatus.update(s -> s.withShutdownScheduled("coldrestart", restartTime));
+            IbcEventBus.getInstance().publish(IbcEvent.Type.SHUTDOWN_SCHEDULED, "kind=coldrestart at=" + time + " reason=heap");
+        } else {
+            IbcStatus.update(s -> s.withRestartScheduled("heap", time));
+            IbcEventBus.getInstance().publish(IbcEvent.Type.RESTART_SCHEDULED, "kind=heap time=" + time);
+        }
+    }
+
+    private String restartReason() {
+        if (mConsecutiveOver >= mRequiredSamples) {
+            return String.format(Locale.ROOT, "%d consecutive samples over threshold: oldGen=%.1f%% gcTime=%.1f%%",
+                                 mConsecutiveOver, mOldGenPercent, mGcTimePercent);
+        }
+        double trend = mTrendPercentPerHour;
+        if (mWindowStart != null && !Double.isNaN(trend) && trend > 0) {
+            // will the threshold be reached before the window after the next one?
+            LocalDateTime now = LocalDateTime.now();
+            double hours = Duration.between(now, nextWindowStart(now).plusDays(1)).toMinutes() / 60.0;
+            double projected = mOldGenPercent + trend * hours;
+            if (projected > mOldGenThreshold) {
+                return String.format(Locale.ROOT, "oldGen=%.1f%% rising at %.2f%%/hour, projected %.1f%% before the following window",
+                                     mOldGenPercent, trend, projected);
+            }
+        }
+        return null;
+    }
+
+    private LocalDateTime nextWindowStart(LocalDateTime now) {
+        if (isInWindow(now.toLocalTime())) return now;
+        LocalDateTime start = now.toLocalDate().atTime(mWindowStart);
+        return start.isAfter(now) ? start : start.plusDays(1);
+    }
+
+    private boolean isInWindow(LocalTime t) {
+        if (mWindowStart.isBefore(mWindowEnd)) return !t.isBefore(mWindowStart) && t.isBefore(mWindowEnd);
+        // the window spans midnight
+        return !t.isBefore(mWindowStart) || t.isBefore(mWindowEnd);
+    }
+
+    private synchronized void restartIfStillNeeded() {
+        mRestartFuture = null;
+        String reason = restartReason();
+        if (reason == null) {
+            decide("restart abandoned at start of quiet window: heap pressure has eased");
+            mRestartReason = null;
+            mRestartTime = 0;
+            return;
+        }
+        decide((mColdRestart ? "cold restart" : "restart") + " initiated: " + reason);
+        mRestartInitiated = true;
+        if (mColdRestart) {
+            MyCachedThreadPool.getInstance().execute(new StopTask(null, true, "heap pressure"));
+        } else {
+            MyCachedThreadPool.getInstance().execute(new RestartTask(null));
+        }
+    }
+
+    private void decide(String decision) {
+        Utils.logToConsole("HeapMonitor: " + decision);
+        synchronized (mDecisions) {
+            mDecisions.addLast(LocalDateTime.now(ZoneId.systemDefault()).withNano(0) + " " + decision);
+            if (mDecisions.size() > MAX_DECISIONS) mDecisions.removeFirst();
+        }
+    }
+
+    String getStatistics(boolean decisions) {
+        if (!mStarted.get()) return "state=notstarted";
+        if (decisions) {
+            List<String> trail;
+            synchronized (mDecisions) {
+                trail = new ArrayList<>(mDecisions);
+            }
+            return trail.isEmpty() ? "no decisions" : String.join("; ", trail);
+        }
+        return String.format(Locale.ROOT,
+                "samples=%d oldGenPercent=%.1f gcTimePercent=%.1f trendPercentPerHour=%s consecutiveOver=%d oldGenThreshold=%d gcTimeThreshold=%d restartNeeded=%b restartAt=%s",
+                mSamples, mOldGenPercent, mGcTimePercent,
+                Double.isNaN(mTrendPercentPerHour) ? "unknown" : String.format(Locale.ROOT, "%.2f", mTrendPercentPerHour),
+                mConsecutiveOver, mOldGenThreshold, mGcTimeThreshold,
+                mRestartReason != null,
+                mRestartTime == 0 ? "none" : (new SimpleDateFormat("yyyy-MM-dd'T'HH:mm")).format(new Date(mRestartTime)));
+    }
+}
@@ -0,0 +1,120 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc;
+
+/**
+ * An immutable notification of a change in IBC's state, as published on the
+ * IbcEventBus and streamed to SUBSCRIBE clients.
+ *
+ * On the command channel an event is written as a single line:
+ *
+ *      EVENT <sequence> <epochMillis> <type> [<key>=<value>]...
+ *
+ * where values containing spaces are enclosed in double quotes.
+ */
+final class IbcEvent {
+
+    enum Type {
+        LOGIN_STATE(true),
+        WINDOW_HANDLED(false),
+        WINDOW_UNKNOWN(false),
+        CONFIG_TASK_STARTED(false),
+        CONFIG_TASK_FINISHED(false),
+        // IBC's own timer (ClosedownAt or ColdRestartTime)
+        SHUTDOWN_SCHEDULED(true),
+        // TWS's auto-restart or auto-logoff time, including that set by the RESTART command
+        RESTART_SCHEDULED(true),
+        // whether TWS's API port is completing the API handshake (see ApiProbe)
+        API_READY(true),
+        // a message of interest in the Gateway's log (see LogEventDetector)
+        LOG_EVENT(false),
+        // a phase of IBC's shutdown, timed from the request (see ShutdownCoordinator)
+        SHUTDOWN_PHASE(false),
+        DROPPED(false),
+        HEARTBEAT(false);
+
+        // the latest event of a sticky type describes current state, so it is
+        // replayed to new subscribers and to subscribers that have lost events
+        private final boolean sticky;
+
+        Type(boolean sticky) {
+            this.sticky = sticky;
+        }
+
+        boolean isSticky() {
+            return sticky;
+        }
+    }
+
+    private final long sequence;
+    private final long timestamp;
+    private final Type type;
+    private final String detail;
+
+    IbcEvent(long sequence, long timestamp, Type type, String detail) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.type = type;
+        this.detail = detail == null ? "" : detail;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    long getTimestamp() {
+        return timestamp;
+    }
+
+    Type getType() {
+        return type;
+    }
+
+    String getDetail() {
+        return detail;
+    }
+
+    String toLine() {
+        return sequence + " " + timestamp + " " + type + (detail.isEmpty() ? "" : " " + detail);
+    }
+
+    /**
+     * Returns a value in a form suitable for use in an event's key=value pairs.
+     * @param value
+     * the value to be formatted
+     * @return
+     * the value, enclosed in double quotes if it is empty or contains
+     * whitespace or double quotes
+     */
+    static String quote(String value) {
+        if (value == null) return "\"\"";
+        boolean needsQuotes = value.isEmpty();
+        for (int i = 0; i < value.length() && !needsQuotes; i++) {
+            char c = value.charAt(i);
+            needsQuotes = Character.isWhitespace(c) || c == '"';
+        }
+        if (!needsQuotes) return value;
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", " ") + "\"";
+    }
+
+    @Override
+    public String toString() {
+        return toLine();
+    }
+}
@@ -0,0 +1,156 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Distributes IbcEvents to subscribers.
+ *
+ * Events are often published from the Swing event dispatch thread, so publishing
+ * must never block: each subscriber has a bounded queue, and if a subscriber
+ * falls behind, further events for it are discarded and counted rather than
+ * queued. When the subscriber catches up it is told how many events it lost and
+ * is sent the latest event of each sticky type, so its view of IBC's state is
+ * coalesced back to the current state.
+ */
+class IbcEventBus {
+    private static final IbcEventBus instance = new IbcEventBus();
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final Map<IbcEvent.Type, IbcEvent> latestStickyEvents = new EnumMap<>(IbcEvent.Type.class);
+
+    private IbcEventBus() {}
+
+    static IbcEventBus getInstance() {return instance;}
+
+    /**
+     * Indicates whether anything is listening, so that callers on time-critical
+     * threads can avoid the cost of formatting events that nobody will see.
+     * @return
+     * true if there is at least one subscription
+     */
+    boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    IbcEvent publish(IbcEvent.Type type, String detail) {
+        IbcEvent event = new IbcEvent(sequence.incrementAndGet(), System.currentTimeMillis(), type, detail);
+        if (type.isSticky()) {
+            synchronized (latestStickyEvents) {
+                latestStickyEvents.put(type, event);
+            }
+        }
+        for (Subscription s : subscriptions) s.offer(event);
+        StatusFile.getInstance().eventPublished(event.getTimestamp());
+        return event;
+    }
+
+    /**
+     * Creates a new subscription.
+     * @param types
+     * the types of event required; if empty, all types are delivered
+     * @return
+     * the subscription
+     */
+    Subscription subscribe(Set<IbcEvent.Type> types) {
+        int queueSize = Math.max(16, Settings.settings().getInt("SubscriptionQueueSize", 1000));
+        Subscription s = new Subscription(types.isEmpty() ? EnumSet.allOf(IbcEvent.Type.class) : EnumSet.copyOf(types), queueSize);
+        subscriptions.add(s);
+        return s;
+    }
+
+    void unsubscribe(Subscription subscription) {
+        subscriptions.remove(subscription);
+    }
+
+    List<IbcEvent> getLatestStickyEvents() {
+        synchronized (latestStickyEvents) {
+            return new ArrayList<>(latestStickyEvents.values());
+        }
+    }
+
+    IbcEvent createEvent(IbcEvent.Type type, String detail) {
+        return new IbcEvent(sequence.incrementAndGet(), System.currentTimeMillis(), type, detail);
+    }
+
+    static final class Subscription {
+        private final Set<IbcEvent.Type> types;
+        private final BlockingQueue<IbcEvent> queue;
+        private final AtomicInteger dropped = new AtomicInteger();
+
+        private Subscription(Set<IbcEvent.Type> types, int queueSize) {
+            this.types = types;
+            this.queue = new ArrayBlockingQueue<>(queueSize);
+        }
+
+        Set<IbcEvent.Type> getTypes() {
+            return types;
+        }
+
+        private void offer(IbcEvent event) {
+            if (!types.contains(event.getType())) return;
+            if (!queue.offer(event)) dropped.incrementAndGet();
+        }
+
+        /**
+         * Waits for the next event.
+         * @param timeout
+         * the maximum time to wait
+         * @param unit
+         * the time unit of the timeout argument
+         * @return
+         * the next event, or null if none arrives within the timeout
+         * @throws InterruptedException
+         * the thread was interrupted while waiting
+         */
+        IbcEvent poll(long timeout, TimeUnit unit) throws InterruptedException {
+            return queue.poll(timeout, unit);
+        }
+
+        /**
+         * Returns the number of events discarded since the last call, and resets
+         * the count.
+         * @return
+         * the number of discarded events
+         */
+        int takeDroppedCount() {
+            if (dropped.get() == 0) return 0;
+            // events queued before the loss are stale once the subscriber has been
+            // resynchronised with the sticky events, so they are discarded too
+            // (only those actually removed are counted, since more may be
+            // queued while the queue is being emptied)
+            int count = dropped.getAndSet(0);
+            while (queue.poll() != null) count++;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * An immutable snapshot of IBC's state.
+ *
+ * The current snapshot is replaced (never modified) whenever the state changes,
+ * so it can be read from any thread without locking and without touching the
+ * Swing event dispatch thread or any Swing component. This is what allows the
+ * STATUS and HEALTH commands to reply immediately even when the event dispatch
+ * thread is busy or blocked.
+ */
+final class IbcStatus
+        implements Cloneable {
+
+    private static final AtomicReference<IbcStatus> _current = new AtomicReference<>(new IbcStatus());
+
+    static IbcStatus current() {
+        return _current.get();
+    }
+
+    /**
+     * Atomically replaces the current snapshot.
+     * @param change
+     * a function that returns the new snapshot given the current one: it may be
+     * called more than once if other threads update the snapshot concurrently,
+     * so it must have no side effects
+     */
+    static void update(UnaryOperator<IbcStatus> change) {
+        IbcStatus previous = _current.getAndUpdate(s -> {
+            IbcStatus n = change.apply(s);
+            // n is either s itself or a new, unpublished copy
+            if (n != s) n.updateTime = System.currentTimeMillis();
+            return n;
+        });
+        if (_current.get() != previous) StatusFile.getInstance().stateChanged();
+    }
+
+    // these are only assigned while a new snapshot is being built, before it is published
+    private long startTime;
+    private long updateTime;
+    private boolean sessionStarted;
+    private boolean gateway;
+    private boolean fix;
+    private boolean restart;
+    private LoginManager.LoginState loginState;
+    private long loginStateTime;
+    private boolean initialisationCompleted;
+    private boolean mainWindowAvailable;
+    private boolean configDialogOpen;
+    private int configTasksInProgress;
+    private boolean configurationCompleted;
+    private String shutdownKind;
+    private long shutdownTime;
+    private String restartKind;
+    private String restartTime;
+    private boolean shutdownInProgress;
+    private boolean apiReady;
+    private long apiReadyTime;
+
+    private IbcStatus() {
+        startTime = System.currentTimeMillis();
+        updateTime = startTime;
+        loginState = LoginManager.LoginState.LOGGED_OUT;
+        loginStateTime = startTime;
+        shutdownKind = "";
+        restartKind = "";
+        restartTime = "";
+    }
+
+    private IbcStatus copy() {
+        try {
+            return (IbcStatus) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    IbcStatus withSession(boolean gateway, boolean fix, boolean restart) {
+        IbcStatus s = copy();
+        s.sessionStarted = true;
+        s.gateway = gateway;
+        s.fix = fix;
+        s.restart = restart;
+        return s;
+    }
+
+    IbcStatus withLoginState(LoginManager.LoginState state, long time) {
+        if (state == loginState && time == loginStateTime) return this;
+        IbcStatus s = copy();
+        s.loginState = state;
+        s.loginStateTime = time;
+        return s;
+    }
+
+    IbcStatus withInitialisationCompleted() {
+        if (initialisationCompleted) return this;
+        IbcStatus s = copy();
+        s.initialisationCompleted = true;
+        return s;
+    }
+
+    IbcStatus withMainWindowAvailable() {
+        if (mainWindowAvailable) return this;
+        IbcStatus s = copy();
+        s.mainWindowAvailable = true;
+        return s;
+    }
+
+    IbcStatus withConfigDialogOpen(boolean open) {
+        if (open == configDialogOpen) return this;
+        IbcStatus s = copy();
+        s.configDialogOpen = open;
+        return s;
+    }
+
+    IbcStatus withConfigTasksInProgress(int count) {
+        if (count == configTasksInProgress) return this;
+        IbcStatus s = copy();
+        s.configTasksInProgress = count;
+        return s;
+    }
+
+    IbcStatus withConfigurationCompleted() {
+        if (configurationCompleted) return this;
+        IbcStatus s = copy();
+        s.configurationCompleted = true;
+        return s;
+    }
+
+    IbcStatus withShutdownScheduled(String kind, long time) {
+        IbcStatus s = copy();
+        s.shutdownKind = kind;
+        s.shutdownTime = time;
+        return s;
+    }
+
+    IbcStatus withRestartScheduled(String kind, String time) {
+        IbcStatus s = copy();
+        s.restartKind = kind;
+        s.restartTime = time;
+        return s;
+    }
+
+    IbcStatus withShutdownInProgress() {
+        if (shutdownInProgress) return this;
+        IbcStatus s = copy();
+        s.shutdownInProgress = true;
+        return s;
+    }
+
+    IbcStatus withApiReady(boolean ready) {
+        if (ready == apiReady) return this;
+        IbcStatus s = copy();
+        s.apiReady = ready;
+        s.apiReadyTime = System.currentTimeMillis();
+        return s;
+    }
+
+    long getStartTime() {return startTime;}
+    long getUpdateTime() {return updateTime;}
+    boolean isSessionStarted() {return sessionStarted;}
+    boolean isGateway() {return gateway;}
+    boolean isFIX() {return fix;}
+    boolean isRestart() {return restart;}
+    LoginManager.LoginState getLoginState() {return loginState;}
+    long getLoginStateTime() {return loginStateTime;}
+    boolean isInitialisationCompleted() {return initialisationCompleted;}
+    boolean isMainWindowAvailable() {return mainWindowAvailable;}
+    boolean isConfigDialogOpen() {return configDialogOpen;}
+    int getConfigTasksInProgress() {return configTasksInProgress;}
+    boolean isConfigurationCompleted() {return configurationCompleted;}
+    String getShutdownKind() {return shutdownKind;}
+    long getShutdownTime() {return shutdownTime;}
+    String getRestartKind() {return restartKind;}
+    String getRestartTime() {return restartTime;}
+    boolean isShutdownInProgress() {return shutdownInProgress;}
+    boolean isApiReady() {return apiReady;}
+    long getApiReadyTime() {return apiReadyTime;}
+
+    /**
+     * Determines whether IBC is fully operational.
+     * @return
+     * null if healthy; otherwise the reason it is not
+     */
+    String getUnhealthyReason() {
+        if (shutdownInProgress) return "shutdown in progress";
+        if (loginState != LoginManager.LoginState.LOGGED_IN) return "loginState=" + loginState;
+        return null;
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("version", IbcVersionInfo.IBC_VERSION);
+        m.put("application", gateway ? "gateway" : "tws");
+        m.put("fix", fix);
+        m.put("sessionStarted", sessionStarted);
+        m.put("restart", restart);
+        m.put("loginState", loginState);
+        m.put("loginStateTime", loginStateTime);
+        m.put("initialisationCompleted", initialisationCompleted);
+        m.put("mainWindow", mainWindowAvailable);
+        m.put("configDialogOpen", configDialogOpen);
+        m.put("configTasksInProgress", configTasksInProgress);
+        m.put("configurationCompleted", configurationCompleted);
+        m.put("shutdownKind", shutdownKind);
+        m.put("shutdownTime", shutdownTime);
+        m.put("restartKind", restartKind);
+        m.put("restartTime", restartTime);
+        m.put("shutdownInProgress", shutdownInProgress);
+        m.put("apiReady", apiReady);
+        m.put("apiReadyTime", apiReadyTime);
+        m.put("startTime", startTime);
+        m.put("updateTime", updateTime);
+        return m;
+    }
+
+    String toKeyValueString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Object> e : toMap().entrySet()) {
+            if (sb.length() != 0) sb.append(' ');
+            sb.append(e.getKey()).append('=').append(IbcEvent.quote(String.valueOf(e.getValue())));
+        }
+        return sb.toString();
+    }
+
+    String toJson() {
+        StringBuilder sb = new StringBuilder("{");
+        for (Map.Entry<String, Object> e : toMap().entrySet()) {
+            if (sb.length() != 1) sb.append(',');
+            sb.append('"').append(e.getKey()).append("\":");
+            Object v = e.getValue();
+            if (v instanceof Boolean || v instanceof Number) {
+                sb.append(v);
+            } else {
+                sb.append('"').append(String.valueOf(v).replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+            }
+        }
+        return sb.append('}').toString();
+    }
+}
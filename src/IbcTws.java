@@ -22,11 +22,18 @@ import java.awt.AWTEvent;
 import java.awt.Toolkit;
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.text.ParseException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
@@ -120,12 +127,18 @@ public class IbcTws {
             TradingModeManager.tradingModeManager().logDiagnosticMessage();
             ConfigDialogManager.configDialogManager().logDiagnosticMessage();
 
+            JfrEvents.initialise();
+
             startCommandServer();
 
             startShutdownTimerIfRequired();
 
+            WindowEventJournal.getInstance().start();
+
             createToolkitListener();
 
+            RepaintSuppressor.installIfRequired();
+
             startSavingTwsSettingsAutomatically();
 
             startTwsOrGateway();
@@ -147,7 +160,7 @@ public class IbcTws {
         Toolkit.getDefaultToolkit().addAWTEventListener(new TwsListener(createWindowHandlers()), AWTEvent.WINDOW_EVENT_MASK);
     }
 
-    private static List<WindowHandler> createWindowHandlers() {
+    static List<WindowHandler> createWindowHandlers() {
         List<WindowHandler> windowHandlers = new ArrayList<>();
 
         windowHandlers.add(new AcceptIncomingConnectionDialogHandler());
@@ -187,6 +200,10 @@ public class IbcTws {
         windowHandlers.add(new RestartConfirmationDialogHandler());
         windowHandlers.add(new ResetOrderIdConfirmationDialogHandler());
         windowHandlers.add(new ReconnectDataOrAccountConfirmationDialogHandler());
+
+        // this must be last, so that rules only apply to windows with no built-in handler
+        WindowRulesHandler.getInstance().initialise();
+        windowHandlers.add(WindowRulesHandler.getInstance());
         return windowHandlers;
     }
 
@@ -312,13 +329,26 @@ public class IbcTws {
     }
 
     private static void startGateway() {
+        Utils.logToConsole("Starting Gateway");
+        launch(Settings.settings().getString("EntryPoint", "ibgateway.GWClient"));
+    }
+
+    /**
+     * Calls the main method of the class that starts TWS or Gateway.
+     *
+     * The class is located by name rather than referenced directly, so that IBC
+     * can be compiled without the TWS jars, and so that the EntryPoint setting
+     * can substitute another launch target (such as the simulator in
+     * IBCSimulator.jar) for TWS or Gateway.
+     */
+    private static void launch(String entryPoint) {
         String[] twsArgs = new String[1];
         twsArgs[0] = getTWSSettingsDirectory();
         try {
-            Utils.logToConsole("Starting Gateway");
-            ibgateway.GWClient.main(twsArgs);
+            Class.forName(entryPoint).getMethod("main", String[].class).invoke(null, (Object) twsArgs);
         } catch (Throwable t) {
-            Utils.logError("Exception occurred at Gateway entry point: ibgateway.GWClient.main");
+            if (t instanceof InvocationTargetException) t = t.getCause();
+            Utils.logError("Exception occurred at entry point: " + entryPoint + ".main");
             t.printStackTrace(Utils.getErrStream());
             Utils.exitWithError(ErrorCodes.CANT_FIND_ENTRYPOINT);
         }
@@ -342,10 +372,17 @@ public class IbcTws {
                 shutdownTime = coldRestartTime;
             }
         }
+        if (isColdRestart) shutdownTime = RestartCoordinator.getInstance().claimRestartSlot("coldrestart", shutdownTime);
         long delay = shutdownTime.getTime() - System.currentTimeMillis();
         Utils.logToConsole(SessionManager.isGateway() ? "Gateway" : "TWS" +
                         " will be " + (isColdRestart ? "cold restarted" : "shut down") + " at " +
                        (new SimpleDateFormat("yyyy/MM/dd HH:mm")).format(shutdownTime));
+        final String kind = isColdRestart ? "coldrestart" : "shutdown";
+        final long time = shutdownTime.getTime();
+        IbcStatus.update(s -> s.withShutdownScheduled(kind, time));
+        IbcEventBus.getInstance().publish(IbcEvent.Type.SHUTDOWN_SCHEDULED,
+                                          "kind=" + kind +
+                                          " at=" + (new SimpleDateFormat("yyyy-MM-dd'T'HH:mm")).format(shutdownTime));
         MyScheduledExecutorService.getInstance().schedule(() -> {
             MyCachedThreadPool.getInstance().execute(new StopTask(null, isColdRestart, "ColdRestartTime setting"));
         }, delay, TimeUnit.MILLISECONDS);
@@ -355,20 +392,18 @@ public class IbcTws {
         if (Settings.settings().getBoolean("ShowAllTrades", false)) {
             Utils.showTradesLogWindow();
         }
-        String[] twsArgs = new String[1];
-        twsArgs[0] = getTWSSettingsDirectory();
-        try {
-            Utils.logToConsole("Starting TWS");
-            jclient.LoginFrame.main(twsArgs);
-        } catch (Throwable t) {
-            Utils.logError("Exception occurred at TWS entry point: jclient.LoginFrame.main");
-            t.printStackTrace(Utils.getErrStream());
-            Utils.exitWithError(ErrorCodes.CANT_FIND_ENTRYPOINT);
-        }
+        Utils.logToConsole("Starting TWS");
+        launch(Settings.settings().getString("EntryPoint", "jclient.LoginFrame"));
     }
 
     private static void startTwsOrGateway() {
         Utils.logToConsole("TWS Settings directory is: " + getTWSSettingsDirectory());
+        // a restore requested in the previous session must be done before TWS reads its settings
+        SettingsSnapshotStore.getInstance().initialise(getTWSSettingsDirectory());
+        StatusFile.getInstance().initialise(getTWSSettingsDirectory());
+        LogStore.getInstance().initialise(getTWSSettingsDirectory());
+        // limits the number of instances on this host that are starting up at once
+        RestartCoordinator.getInstance().acquireStartupLock();
         SessionManager.startSession();
         JtsIniManager.initialise(getJtsIniFilePath());
         if (SessionManager.isGateway()) {
@@ -388,8 +423,14 @@ public class IbcTws {
 
         Utils.sendConsoleOutputToTwsLog(!Settings.settings().getBoolean("LogToConsole", false));
 
-        // mainLogReader = new MainLogReader();
-        // mainLogReader.initialize();
+        if (SessionManager.isGateway() &&
+                (Settings.settings().getBoolean("PersistGatewayLog", false) ||
+                        LogEventDetector.isEnabled() ||
+                        LogStore.getInstance().isAvailable())) {
+            if (LogEventDetector.isEnabled()) LogEventDetector.getInstance().initialise();
+            mainLogReader = new MainLogReader();
+            mainLogReader.initialize();
+        }
     }
 
     private static void configureResetOrderIdsAtStart() {
@@ -432,23 +473,47 @@ public class IbcTws {
     private static void configureAutoLogoffOrRestart() {
         String configName = "AutoLogoffTime Or AutoRestartTime";
         String autoLogoffTime = Settings.settings().getString("AutoLogoffTime", "");
-        String autoRestartTime = Settings.settings().getString("AutoRestartTime", "");
-        if (autoRestartTime.length() != 0 || autoLogoffTime.length() != 0) {
+        String configuredAutoRestartTime = Settings.settings().getString("AutoRestartTime", "");
+        if (configuredAutoRestartTime.length() != 0 || autoLogoffTime.length() != 0) {
             if (SessionManager.isFIX()){
                 Utils.logToConsole(configName + " - ignored for FIX");
                 return;
             }
         }
-        if (autoRestartTime.length() != 0) {
+        if (configuredAutoRestartTime.length() != 0) {
+            final String autoRestartTime = coordinateAutoRestartTime(configuredAutoRestartTime);
+            IbcStatus.update(s -> s.withRestartScheduled("autorestart", autoRestartTime));
+            IbcEventBus.getInstance().publish(IbcEvent.Type.RESTART_SCHEDULED, "kind=autorestart time=" + IbcEvent.quote(autoRestartTime));
             (new ConfigurationTask(new ConfigureAutoLogoffOrRestartTimeTask("Auto restart", autoRestartTime))).executeAsync();
             if (autoLogoffTime.length() != 0) {
                 Utils.logToConsole("AutoLogoffTime is ignored because AutoRestartTime is also set");
             }
         } else if (autoLogoffTime.length() != 0) {
+            IbcStatus.update(s -> s.withRestartScheduled("autologoff", autoLogoffTime));
+            IbcEventBus.getInstance().publish(IbcEvent.Type.RESTART_SCHEDULED, "kind=autologoff time=" + IbcEvent.quote(autoLogoffTime));
             (new ConfigurationTask(new ConfigureAutoLogoffOrRestartTimeTask("Auto logoff", autoLogoffTime))).executeAsync();
         }
     }
 
+    /*
+     * Returns the auto restart time (in hh:mm AM/PM format) moved to the slot
+     * claimed from the RestartCoordinator.
+     */
+    private static String coordinateAutoRestartTime(String autoRestartTime) {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("hh:mm a");
+        LocalTime time;
+        try {
+            time = LocalTime.parse(autoRestartTime, formatter);
+        } catch (DateTimeParseException e) {
+            // ConfigureAutoLogoffOrRestartTimeTask reports the error
+            return autoRestartTime;
+        }
+        LocalDateTime next = LocalDateTime.of(LocalDate.now(), time);
+        if (!next.isAfter(LocalDateTime.now())) next = next.plusDays(1);
+        Date slot = RestartCoordinator.getInstance().claimRestartSlot("autorestart", Date.from(next.atZone(ZoneId.systemDefault()).toInstant()));
+        return LocalDateTime.ofInstant(slot.toInstant(), ZoneId.systemDefault()).toLocalTime().format(formatter);
+    }
+
     private static void configureReadOnlyApi() {
         String configName = "ReadOnlyApi";
         if (!Settings.settings().getString(configName, "").equals("")) {
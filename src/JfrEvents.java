@@ -0,0 +1,307 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc;
+
+import java.awt.Window;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.Registered;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for IBC's automation of TWS, so that delays in
+ * IBC can be seen on the same timeline as TWS's garbage collection, thread
+ * and event dispatch thread activity.
+ *
+ * The events are only registered with the flight recorder if the
+ * JfrEventsEnabled setting is true; otherwise they cost no more than a test of
+ * a static field. They are recorded by any recording that enables them: the
+ * ibc.jfc profile bundled in IBC.jar enables them all. If JfrRecording is also
+ * true, IBC starts its own continuous recording, using the JDK's default
+ * profile plus ibc.jfc, that keeps JfrMaxAge hours of data (default 24) and is
+ * written to JfrRecordingFile (default ibc.jfr in the TWS settings directory)
+ * when IBC exits.
+ *
+ * Each begin method returns null when the events are disabled, and each end
+ * method accepts null, so callers need no tests of their own.
+ */
+final class JfrEvents {
+
+    private static volatile boolean _enabled;
+
+    private JfrEvents() {}
+
+    static void initialise() {
+        if (!Settings.settings().getBoolean("JfrEventsEnabled", false)) return;
+
+        FlightRecorder.register(WindowDispatchEvent.class);
+        FlightRecorder.register(WindowHandlerEvent.class);
+        FlightRecorder.register(FinderEvent.class);
+        FlightRecorder.register(ConfigurationTaskEvent.class);
+        FlightRecorder.register(MenuItemEvent.class);
+        FlightRecorder.register(CommandEvent.class);
+        FlightRecorder.register(LoginStateEvent.class);
+        _enabled = true;
+        Utils.logToConsole("JFR events are enabled");
+
+        if (Settings.settings().getBoolean("JfrRecording", false)) startRecording();
+    }
+
+    private static void startRecording() {
+        try (Reader reader = new InputStreamReader(JfrEvents.class.getResourceAsStream("ibc.jfc"), StandardCharsets.UTF_8)) {
+            Map<String, String> settings = new HashMap<>(Configuration.getConfiguration("default").getSettings());
+            settings.putAll(Configuration.create(reader).getSettings());
+
+            String file = Settings.settings().getString("JfrRecordingFile", "");
+            if (file.isEmpty()) file = System.getProperty("jtsConfigDir", ".") + "/ibc.jfr";
+
+            Recording recording = new Recording(settings);
+            recording.setName("IBC");
+            recording.setToDisk(true);
+            recording.setMaxAge(Duration.ofHours(Math.max(1, Settings.settings().getInt("JfrMaxAge", 24))));
+            recording.setDestination(Paths.get(file));
+            recording.setDumpOnExit(true);
+            recording.start();
+            Utils.logToConsole("JFR recording started: it will be written to " + file);
+        } catch (IOException | ParseException | NullPointerException | IllegalStateException | SecurityException e) {
+            Utils.logError("JFR recording cannot be started: " + e);
+        }
+    }
+
+    static boolean enabled() {
+        return _enabled;
+    }
+
+    private static <T extends Event> T begin(T event) {
+        event.begin();
+        return event;
+    }
+
+    static WindowDispatchEvent beginWindowDispatch() {
+        return _enabled ? begin(new WindowDispatchEvent()) : null;
+    }
+
+    static void endWindowDispatch(WindowDispatchEvent event, Window window, int eventID, WindowHandler handler) {
+        if (event == null) return;
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.event = SwingUtils.windowEventToString(eventID);
+        event.windowClass = window.getClass().getName();
+        event.title = SwingUtils.getWindowTitle(window);
+        event.handler = handler == null ? null : handler.getClass().getSimpleName();
+        event.commit();
+    }
+
+    static WindowHandlerEvent beginWindowHandler() {
+        return _enabled ? begin(new WindowHandlerEvent()) : null;
+    }
+
+    static void endWindowHandler(WindowHandlerEvent event, WindowHandler handler, Window window, int eventID) {
+        if (event == null) return;
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.handler = handler.getClass().getSimpleName();
+        event.event = SwingUtils.windowEventToString(eventID);
+        event.title = SwingUtils.getWindowTitle(window);
+        event.commit();
+    }
+
+    static FinderEvent beginFind() {
+        return _enabled ? begin(new FinderEvent()) : null;
+    }
+
+    static <T> T endFind(FinderEvent event, String finder, Object criterion, ComponentIterator iterator, T result) {
+        if (event == null) return result;
+        event.end();
+        if (!event.shouldCommit()) return result;
+        event.finder = finder;
+        event.criterion = criterion == null ? null : criterion.toString();
+        event.nodes = iterator.getCount();
+        event.found = result != null;
+        event.commit();
+        return result;
+    }
+
+    static ConfigurationTaskEvent beginConfigurationTask() {
+        return _enabled ? begin(new ConfigurationTaskEvent()) : null;
+    }
+
+    static void endConfigurationTask(ConfigurationTaskEvent event, String task, String phase, boolean succeeded) {
+        if (event == null) return;
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.task = task;
+        event.phase = phase;
+        event.succeeded = succeeded;
+        event.commit();
+    }
+
+    static MenuItemEvent beginMenuItem() {
+        return _enabled ? begin(new MenuItemEvent()) : null;
+    }
+
+    static void endMenuItem(MenuItemEvent event, String[] path, int attempts, boolean succeeded) {
+        if (event == null) return;
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.path = String.join(" > ", path);
+        event.attempts = attempts;
+        event.succeeded = succeeded;
+        event.commit();
+    }
+
+    static CommandEvent beginCommand() {
+        return _enabled ? begin(new CommandEvent()) : null;
+    }
+
+    static void endCommand(CommandEvent event, String command, String tag) {
+        if (event == null) return;
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.command = command;
+        event.tag = tag;
+        event.commit();
+    }
+
+    static void loginStateChanged(LoginManager.LoginState previous, LoginManager.LoginState state) {
+        if (!_enabled) return;
+        LoginStateEvent event = new LoginStateEvent();
+        if (!event.shouldCommit()) return;
+        event.previous = String.valueOf(previous);
+        event.state = String.valueOf(state);
+        event.commit();
+    }
+
+    @Name("ibc.WindowDispatch")
+    @Label("Window Event Dispatch")
+    @Category({"IBC", "Windows"})
+    @Description("Processing of a window event by IBC's window handlers")
+    @StackTrace(false)
+    @Registered(false)
+    static final class WindowDispatchEvent extends Event {
+        @Label("Event")
+        String event;
+        @Label("Window Class")
+        String windowClass;
+        @Label("Title")
+        String title;
+        @Label("Handler")
+        @Description("The handler that recognised the window, if any")
+        String handler;
+    }
+
+    @Name("ibc.WindowHandler")
+    @Label("Window Handler")
+    @Category({"IBC", "Windows"})
+    @Description("Handling of a window event by the handler that recognised the window")
+    @StackTrace(false)
+    @Registered(false)
+    static final class WindowHandlerEvent extends Event {
+        @Label("Handler")
+        String handler;
+        @Label("Event")
+        String event;
+        @Label("Title")
+        String title;
+    }
+
+    @Name("ibc.SwingFinder")
+    @Label("Component Search")
+    @Category({"IBC", "Windows"})
+    @Description("A search of a window's component hierarchy")
+    @StackTrace(false)
+    @Registered(false)
+    static final class FinderEvent extends Event {
+        @Label("Finder")
+        String finder;
+        @Label("Criterion")
+        String criterion;
+        @Label("Nodes Visited")
+        int nodes;
+        @Label("Found")
+        boolean found;
+    }
+
+    @Name("ibc.ConfigurationTask")
+    @Label("Configuration Task Phase")
+    @Category({"IBC", "Configuration"})
+    @StackTrace(false)
+    @Registered(false)
+    static final class ConfigurationTaskEvent extends Event {
+        @Label("Task")
+        String task;
+        @Label("Phase")
+        String phase;
+        @Label("Succeeded")
+        boolean succeeded;
+    }
+
+    @Name("ibc.MenuItem")
+    @Label("Menu Item Invocation")
+    @Category({"IBC", "Windows"})
+    @StackTrace(false)
+    @Registered(false)
+    static final class MenuItemEvent extends Event {
+        @Label("Path")
+        String path;
+        @Label("Attempts")
+        int attempts;
+        @Label("Succeeded")
+        boolean succeeded;
+    }
+
+    @Name("ibc.Command")
+    @Label("Command")
+    @Category({"IBC", "Command Server"})
+    @StackTrace(false)
+    @Registered(false)
+    static final class CommandEvent extends Event {
+        @Label("Command")
+        String command;
+        @Label("Tag")
+        String tag;
+    }
+
+    @Name("ibc.LoginState")
+    @Label("Login State Change")
+    @Category({"IBC", "Login"})
+    @StackTrace(false)
+    @Registered(false)
+    static final class LoginStateEvent extends Event {
+        @Label("Previous State")
+        String previous;
+        @Label("State")
+        String state;
+    }
+}
@@ -0,0 +1,97 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations, with buckets whose upper bounds are
+ * successive powers of two microseconds. Percentiles are therefore reported as
+ * the upper bound of the bucket that contains them, which is accurate to within
+ * a factor of two: ample for spotting that something has got slower.
+ */
+final class LatencyHistogram {
+
+    // bucket i holds durations of less than 2^i microseconds; the last bucket
+    // (about 36 minutes and more) is unbounded
+    private static final int BUCKETS = 32;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mTotalMicros = new AtomicLong();
+    private final AtomicLong mMaxMicros = new AtomicLong();
+
+    void record(long duration, TimeUnit unit) {
+        long micros = Math.max(0, unit.toMicros(duration));
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        mCounts.incrementAndGet(bucket);
+        mCount.incrementAndGet();
+        mTotalMicros.addAndGet(micros);
+        mMaxMicros.accumulateAndGet(micros, Math::max);
+    }
+
+    long getCount() {
+        return mCount.get();
+    }
+
+    /**
+     * Returns the upper bound of the bucket containing a percentile.
+     * @param percentile
+     * the required percentile, between 0 and 100
+     * @return
+     * the bucket's upper bound in microseconds (or the maximum recorded
+     * duration, if that is smaller), or 0 if nothing has been recorded
+     */
+    long getPercentileMicros(double percentile) {
+        long count = mCount.get();
+        if (count == 0) return 0;
+        long threshold = (long) Math.ceil(count * percentile / 100.0);
+        long cumulative = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            cumulative += mCounts.get(i);
+            if (cumulative >= threshold) return Math.min(1L << i, mMaxMicros.get());
+        }
+        return mMaxMicros.get();
+    }
+
+    /**
+     * Formats the histogram's summary as key=value pairs with durations in
+     * milliseconds.
+     * @param prefix
+     * prepended to each key
+     * @return
+     * the summary
+     */
+    String toString(String prefix) {
+        long count = mCount.get();
+        return prefix + "Count=" + count +
+               " " + prefix + "Mean=" + millis(count == 0 ? 0 : mTotalMicros.get() / count) +
+               " " + prefix + "P50=" + millis(getPercentileMicros(50)) +
+               " " + prefix + "P95=" + millis(getPercentileMicros(95)) +
+               " " + prefix + "P99=" + millis(getPercentileMicros(99)) +
+               " " + prefix + "Max=" + millis(mMaxMicros.get());
+    }
+
+    private static String millis(long micros) {
+        return String.format(Locale.ROOT, "%.3f", micros / 1000.0);
+    }
+}
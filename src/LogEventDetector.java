@@ -0,0 +1,273 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Classifies the lines of the Gateway's log, and reacts to data farm and
+ * connectivity problems without waiting for a human.
+ *
+ * This is enabled by the LogEventDetection setting. MainLogReader passes each
+ * batch of new lines to processLines(), where a MultiPatternMatcher finds the
+ * messages of interest in a single pass. Each one found is published as a
+ * LOG_EVENT IbcEvent.
+ *
+ * The LogEventActions setting maps event kinds to the action to take, in the
+ * form:
+ *
+ *      <kind>=<action>[,<kind>=<action>]...
+ *
+ * where action is RECONNECTDATA or RECONNECTACCOUNT (the same keystrokes as the
+ * commands of those names) or NONE. The default is:
+ *
+ *      MARKET_DATA_FARM_BROKEN=RECONNECTDATA,HMDS_FARM_BROKEN=RECONNECTDATA,CONNECTIVITY_RESTORED_DATA_LOST=RECONNECTDATA
+ *
+ * Farms often reconnect by themselves, so an action is only taken if the
+ * problem persists for LogEventReconnectDelay seconds (default 30): for
+ * example, a broken farm that reports OK within that time causes no action.
+ * The same action is never taken more than once every
+ * LogEventReconnectMinInterval seconds (default 300), and no action is taken
+ * unless IBC is logged in and not shutting down.
+ *
+ * Additional patterns can be given by the LogEventPatterns setting, in the
+ * form <kind>:<text>[;<kind>:<text>]..., for example to cater for different
+ * wording in a future Gateway version.
+ */
+class LogEventDetector {
+
+    enum Kind {
+        MARKET_DATA_FARM_BROKEN,
+        MARKET_DATA_FARM_OK,
+        HMDS_FARM_BROKEN,
+        HMDS_FARM_OK,
+        CONNECTIVITY_LOST,
+        CONNECTIVITY_RESTORED_DATA_LOST,
+        CONNECTIVITY_RESTORED_DATA_MAINTAINED,
+        API_CLIENT_CONNECTED,
+        API_CLIENT_DISCONNECTED
+    }
+
+    private enum Action {NONE, RECONNECTDATA, RECONNECTACCOUNT}
+
+    private static final String DEFAULT_ACTIONS =
+            "MARKET_DATA_FARM_BROKEN=RECONNECTDATA,HMDS_FARM_BROKEN=RECONNECTDATA,CONNECTIVITY_RESTORED_DATA_LOST=RECONNECTDATA";
+
+    private static final LogEventDetector instance = new LogEventDetector();
+
+    static LogEventDetector getInstance() {
+        return instance;
+    }
+
+    private MultiPatternMatcher<Kind> mMatcher;
+    private final Map<Kind, Action> mActions = new EnumMap<>(Kind.class);
+    private int mDelay;
+    private long mMinInterval;
+
+    // the farms currently reported broken, as <kind>:<farm>
+    private final Set<String> mBrokenFarms = ConcurrentHashMap.newKeySet();
+    private volatile boolean mConnectivityLost;
+
+    private final Map<Kind, AtomicLong> mCounts = new EnumMap<>(Kind.class);
+    private final Map<Action, Long> mLastActionTimes = new EnumMap<>(Action.class);
+    private final AtomicLong mActionsTaken = new AtomicLong();
+    private final AtomicLong mActionsSkipped = new AtomicLong();
+
+    private LogEventDetector() {
+        for (Kind kind : Kind.values()) mCounts.put(kind, new AtomicLong());
+    }
+
+    static boolean isEnabled() {
+        return Settings.settings().getBoolean("LogEventDetection", false);
+    }
+
+    synchronized void initialise() {
+        if (mMatcher != null) return;
+
+        MultiPatternMatcher.Builder<Kind> builder = new MultiPatternMatcher.Builder<Kind>()
+                .add("Market data farm connection is broken", Kind.MARKET_DATA_FARM_BROKEN)
+                .add("Market data farm connection is OK", Kind.MARKET_DATA_FARM_OK)
+                .add("HMDS data farm connection is broken", Kind.HMDS_FARM_BROKEN)
+                .add("HMDS data farm connection is OK", Kind.HMDS_FARM_OK)
+                .add("Connectivity between IB and Trader Workstation has been lost", Kind.CONNECTIVITY_LOST)
+                .add("Connectivity between IB and Trader Workstation has been restored - data lost", Kind.CONNECTIVITY_RESTORED_DATA_LOST)
+                .add("Connectivity between IB and Trader Workstation has been restored - data maintained", Kind.CONNECTIVITY_RESTORED_DATA_MAINTAINED)
+                .add("Accepted incoming connection", Kind.API_CLIENT_CONNECTED)
+                .add("API client disconnected", Kind.API_CLIENT_DISCONNECTED);
+        for (String entry : Settings.settings().getString("LogEventPatterns", "").split(";")) {
+            if (entry.trim().isEmpty()) continue;
+            int sep = entry.indexOf(':');
+            try {
+                if (sep < 1) throw new IllegalArgumentException("expected <kind>:<text>");
+                builder.add(entry.substring(sep + 1).trim(), Kind.valueOf(entry.substring(0, sep).trim().toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                Utils.logError("LogEventPatterns: ignoring '" + entry + "': " + e.getMessage());
+            }
+        }
+        mMatcher = builder.build();
+
+        for (String entry : Settings.settings().getString("LogEventActions", DEFAULT_ACTIONS).split(",")) {
+            if (entry.trim().isEmpty()) continue;
+            String[] parts = entry.split("=");
+            try {
+                if (parts.length != 2) throw new IllegalArgumentException("expected <kind>=<action>");
+                mActions.put(Kind.valueOf(parts[0].trim().toUpperCase()), Action.valueOf(parts[1].trim().toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                Utils.logError("LogEventActions: ignoring '" + entry + "': " + e.getMessage());
+            }
+        }
+        mDelay = Math.max(0, Settings.settings().getInt("LogEventReconnectDelay", 30));
+        mMinInterval = TimeUnit.SECONDS.toMillis(Math.max(0, Settings.settings().getInt("LogEventReconnectMinInterval", 300)));
+        Utils.logToConsole("Log event detection enabled: actions " + mActions);
+    }
+
+    /**
+     * Classifies new lines from the Gateway's log.
+     * @param text
+     * one or more complete lines
+     */
+    void processLines(String text) {
+        if (mMatcher == null) return;
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end < 0) end = text.length();
+            final String line = text.substring(start, end);
+            mMatcher.match(line, (kind, matchEnd) -> detected(kind, line, matchEnd));
+            start = end + 1;
+        }
+    }
+
+    private void detected(Kind kind, String line, int matchEnd) {
+        String farm = getFarm(line, matchEnd);
+        mCounts.get(kind).incrementAndGet();
+        Utils.logToConsole("Log event " + kind + (farm.isEmpty() ? "" : " farm=" + farm));
+        IbcEventBus.getInstance().publish(IbcEvent.Type.LOG_EVENT,
+                                          "kind=" + kind + (farm.isEmpty() ? "" : " farm=" + farm) + " line=" + IbcEvent.quote(line.trim()));
+
+        final String condition;
+        switch (kind) {
+            case MARKET_DATA_FARM_BROKEN:
+            case HMDS_FARM_BROKEN:
+                condition = kind + ":" + farm;
+                mBrokenFarms.add(condition);
+                break;
+            case MARKET_DATA_FARM_OK:
+                mBrokenFarms.remove(Kind.MARKET_DATA_FARM_BROKEN + ":" + farm);
+                condition = null;
+                break;
+            case HMDS_FARM_OK:
+                mBrokenFarms.remove(Kind.HMDS_FARM_BROKEN + ":" + farm);
+                condition = null;
+                break;
+            case CONNECTIVITY_LOST:
+                mConnectivityLost = true;
+                condition = null;
+                break;
+            case CONNECTIVITY_RESTORED_DATA_LOST:
+            case CONNECTIVITY_RESTORED_DATA_MAINTAINED:
+                mConnectivityLost = false;
+                condition = null;
+                break;
+            default:
+                condition = null;
+                break;
+        }
+
+        Action action = mActions.getOrDefault(kind, Action.NONE);
+        if (action == Action.NONE) return;
+        MyScheduledExecutorService.getInstance().schedule(
+                () -> takeAction(action, kind, condition),
+                mDelay,
+                TimeUnit.SECONDS);
+    }
+
+    /*
+     * The farm name follows the message, as in:
+     *      Market data farm connection is broken:usfarm
+     */
+    private static String getFarm(String line, int matchEnd) {
+        if (matchEnd >= line.length() || line.charAt(matchEnd) != ':') return "";
+        int end = matchEnd + 1;
+        while (end < line.length() && !Character.isWhitespace(line.charAt(end))) end++;
+        return line.substring(matchEnd + 1, end);
+    }
+
+    private void takeAction(Action action, Kind kind, String condition) {
+        if (condition != null && !mBrokenFarms.contains(condition)) {
+            Utils.logToConsole("Log event " + kind + ": " + condition + " has recovered: no action needed");
+            return;
+        }
+        if (mConnectivityLost) {
+            // TWS reconnects by itself, and reports whether data has been lost
+            Utils.logToConsole("Log event " + kind + ": connectivity is lost: not taking action " + action);
+            mActionsSkipped.incrementAndGet();
+            return;
+        }
+        if (LoginManager.loginManager().getLoginState() != LoginManager.LoginState.LOGGED_IN || StopTask.shutdownInProgress()) {
+            mActionsSkipped.incrementAndGet();
+            return;
+        }
+        synchronized (mLastActionTimes) {
+            long now = System.currentTimeMillis();
+            Long last = mLastActionTimes.get(action);
+            if (last != null && now - last < mMinInterval) {
+                Utils.logToConsole("Log event " + kind + ": " + action + " was taken " + (now - last) / 1000 + " seconds ago: not repeating it yet");
+                mActionsSkipped.incrementAndGet();
+                // a farm that is still broken is checked again once the interval has passed
+                if (condition != null) {
+                    MyScheduledExecutorService.getInstance().schedule(
+                            () -> takeAction(action, kind, condition),
+                            last + mMinInterval - now,
+                            TimeUnit.MILLISECONDS);
+                }
+                return;
+            }
+            mLastActionTimes.put(action, now);
+        }
+
+        Utils.logToConsole("Log event " + kind + (condition == null ? "" : " (" + condition + ")") + ": taking action " + action);
+        mActionsTaken.incrementAndGet();
+        GuiExecutor.instance().execute(EdtScheduler.Priority.LOGIN, () -> {
+            if (action == Action.RECONNECTDATA) {
+                CommandDispatcher.reconnectData();
+            } else {
+                CommandDispatcher.reconnectAccount();
+            }
+        });
+    }
+
+    String getStatistics() {
+        if (mMatcher == null) return "state=disabled";
+        StringBuilder sb = new StringBuilder();
+        for (Kind kind : Kind.values()) {
+            sb.append(kind.toString().toLowerCase()).append('=').append(mCounts.get(kind).get()).append(' ');
+        }
+        sb.append("brokenFarms=").append(IbcEvent.quote(String.join(",", mBrokenFarms))).append(' ')
+          .append("connectivityLost=").append(mConnectivityLost).append(' ')
+          .append("actionsTaken=").append(mActionsTaken.get()).append(' ')
+          .append("actionsSkipped=").append(mActionsSkipped.get());
+        return sb.toString();
+    }
+}
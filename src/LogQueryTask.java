@@ -0,0 +1,204 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Writes the lines in the LogStore for a range of time to a command channel.
+ *
+ * Command syntax:
+ *
+ *      LOG [from=<time>] [to=<time>] [grep=<regex>] [limit=<lines>]
+ *      LOG STATUS
+ *
+ * where a time is 'now', a period before now (such as -90s, -15m, -2h or -1d),
+ * a local date and time (such as 2024-03-01T09:30 or 2024-03-01T09:30:15), a
+ * local date (meaning its start), a local time today (such as 09:30), or
+ * milliseconds since the epoch. The defaults are from=-15m and to=now. A value
+ * containing spaces must be enclosed in double quotes.
+ *
+ * Each line found is written as:
+ *
+ *      LOG <yyyy-MM-dd HH:mm:ss:SSS> <source>: <text>
+ *
+ * followed by an OK reply giving the number of lines, and whether the limit
+ * (default and maximum LogQueryMaxLines, default 10000) cut the reply short.
+ */
+class LogQueryTask
+        implements Runnable {
+
+    private final CommandChannel mChannel;
+    private final String mArguments;
+
+    LogQueryTask(final CommandChannel channel, final String arguments) {
+        mChannel = channel;
+        mArguments = arguments.trim();
+    }
+
+    @Override
+    public void run() {
+        LogStore store = LogStore.getInstance();
+        if (!store.isAvailable()) {
+            mChannel.writeNack("the log store is not enabled");
+            return;
+        }
+        if (mArguments.equalsIgnoreCase("STATUS")) {
+            mChannel.writeAck(store.getStatus());
+            return;
+        }
+
+        final int maxLines = Math.max(1, Settings.settings().getInt("LogQueryMaxLines", 10000));
+        long now = System.currentTimeMillis();
+        long from = now - TimeUnit.MINUTES.toMillis(15);
+        long to = now;
+        Pattern pattern = null;
+        int limit = maxLines;
+        try {
+            for (String argument : splitArguments(mArguments)) {
+                int sep = argument.indexOf('=');
+                if (sep < 1) throw new IllegalArgumentException("expected <name>=<value>: " + argument);
+                String name = argument.substring(0, sep).toLowerCase();
+                String value = argument.substring(sep + 1);
+                switch (name) {
+                    case "from":
+                        from = parseTime(value, now);
+                        break;
+                    case "to":
+                        to = parseTime(value, now);
+                        break;
+                    case "grep":
+                        pattern = value.isEmpty() ? null : Pattern.compile(value);
+                        break;
+                    case "limit":
+                        limit = Math.min(maxLines, Integer.parseInt(value));
+                        if (limit <= 0) throw new IllegalArgumentException("limit must be positive");
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown argument: " + name);
+                }
+            }
+        } catch (PatternSyntaxException e) {
+            mChannel.writeNack("invalid grep pattern: " + e.getDescription());
+            return;
+        } catch (IllegalArgumentException e) {
+            mChannel.writeNack(e.getMessage());
+            return;
+        }
+        if (from > to) {
+            mChannel.writeNack("from is later than to");
+            return;
+        }
+
+        final int maxCount = limit;
+        final int[] count = new int[1];
+        final boolean[] truncated = new boolean[1];
+        final boolean[] disconnected = new boolean[1];
+        try {
+            store.query(from, to, pattern, (time, line) -> {
+                if (count[0] == maxCount) {
+                    truncated[0] = true;
+                    return false;
+                }
+                if (Thread.currentThread().isInterrupted()) return false;
+                if (!mChannel.writeLine("LOG " + LogStore.formatTime(time) + " " + line)) {
+                    disconnected[0] = true;
+                    return false;
+                }
+                count[0]++;
+                return true;
+            });
+        } catch (IOException e) {
+            mChannel.writeNack("can't read the log store: " + e.getMessage());
+            return;
+        }
+        if (disconnected[0]) return;
+        mChannel.writeAck("lines=" + count[0] + " truncated=" + truncated[0]);
+    }
+
+    /*
+     * Splits the arguments at whitespace, except within double quotes.
+     */
+    private static List<String> splitArguments(String arguments) {
+        List<String> result = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        boolean inArgument = false;
+        for (int i = 0; i < arguments.length(); i++) {
+            char c = arguments.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+                inArgument = true;
+            } else if (c == '\\' && quoted && i + 1 < arguments.length()) {
+                current.append(arguments.charAt(++i));
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (inArgument) result.add(current.toString());
+                current.setLength(0);
+                inArgument = false;
+            } else {
+                current.append(c);
+                inArgument = true;
+            }
+        }
+        if (quoted) throw new IllegalArgumentException("unterminated quotes");
+        if (inArgument) result.add(current.toString());
+        return result;
+    }
+
+    private static long parseTime(String value, long now) throws IllegalArgumentException {
+        if (value.equalsIgnoreCase("now")) return now;
+        try {
+            if (value.startsWith("-") && value.length() > 2) {
+                long amount = Long.parseLong(value.substring(1, value.length() - 1));
+                switch (Character.toLowerCase(value.charAt(value.length() - 1))) {
+                    case 's': return now - TimeUnit.SECONDS.toMillis(amount);
+                    case 'm': return now - TimeUnit.MINUTES.toMillis(amount);
+                    case 'h': return now - TimeUnit.HOURS.toMillis(amount);
+                    case 'd': return now - TimeUnit.DAYS.toMillis(amount);
+                    default: break;
+                }
+            } else if (value.matches("\\d+")) {
+                return Long.parseLong(value);
+            } else if (value.contains("T")) {
+                return toMillis(LocalDateTime.parse(value));
+            } else if (value.contains("-")) {
+                return toMillis(LocalDate.parse(value).atStartOfDay());
+            } else if (value.contains(":")) {
+                return toMillis(LocalDate.now().atTime(LocalTime.parse(value)));
+            }
+        } catch (NumberFormatException | DateTimeParseException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("invalid time: " + value);
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,385 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps a copy of IBC's console output, and of the Gateway log lines read by
+ * the MainLogReader, in a directory of segment files that can be searched by
+ * time without reading them from the start.
+ *
+ * This is enabled by the LogStore setting, which names the directory (relative
+ * to the TWS settings directory unless absolute). Each segment is a text file
+ * named segment-<time of its first line>.log, in which every line has the form:
+ *
+ *      <milliseconds since the epoch> <source>: <text>
+ *
+ * The times are those at which IBC captured the lines, and never decrease, so
+ * that a segment's lines all precede the next segment's first line. A new
+ * segment is started when the current one reaches LogStoreSegmentSize
+ * megabytes (default 16), and the oldest is deleted when there are more than
+ * LogStoreMaxSegments (default 32).
+ *
+ * Alongside each segment is a sparse index (segment-<time>.idx) of 16-byte
+ * big-endian (time, offset) pairs, one for the first line at or after every
+ * INDEX_INTERVAL bytes. A query therefore maps only the segments that overlap
+ * the requested range, starting each at the last indexed line before the
+ * range, and stops at the first line after it: its cost depends on the size of
+ * the range rather than the size of the store.
+ *
+ * Lines logged before the store is initialised are held (up to
+ * MAX_PENDING_LINES) and written when it is.
+ */
+class LogStore {
+
+    /**
+     * Receives the lines found by a query.
+     */
+    interface LineHandler {
+        /**
+         * @param time
+         * the time the line was captured (milliseconds since the epoch)
+         * @param line
+         * the line, in the form '<source>: <text>'
+         * @return
+         * false if no more lines are wanted
+         */
+        boolean onLine(long time, String line);
+    }
+
+    // the segment and index names are matched by SettingsSnapshotStore's
+    // default exclusions
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final int INDEX_ENTRY_SIZE = 16;
+    private static final int INDEX_INTERVAL = 64 * 1024;
+    private static final int MAX_PENDING_LINES = 5000;
+
+    private static final LogStore instance = new LogStore();
+
+    static LogStore getInstance() {
+        return instance;
+    }
+
+    private static final class PendingLine {
+        final long time;
+        final String source;
+        final String text;
+
+        PendingLine(long time, String source, String text) {
+            this.time = time;
+            this.source = source;
+            this.text = text;
+        }
+    }
+
+    // only assigned while holding this, but read without it to make
+    // append() cheap when the store is disabled
+    private volatile Deque<PendingLine> mPending = new ArrayDeque<>();
+    private volatile File mDirectory;
+
+    // guarded by this
+    private long mSegmentSize;
+    private int mMaxSegments;
+    private FileChannel mSegment;
+    private FileChannel mIndex;
+    private long mSegmentLength;
+    private long mNextIndexOffset;
+    private long mLastTime;
+    private final ByteBuffer mIndexEntry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+
+    private LogStore() {}
+
+    /**
+     * Opens the store, if one is required, and writes any lines logged so far.
+     * @param settingsDirectory
+     * the TWS settings directory
+     */
+    synchronized void initialise(String settingsDirectory) {
+        if (mPending == null) return;
+        Deque<PendingLine> pending = mPending;
+        mPending = null;
+
+        String name = Settings.settings().getString("LogStore", "");
+        if (name.isEmpty()) return;
+        File directory = new File(name);
+        if (!directory.isAbsolute()) directory = new File(settingsDirectory, name);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Utils.logError("Can't create log store directory " + directory);
+            return;
+        }
+        mDirectory = directory;
+        mSegmentSize = Math.max(1, Math.min(1024, Settings.settings().getInt("LogStoreSegmentSize", 16))) * 1024L * 1024L;
+        mMaxSegments = Math.max(1, Settings.settings().getInt("LogStoreMaxSegments", 32));
+
+        // a previous run's segments are kept, and this run's times follow theirs
+        long[] starts = listSegments(directory);
+        if (starts.length != 0) mLastTime = starts[starts.length - 1];
+
+        for (PendingLine line : pending) write(line.time, line.source, line.text);
+        Utils.logToConsole("Log store is " + directory);
+    }
+
+    boolean isAvailable() {
+        return mDirectory != null;
+    }
+
+    /**
+     * Stores one or more lines.
+     * @param source
+     * identifies where the lines came from (for example IBC or GATEWAY)
+     * @param text
+     * the lines, separated by newlines
+     */
+    void append(String source, String text) {
+        if (mDirectory == null && mPending == null) return;
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            for (String line : text.split("\r?\n")) {
+                if (line.isEmpty()) continue;
+                if (mPending != null) {
+                    if (mPending.size() == MAX_PENDING_LINES) mPending.removeFirst();
+                    mPending.add(new PendingLine(now, source, line));
+                } else if (mDirectory != null) {
+                    write(now, source, line);
+                }
+            }
+        }
+    }
+
+    void appendException(String source, Throwable t) {
+        if (mDirectory == null && mPending == null) return;
+        StringWriter s = new StringWriter();
+        t.printStackTrace(new PrintWriter(s));
+        append(source, s.toString());
+    }
+
+    // guarded by this
+    private void write(long time, String source, String text) {
+        time = Math.max(time, mLastTime);
+        byte[] bytes = (time + " " + source + ": " + text.replace('\r', ' ') + "\n").getBytes(StandardCharsets.UTF_8);
+        try {
+            if (mSegment != null && mSegmentLength + bytes.length > mSegmentSize && mSegmentLength != 0) closeSegment();
+            if (mSegment == null) openSegment(time);
+            if (mSegmentLength >= mNextIndexOffset) {
+                mIndexEntry.clear();
+                mIndexEntry.putLong(time).putLong(mSegmentLength).flip();
+                while (mIndexEntry.hasRemaining()) mIndex.write(mIndexEntry);
+                mNextIndexOffset = mSegmentLength + INDEX_INTERVAL;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) mSegment.write(buffer);
+            mSegmentLength += bytes.length;
+            mLastTime = time;
+        } catch (IOException e) {
+            // disable the store before reporting, since the report is itself logged
+            File directory = mDirectory;
+            mDirectory = null;
+            closeSegment();
+            Utils.logError("Can't write to log store " + directory + ": " + e.getMessage() + ": log store disabled");
+        }
+    }
+
+    // guarded by this
+    private void openSegment(long time) throws IOException {
+        // segment names must sort in time order, and be unique
+        File segment;
+        while ((segment = segmentFile(mDirectory, time)).exists()) time++;
+        mSegment = FileChannel.open(segment.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        mIndex = FileChannel.open(indexFile(mDirectory, time).toPath(),
+                                  StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        mSegmentLength = 0;
+        mNextIndexOffset = 0;
+        mLastTime = time;
+
+        long[] starts = listSegments(mDirectory);
+        for (int i = 0; i < starts.length - mMaxSegments; i++) {
+            segmentFile(mDirectory, starts[i]).delete();
+            indexFile(mDirectory, starts[i]).delete();
+        }
+    }
+
+    // guarded by this
+    private void closeSegment() {
+        try {
+            if (mSegment != null) mSegment.close();
+            if (mIndex != null) mIndex.close();
+        } catch (IOException e) {
+            // nothing more can be written to it anyway
+        }
+        mSegment = null;
+        mIndex = null;
+    }
+
+    /**
+     * Finds the stored lines in a time range that match a pattern, in time
+     * order.
+     * @param from
+     * the start of the range (milliseconds since the epoch, inclusive)
+     * @param to
+     * the end of the range (inclusive)
+     * @param pattern
+     * lines that do not contain a match for this pattern are skipped; may be
+     * null
+     * @param handler
+     * receives each line found
+     * @throws IOException
+     * if a segment can't be read
+     */
+    void query(long from, long to, Pattern pattern, LineHandler handler) throws IOException {
+        File directory = mDirectory;
+        if (directory == null) throw new IOException("the log store is not enabled");
+
+        long[] starts = listSegments(directory);
+        for (int i = 0; i < starts.length; i++) {
+            if (starts[i] > to) break;
+            // a segment's lines precede the next segment's first line
+            if (i + 1 < starts.length && starts[i + 1] < from) continue;
+            try {
+                if (!scanSegment(directory, starts[i], from, to, pattern, handler)) return;
+            } catch (IOException e) {
+                // the segment may have been deleted since the directory was listed
+                if (segmentFile(directory, starts[i]).exists()) throw e;
+            }
+        }
+    }
+
+    private static boolean scanSegment(File directory, long start, long from, long to, Pattern pattern, LineHandler handler) throws IOException {
+        long offset = findOffset(indexFile(directory, start), from);
+        MappedByteBuffer map;
+        try (FileChannel channel = FileChannel.open(segmentFile(directory, start).toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (offset >= size) return true;
+            map = channel.map(FileChannel.MapMode.READ_ONLY, offset, size - offset);
+        }
+
+        int limit = map.limit();
+        int position = 0;
+        while (position < limit) {
+            int lineEnd = position;
+            while (lineEnd < limit && map.get(lineEnd) != '\n') lineEnd++;
+            // the last line may still be being written
+            if (lineEnd == limit) break;
+
+            long time = 0;
+            int textStart = position;
+            byte b;
+            while (textStart < lineEnd && (b = map.get(textStart)) >= '0' && b <= '9') {
+                time = time * 10 + (b - '0');
+                textStart++;
+            }
+            if (time > to) return false;
+            if (time >= from && textStart < lineEnd) {
+                byte[] bytes = new byte[lineEnd - textStart - 1];
+                map.get(textStart + 1, bytes);
+                String line = new String(bytes, StandardCharsets.UTF_8);
+                if ((pattern == null || pattern.matcher(line).find()) && !handler.onLine(time, line)) return false;
+            }
+            position = lineEnd + 1;
+        }
+        return true;
+    }
+
+    /*
+     * Returns the offset of the last indexed line before the given time, or 0
+     * if there is none.
+     */
+    private static long findOffset(File index, long time) throws IOException {
+        if (!index.exists()) return 0;
+        try (FileChannel channel = FileChannel.open(index.toPath(), StandardOpenOption.READ)) {
+            // ignore an entry that is still being written
+            int entries = (int) (channel.size() / INDEX_ENTRY_SIZE);
+            if (entries == 0) return 0;
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, (long) entries * INDEX_ENTRY_SIZE);
+            int low = 0;
+            int high = entries - 1;
+            long offset = 0;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (map.getLong(mid * INDEX_ENTRY_SIZE) < time) {
+                    offset = map.getLong(mid * INDEX_ENTRY_SIZE + 8);
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return offset;
+        }
+    }
+
+    private static long[] listSegments(File directory) {
+        String[] names = directory.list();
+        if (names == null) return new long[0];
+        List<Long> starts = new ArrayList<>();
+        for (String name : names) {
+            if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) continue;
+            try {
+                starts.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+            } catch (NumberFormatException e) {
+                // not one of ours
+            }
+        }
+        long[] result = starts.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(result);
+        return result;
+    }
+
+    private static File segmentFile(File directory, long start) {
+        return new File(directory, SEGMENT_PREFIX + start + SEGMENT_SUFFIX);
+    }
+
+    private static File indexFile(File directory, long start) {
+        return new File(directory, SEGMENT_PREFIX + start + INDEX_SUFFIX);
+    }
+
+    static String formatTime(long time) {
+        return Utils.formatDate(LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault()));
+    }
+
+    String getStatus() {
+        File directory = mDirectory;
+        if (directory == null) return "state=disabled";
+        long[] starts = listSegments(directory);
+        long bytes = 0;
+        for (long start : starts) bytes += segmentFile(directory, start).length();
+        return "directory=" + IbcEvent.quote(directory.getPath()) +
+                " segments=" + starts.length +
+                " bytes=" + bytes +
+                (starts.length == 0 ? "" : " oldest=" + IbcEvent.quote(formatTime(starts[0])));
+    }
+}
@@ -83,7 +83,7 @@ final class LoginFrameHandler extends AbstractLoginHandler {
 
                         // we defer setting the checkbox: if we do it inline, TWS's setting 
                         // overwrites it
-                        GuiDeferredExecutor.instance().execute(() -> {
+                        GuiDeferredExecutor.instance().execute(EdtScheduler.Priority.LOGIN, () -> {
                             boolean storeSettingsOnServer = Settings.settings().getBoolean("StoreSettingsOnServer", false);
                             if (! SwingUtils.setCheckBoxSelected(
                                     window,
@@ -72,15 +72,24 @@ public abstract class LoginManager {
         loginFrame = window;
     }
     
-    private volatile LoginState loginState = LoginState.LOGGED_OUT;
     public LoginState getLoginState() {
-        return loginState;
+        return SessionStateMachine.getInstance().getState();
     }
 
     public void setLoginState(LoginState state) {
-        if (state == loginState) return;
-        loginState = state;
-        if (null != loginState) switch (loginState) {
+        final SessionStateMachine.Transition transition = SessionStateMachine.getInstance().transition(state);
+        // only the thread that made the transition performs its side effects
+        if (transition == null) return;
+        final LoginState previousState = transition.getPrevious();
+        // the snapshot always reflects the latest transition, even if another
+        // thread's transition overtakes this one
+        IbcStatus.update(s -> {
+            SessionStateMachine.Transition latest = SessionStateMachine.getInstance().current();
+            return s.withLoginState(latest.getState(), latest.getTime());
+        });
+        IbcEventBus.getInstance().publish(IbcEvent.Type.LOGIN_STATE, "state=" + state + " previous=" + previousState);
+        JfrEvents.loginStateChanged(previousState, state);
+        switch (state) {
             case TWO_FA_IN_PROGRESS:
                 Utils.logToConsole("Second Factor Authentication initiated");
                 if (LoginStartTime == null) LoginStartTime = Instant.now();
@@ -89,18 +98,22 @@ public abstract class LoginManager {
                 if (LoginStartTime == null) LoginStartTime = Instant.now();
                 break;
             case LOGGED_IN:
-                Utils.logToConsole("Login has completed");
-                if (shutdownAfterTimeTask != null) {
-                    shutdownAfterTimeTask.cancel(false);
-                    shutdownAfterTimeTask = null;
-                }   break;
+                long loginStarted = Math.max(transition.getEnteredTime(LoginState.AWAITING_CREDENTIALS),
+                                             transition.getEnteredTime(LoginState.LOGGING_IN));
+                Utils.logToConsole("Login has completed" +
+                                   (loginStarted == 0 ? "" : " after " + (transition.getTime() - loginStarted) + " milliseconds"));
+                LoginRetryScheduler.getInstance().recordSuccess();
+                RestartCoordinator.getInstance().releaseStartupLock("login completed");
+                ApiProxy.getInstance().start();
+                ApiProbe.getInstance().start();
+                HeapMonitor.getInstance().start();
+                break;
             default:
                 break;
         }
     }
 
     private Instant LoginStartTime;
-    private ScheduledFuture<?> shutdownAfterTimeTask;
 
     void secondFactorAuthenticationDialogClosed() {
         if (LoginStartTime == null) {
@@ -146,13 +159,12 @@ public abstract class LoginManager {
         }
         
         // The 2FA prompt hasn't been handled by the user, so we re-initiate the login
-        // sequence after a short delay
-        Utils.logToConsole("Re-login after second factor authentication timeout in 5 second");
-        MyScheduledExecutorService.getInstance().schedule(() -> {
-            GuiDeferredExecutor.instance().execute(
-                () -> {getLoginHandler().initiateLogin(getLoginFrame());}
-            );
-        }, 5, TimeUnit.SECONDS);
+        // sequence after a delay of at least 5 seconds
+        LoginRetryScheduler.getInstance().runAfterBackoff(
+                "re-login after second factor authentication timeout",
+                true,
+                5000,
+                () -> {getLoginHandler().initiateLogin(getLoginFrame());});
     }
     
     private boolean reloginPermitted() {
@@ -167,8 +179,8 @@ public abstract class LoginManager {
     
     void restartAfterTime(final int secondsTillShutdown, final String message) {
         try {
-            shutdownAfterTimeTask = MyScheduledExecutorService.getInstance().schedule(()->{
-                GuiExecutor.instance().execute(()->{
+            final ScheduledFuture<?> shutdownAfterTimeTask = MyScheduledExecutorService.getInstance().schedule(()->{
+                GuiExecutor.instance().execute(EdtScheduler.Priority.LOGIN, ()->{
                     if (getLoginState() == LoginManager.LoginState.LOGGED_IN) {
                         Utils.logToConsole("Login has already completed - no need for IBC to exit");
                         return;
@@ -176,6 +188,7 @@ public abstract class LoginManager {
                     Utils.exitWithError(ErrorCodes.SECOND_FACTOR_AUTH_LOGIN_TIMED_OUT, message);
                 });
             }, secondsTillShutdown, TimeUnit.SECONDS);
+            SessionStateMachine.getInstance().onState(LoginState.LOGGED_IN).thenRun(() -> shutdownAfterTimeTask.cancel(false));
         } catch (Throwable e) {
             Utils.exitWithException(99999, e);
         }
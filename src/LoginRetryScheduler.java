@@ -0,0 +1,256 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import javax.swing.SwingUtilities;
+
+/**
+ * Spaces out login attempts after failures, so that when IB's servers have a
+ * problem, the many Gateways and TWSs that fail to log in at the same moment
+ * don't all retry at the same moments too.
+ *
+ * The delay before a login attempt depends on the number of attempts made
+ * since the last successful login, using exponential backoff with
+ * 'decorrelated jitter': each delay is chosen at random between
+ * LoginRetryBaseDelay (in seconds, default 10) and three times the previous
+ * delay, but never more than LoginRetryMaxDelay (default 600). The delay is
+ * measured from the previous attempt, and is never less than any wait that
+ * TWS itself asks for. The first login of a session is made immediately if the
+ * previous one succeeded, but the first retry after a disconnection (such as
+ * the Re-login dialog) is made after a random delay of up to
+ * LoginRetryBaseDelay, since every instance sees the disconnection at once.
+ *
+ * Attempts, delays and successes are recorded in LoginRetryHistoryFile
+ * (default ibc-login-history.txt in the TWS settings directory), so the backoff
+ * continues across the cold restarts that IBC does after a login failure, and
+ * across exits when login doesn't complete. Entries older than
+ * LoginRetryHistoryHours (default 6) are ignored.
+ */
+class LoginRetryScheduler {
+
+    private static final LoginRetryScheduler instance = new LoginRetryScheduler();
+
+    static LoginRetryScheduler getInstance() {
+        return instance;
+    }
+
+    private static final int MAX_HISTORY_ENTRIES = 200;
+
+    private enum Kind {
+        ATTEMPT,
+        DELAY,
+        SUCCESS
+    }
+
+    private static final class HistoryEntry {
+        final long time;
+        final Kind kind;
+        final long value;
+        final String detail;
+
+        HistoryEntry(long time, Kind kind, long value, String detail) {
+            this.time = time;
+            this.kind = kind;
+            this.value = value;
+            this.detail = detail;
+        }
+
+        String toLine() {
+            return time + " " + kind + " " + value + " " + detail;
+        }
+
+        static HistoryEntry fromLine(String line) {
+            String[] fields = line.split(" ", 4);
+            return new HistoryEntry(Long.parseLong(fields[0]), Kind.valueOf(fields[1]), Long.parseLong(fields[2]), fields.length > 3 ? fields[3] : "");
+        }
+    }
+
+    private List<HistoryEntry> mHistory;
+    private Path mHistoryFile;
+    private long mBaseDelay;
+    private long mMaxDelay;
+    private long mHistoryPeriod;
+
+    private LoginRetryScheduler() {}
+
+    private void loadIfRequired() {
+        if (mHistory != null) return;
+
+        mBaseDelay = TimeUnit.SECONDS.toMillis(Math.max(1, Settings.settings().getInt("LoginRetryBaseDelay", 10)));
+        mMaxDelay = Math.max(mBaseDelay, TimeUnit.SECONDS.toMillis(Settings.settings().getInt("LoginRetryMaxDelay", 600)));
+        mHistoryPeriod = TimeUnit.HOURS.toMillis(Math.max(1, Settings.settings().getInt("LoginRetryHistoryHours", 6)));
+        mHistoryFile = Paths.get(Settings.settings().getString("LoginRetryHistoryFile",
+                Paths.get(Settings.settings().getString("IbDir", System.getProperty("user.dir")), "ibc-login-history.txt").toString()));
+
+        mHistory = new ArrayList<>();
+        try {
+            for (String line : Files.readAllLines(mHistoryFile, StandardCharsets.UTF_8)) {
+                try {
+                    mHistory.add(HistoryEntry.fromLine(line));
+                } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                    // ignore a damaged line
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // no history yet
+        } catch (IOException e) {
+            Utils.logError("Can't read login history from " + mHistoryFile + ": " + e.getMessage());
+        }
+        discardOldHistory();
+        if (getFailedAttempts() != 0) {
+            Utils.logToConsole("Login history: " + getFailedAttempts() + " attempts since the last successful login");
+        }
+    }
+
+    private void discardOldHistory() {
+        long cutoff = System.currentTimeMillis() - mHistoryPeriod;
+        mHistory.removeIf(e -> e.time < cutoff);
+        // only the entries since the last success affect the backoff
+        for (int i = mHistory.size() - 1; i > 0; i--) {
+            if (mHistory.get(i).kind == Kind.SUCCESS) {
+                mHistory.subList(0, i).clear();
+                break;
+            }
+        }
+        if (mHistory.size() > MAX_HISTORY_ENTRIES) mHistory.subList(0, mHistory.size() - MAX_HISTORY_ENTRIES).clear();
+    }
+
+    private void record(Kind kind, long value, String detail) {
+        mHistory.add(new HistoryEntry(System.currentTimeMillis(), kind, value, detail));
+        discardOldHistory();
+
+        List<String> lines = new ArrayList<>();
+        for (HistoryEntry e : mHistory) lines.add(e.toLine());
+        try {
+            Path temp = Files.createTempFile(mHistoryFile.toAbsolutePath().getParent(), "ibc-login-history", ".tmp");
+            Files.write(temp, lines, StandardCharsets.UTF_8);
+            Files.move(temp, mHistoryFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Utils.logError("Can't write login history to " + mHistoryFile + ": " + e.getMessage());
+        }
+    }
+
+    private int getFailedAttempts() {
+        int count = 0;
+        for (HistoryEntry e : mHistory) {
+            if (e.kind == Kind.SUCCESS) count = 0;
+            if (e.kind == Kind.ATTEMPT) count++;
+        }
+        return count;
+    }
+
+    private HistoryEntry getLast(Kind kind) {
+        for (int i = mHistory.size() - 1; i >= 0; i--) {
+            if (mHistory.get(i).kind == Kind.SUCCESS) return null;
+            if (mHistory.get(i).kind == kind) return mHistory.get(i);
+        }
+        return null;
+    }
+
+    /**
+     * Records that a login attempt is being made.
+     * @param attemptNumber
+     * the number of the attempt within this session
+     * @param description
+     * the kind of attempt, for the history
+     */
+    synchronized void recordAttempt(int attemptNumber, String description) {
+        loadIfRequired();
+        record(Kind.ATTEMPT, attemptNumber, description);
+        StatusFile.getInstance().loginAttempted();
+    }
+
+    synchronized void recordSuccess() {
+        loadIfRequired();
+        if (getFailedAttempts() == 0 && !mHistory.isEmpty()) return;
+        record(Kind.SUCCESS, 0, "");
+    }
+
+    /*
+     * Returns the time to wait before the next attempt, measured from now.
+     */
+    private long chooseDelay(boolean isRetry, long minimumDelay) {
+        int failedAttempts = getFailedAttempts();
+        long delay;
+        if (failedAttempts == 0) {
+            delay = isRetry ? ThreadLocalRandom.current().nextLong(mBaseDelay + 1) : 0;
+        } else {
+            // decorrelated jitter: delay = min(cap, random(base, 3 * previous delay))
+            HistoryEntry previous = getLast(Kind.DELAY);
+            long previousDelay = previous == null ? mBaseDelay : Math.max(mBaseDelay, previous.value);
+            delay = Math.min(mMaxDelay, ThreadLocalRandom.current().nextLong(mBaseDelay, 3 * previousDelay + 1));
+            record(Kind.DELAY, delay, "after attempt " + failedAttempts);
+
+            // the time since the last attempt (possibly in a previous process) counts towards the delay
+            HistoryEntry lastAttempt = getLast(Kind.ATTEMPT);
+            if (lastAttempt != null) delay -= System.currentTimeMillis() - lastAttempt.time;
+        }
+        return Math.max(delay, minimumDelay);
+    }
+
+    /**
+     * Runs a login action once the backoff delay has elapsed.
+     * @param description
+     * what the action does, for logging
+     * @param isRetry
+     * true if the action retries a login that has been interrupted or has
+     * failed, rather than performing the initial login of a session
+     * @param minimumDelay
+     * the minimum delay in milliseconds, for example as required by TWS
+     * @param action
+     * the action: it is run on the Swing event dispatch thread
+     */
+    void runAfterBackoff(String description, boolean isRetry, long minimumDelay, Runnable action) {
+        long delay;
+        int failedAttempts;
+        synchronized (this) {
+            loadIfRequired();
+            delay = chooseDelay(isRetry, minimumDelay);
+            failedAttempts = getFailedAttempts();
+        }
+
+        if (delay <= 0) {
+            if (SwingUtilities.isEventDispatchThread()) {
+                action.run();
+            } else {
+                GuiDeferredExecutor.instance().execute(EdtScheduler.Priority.LOGIN, action);
+            }
+            return;
+        }
+        Utils.logToConsole("Will " + description + " at " +
+                Utils.formatDate(LocalDateTime.now().plus(Duration.ofMillis(delay))) +
+                " (" + failedAttempts + " attempts since last successful login)");
+        MyScheduledExecutorService.getInstance().schedule(() -> {
+            GuiDeferredExecutor.instance().execute(EdtScheduler.Priority.LOGIN, action);
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+}
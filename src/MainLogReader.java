@@ -9,38 +9,90 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.JPanel;
 import javax.swing.JTabbedPane;
 import javax.swing.JTextArea;
 import javax.swing.JViewport;
-import javax.swing.SwingUtilities;
-import javax.swing.text.JTextComponent;
-
-import ibcalpha.ibc.Settings;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
 
+/**
+ * Copies the Gateway's log, as shown in its main window, to a file, and stops
+ * the log's text area growing without limit.
+ *
+ * This is enabled by the PersistGatewayLog setting. Every INTERVAL
+ * milliseconds, the lines added to the text area since the last
+ * check are appended to the log file (IbDir/ibg.log). Only then, once they are
+ * safely on disk, is the start of the text area's document removed if it holds
+ * more than GatewayLogMaxLines lines (default 5000) or GatewayLogMaxChars
+ * characters (default 1000000). Trimming removes whole lines from the start of
+ * the document until it is at TRIM_TARGET_PERCENT of the limit, so that the
+ * cost of each removal is spread over many appended lines.
+ *
+ * The log file therefore remains complete, while the Gateway's heap usage and
+ * the cost of laying out its log no longer grow with the length of the session.
+ *
+ * If the LogEventDetection setting is enabled, each batch of new lines is also
+ * passed to the LogEventDetector, and if the LogStore setting is enabled it is
+ * added to the LogStore (in both cases after it has been written to the log
+ * file, if PersistGatewayLog is enabled too).
+ *
+ * The reader has its own thread, because each pass waits for its work on the
+ * event dispatch thread, which is queued behind IBC's other work there: so a
+ * busy event dispatch thread delays only the reading of the log, and not
+ * IBC's other scheduled tasks.
+ */
 public class MainLogReader {
     private String logfile;
-    private JTextArea logTextArea;
-    private int lastLineRead = 0;
+    private volatile JTextArea logTextArea;
+    private Document document;
+    // the document offset up to which text has been processed (and written
+    // to the log file, if it is being persisted)
+    private int persistedOffset;
+    private boolean persist;
+    private int maxLines;
+    private int maxChars;
     private static final int LINE_LENGTH = 1000;
     private static final int INTERVAL = 2500;
+    private static final int TRIM_TARGET_PERCENT = 75;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "MainLogReader");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public void initialize() {
         logTextArea = null;
         logfile = Settings.settings().getString("IbDir", System.getProperty("user.dir")) + "/ibg.log";
+        maxLines = Settings.settings().getInt("GatewayLogMaxLines", 5000);
+        maxChars = Settings.settings().getInt("GatewayLogMaxChars", 1000000);
+        persist = Settings.settings().getBoolean("PersistGatewayLog", false);
+        if (!persist) {
+            // the lines are only read for the LogEventDetector and LogStore,
+            // and the text area is left as the Gateway manages it
+            maxLines = 0;
+            maxChars = 0;
+            start();
+            return;
+        }
 
         File file = new File(logfile);
         if (!file.exists()) {
             try {
-                System.out.println("\n\n[DEBUG] ----- Creating log file: " + logfile + "  ------\n\n");
+                Utils.logToConsole("Creating Gateway log file: " + logfile);
                 file.createNewFile();
             } catch (IOException e) {
-                System.err.println("Debug: Error creating log file: " + e.getMessage());
-                e.printStackTrace();
+                Utils.logError("Can't create Gateway log file: " + e.getMessage());
+                return;
             }
         }
 
@@ -48,60 +100,128 @@ public class MainLogReader {
     }
 
     private void start() {
-        Timer timer = new Timer();
-        timer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
+        executor.scheduleWithFixedDelay(() -> {
+            try {
                 if (logTextArea == null) {
-                    System.out.println("\n\n[DEBUG] ----- Looking for text area... ------\n\n");
                     findLogTextArea();
                 } else {
-                    readAndAppendLog();
+                    persistAndTrimLog();
                 }
+            } catch (Throwable t) {
+                // don't let an unexpected failure cancel the schedule
+                Utils.logException(t);
             }
-        }, 0, INTERVAL);
+        }, 0, INTERVAL, TimeUnit.MILLISECONDS);
     }
 
     private void findLogTextArea() {
-        for (Window window : Window.getWindows()) {
-            // if ("ibgateway.aC".equals(window.getClass().getName())) {
-            if (true) {
-                System.out.println("<<<<< Looking into window " + window.getClass().getName() + " ... >>>>>");
-                logTextArea = findLogTextArea(window);
-                if (logTextArea != null) {
-                    System.out.println("\n\n[DEBUG] ----- Found logTextArea: " + logTextArea + "  ------\n\n");
-                    break;
-                }
-                else {
-                    System.out.println("\n\n[DEBUG] ----- DID NOT FIND logTextArea: " + logTextArea + "  ------\n\n");
-                    listOpenWindows();
-                    System.out.println("\n\n[DEBUG] ----- --------------------------------------  ------\n\n");
-                }
+        JTextArea textArea = onEventDispatchThread(() -> {
+            for (Window window : Window.getWindows()) {
+                JTextArea result = findLogTextArea(window);
+                if (result != null) return result;
             }
-        }
+            return null;
+        });
+        if (textArea == null) return;
+        Utils.logToConsole("Found Gateway log text area: " + (persist ? "copying log to " + logfile : "reading log") +
+                (isTrimmingEnabled() ? "; keeping at most " + maxLines + " lines and " + maxChars + " characters in the window" : ""));
+        logTextArea = textArea;
     }
 
-    private void readAndAppendLog() {
-        if (logTextArea == null) {
-            return;
-        }
+    private boolean isTrimmingEnabled() {
+        return maxLines > 0 || maxChars > 0;
+    }
 
-        String[] lines = logTextArea.getText().split("\n");
+    private void persistAndTrimLog() {
+        // only complete lines are taken, so a line that is still being
+        // appended to is left for the next time
+        String text = onEventDispatchThread(this::getUnpersistedLines);
+        if (text == null || text.isEmpty()) return;
 
+        if (persist && !writeLines(text)) return;
+        LogEventDetector.getInstance().processLines(text);
+        LogStore.getInstance().append("GATEWAY", text);
+
+        onEventDispatchThread(() -> {
+            // the Gateway only ever appends to its log, unless it clears it
+            if (document == logTextArea.getDocument() && document.getLength() >= persistedOffset + text.length()) {
+                persistedOffset += text.length();
+                if (isTrimmingEnabled()) trimDocument();
+            }
+            return null;
+        });
+    }
+
+    private boolean writeLines(String text) {
         try (BufferedWriter writer = new BufferedWriter(new FileWriter(logfile, true))) {
-            for (int i = lastLineRead; i < lines.length; i++) {
-                String line = lines[i];
+            for (String line : text.split("\n")) {
                 if (line.length() > LINE_LENGTH) {
                     line = line.substring(0, LINE_LENGTH) + " < ... (truncated) ... >";
                 }
                 writer.write(line);
                 writer.newLine();
             }
-            lastLineRead = lines.length;
+            return true;
         } catch (IOException e) {
-            System.err.println("Debug: Error writing to log file: " + e.getMessage());
-            e.printStackTrace();
+            // the same lines will be retried next time, and nothing is trimmed
+            // until they have been written
+            Utils.logError("Can't write to Gateway log file: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private String getUnpersistedLines() throws BadLocationException {
+        Document doc = logTextArea.getDocument();
+        if (doc != document || doc.getLength() < persistedOffset) {
+            // the Gateway has replaced or cleared the log
+            document = doc;
+            persistedOffset = 0;
+        }
+        String text = doc.getText(persistedOffset, doc.getLength() - persistedOffset);
+        return text.substring(0, text.lastIndexOf('\n') + 1);
+    }
+
+    /*
+     * Removes whole lines that have been written to the log file from the start
+     * of the document, if it exceeds either limit.
+     */
+    private void trimDocument() throws BadLocationException {
+        Element root = document.getDefaultRootElement();
+        int lineCount = root.getElementCount();
+        int length = document.getLength();
+        boolean tooManyLines = maxLines > 0 && lineCount > maxLines;
+        boolean tooManyChars = maxChars > 0 && length > maxChars;
+        if (!tooManyLines && !tooManyChars) return;
+
+        int removeTo = 0;
+        if (tooManyLines) {
+            int linesToRemove = lineCount - maxLines * TRIM_TARGET_PERCENT / 100;
+            removeTo = root.getElement(linesToRemove - 1).getEndOffset();
         }
+        if (tooManyChars) {
+            int charsToRemove = length - (int) ((long) maxChars * TRIM_TARGET_PERCENT / 100);
+            Element line = root.getElement(root.getElementIndex(charsToRemove - 1));
+            removeTo = Math.max(removeTo, line.getEndOffset());
+        }
+        removeTo = Math.min(removeTo, persistedOffset);
+        if (removeTo <= 0) return;
+
+        document.remove(0, removeTo);
+        persistedOffset -= removeTo;
+    }
+
+    private static <T> T onEventDispatchThread(Callable<T> task) {
+        // reading the log is diagnostic work, so it gives way to IBC's automation
+        FutureTask<T> t = new FutureTask<>(task);
+        EdtScheduler.getInstance().execute(EdtScheduler.Priority.DIAGNOSTIC, t);
+        try {
+            return t.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Utils.logException(e.getCause());
+        }
+        return null;
     }
 
     private JTextArea findLogTextArea(Component root) {
@@ -135,7 +255,6 @@ public class MainLogReader {
                 return textArea;
             }
         }
-        getComponentTree(tabbedPane);
         return null;
     }
 
@@ -155,46 +274,4 @@ public class MainLogReader {
         }
         return null;
     }
-
-    public static void listOpenWindows() {
-        Window[] windows = Window.getWindows(); // Get all currently open windows
-
-        if (windows.length == 0) {
-            System.out.println("No open windows found.");
-        } else {
-            for (int i = 0; i < windows.length; i++) {
-                System.out.println("Window " + (i + 1) + ": " + windows[i].getClass().getName());
-            }
-        }
-    }
-
-    private void getComponentTree(Component component) {
-        StringBuilder builder = new StringBuilder();
-        traverseComponents(component, builder, 0);
-        System.out.println("\n\n\n\n\n" + builder.toString() + "\n\n\n\n\n");
-    }
-
-    private void traverseComponents(Component component, StringBuilder builder, int depth) {
-        // Indent based on the depth of the component
-        for (int i = 0; i < depth; i++) {
-            builder.append("  ");  // Indentation
-        }
-
-        // Append the current component's class name
-        builder.append(component.getClass().getName()).append("\n---------------------\n");
-        if (component instanceof JTextComponent) {
-            builder.append(" Text = " + ((JTextComponent) component).getText()).append("\n---------------------\n");
-        }
-        else {
-            builder.append("Class Name = " + component.getClass().getName()).append("\n---------------------\n");
-        }
-
-        // If the component is a container, recursively traverse its children
-        if (component instanceof Container) {
-            Component[] children = ((Container) component).getComponents();
-            for (Component child : children) {
-                traverseComponents(child, builder, depth + 1);
-            }
-        }
-    }
  }
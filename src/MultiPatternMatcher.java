@@ -0,0 +1,185 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Finds all occurrences of a fixed set of patterns in a text in a single pass,
+ * using the Aho-Corasick algorithm.
+ *
+ * The patterns are compiled into a deterministic automaton with a transition
+ * table over ASCII characters, so matching costs one table lookup per
+ * character however many patterns there are. Matching ignores the case of
+ * ASCII letters; a character outside ASCII cannot be part of a match.
+ *
+ * Instances are immutable, so they can be shared between threads.
+ *
+ * @param <T>
+ * the type of value associated with each pattern
+ */
+final class MultiPatternMatcher<T> {
+
+    private static final int ALPHABET = 128;
+
+    /**
+     * Receives the matches found in a text.
+     */
+    interface MatchHandler<T> {
+        /**
+         * @param value
+         * the value associated with the matching pattern
+         * @param end
+         * the index in the text just after the end of the match
+         */
+        void onMatch(T value, int end);
+    }
+
+    private final List<T> mValues;
+    // mTransitions[state * ALPHABET + c] is the next state
+    private final int[] mTransitions;
+    // the patterns (as indexes into mValues) that end at each state, including
+    // those that end at the state's suffixes
+    private final int[][] mOutputs;
+
+    private MultiPatternMatcher(List<T> values, int[] transitions, int[][] outputs) {
+        mValues = values;
+        mTransitions = transitions;
+        mOutputs = outputs;
+    }
+
+    /**
+     * Builds a matcher.
+     */
+    static final class Builder<T> {
+        private final List<String> mPatterns = new ArrayList<>();
+        private final List<T> mValues = new ArrayList<>();
+
+        /**
+         * Adds a pattern.
+         * @param pattern
+         * the pattern, which must be non-empty ASCII text
+         * @param value
+         * the value to be reported when the pattern is found
+         * @return
+         * this builder
+         * @throws IllegalArgumentException
+         * if the pattern is empty or contains non-ASCII characters
+         */
+        Builder<T> add(String pattern, T value) throws IllegalArgumentException {
+            if (pattern.isEmpty()) throw new IllegalArgumentException("empty pattern");
+            for (int i = 0; i < pattern.length(); i++) {
+                if (pattern.charAt(i) >= ALPHABET) throw new IllegalArgumentException("non-ASCII pattern: " + pattern);
+            }
+            mPatterns.add(pattern);
+            mValues.add(value);
+            return this;
+        }
+
+        MultiPatternMatcher<T> build() {
+            // build the trie
+            List<int[]> children = new ArrayList<>();
+            List<List<Integer>> outputs = new ArrayList<>();
+            children.add(newNode());
+            outputs.add(new ArrayList<>());
+            for (int p = 0; p < mPatterns.size(); p++) {
+                String pattern = mPatterns.get(p);
+                int state = 0;
+                for (int i = 0; i < pattern.length(); i++) {
+                    int c = toLower(pattern.charAt(i));
+                    if (children.get(state)[c] < 0) {
+                        children.get(state)[c] = children.size();
+                        children.add(newNode());
+                        outputs.add(new ArrayList<>());
+                    }
+                    state = children.get(state)[c];
+                }
+                outputs.get(state).add(p);
+            }
+
+            // compute the failure links breadth first, turning the trie into a
+            // complete transition table as we go
+            int stateCount = children.size();
+            int[] transitions = new int[stateCount * ALPHABET];
+            int[] failure = new int[stateCount];
+            Deque<Integer> queue = new ArrayDeque<>();
+            for (int c = 0; c < ALPHABET; c++) {
+                int child = children.get(0)[c];
+                if (child < 0) {
+                    transitions[c] = 0;
+                } else {
+                    transitions[c] = child;
+                    failure[child] = 0;
+                    queue.add(child);
+                }
+            }
+            while (!queue.isEmpty()) {
+                int state = queue.remove();
+                outputs.get(state).addAll(outputs.get(failure[state]));
+                for (int c = 0; c < ALPHABET; c++) {
+                    int child = children.get(state)[c];
+                    if (child < 0) {
+                        transitions[state * ALPHABET + c] = transitions[failure[state] * ALPHABET + c];
+                    } else {
+                        transitions[state * ALPHABET + c] = child;
+                        failure[child] = transitions[failure[state] * ALPHABET + c];
+                        queue.add(child);
+                    }
+                }
+            }
+
+            int[][] outputArrays = new int[stateCount][];
+            for (int s = 0; s < stateCount; s++) {
+                outputArrays[s] = outputs.get(s).stream().mapToInt(Integer::intValue).toArray();
+            }
+            return new MultiPatternMatcher<>(new ArrayList<>(mValues), transitions, outputArrays);
+        }
+
+        private static int[] newNode() {
+            int[] node = new int[ALPHABET];
+            Arrays.fill(node, -1);
+            return node;
+        }
+    }
+
+    /**
+     * Reports every occurrence of every pattern in a text, in order of the
+     * position at which it ends.
+     * @param text
+     * the text to be searched
+     * @param handler
+     * receives the matches
+     */
+    void match(CharSequence text, MatchHandler<T> handler) {
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            state = c < ALPHABET ? mTransitions[state * ALPHABET + toLower(c)] : 0;
+            for (int p : mOutputs[state]) handler.onMatch(mValues.get(p), i + 1);
+        }
+    }
+
+    private static int toLower(char c) {
+        return (c >= 'A' && c <= 'Z') ? c + ('a' - 'A') : c;
+    }
+}
@@ -36,12 +36,23 @@ public class ReloginDialogHandler implements WindowHandler {
 
     @Override
     public void handleWindow(Window window, int eventID) {
-        Utils.logToConsole("Re-login to session");
-        if (SwingUtils.clickButton(window, "Re-login"))  {
-            LoginManager.loginManager().setLoginState(LoginManager.LoginState.LOGGING_IN);
-        } else {
-            Utils.logError("could not handle 'Re-login is required' dialog because the 'Re-login' button wasn't found.");
-        }
+        // every instance sees the disconnection at the same moment, so the
+        // re-login is spread out rather than made immediately
+        LoginRetryScheduler.getInstance().runAfterBackoff("re-login to session", true, 0, () -> {
+            if (!window.isDisplayable()) {
+                Utils.logToConsole("'Re-login is required' dialog has been closed: not re-logging in");
+                return;
+            }
+            Utils.logToConsole("Re-login to session");
+            if (SwingUtils.clickButton(window, "Re-login"))  {
+                LoginRetryScheduler.getInstance().recordAttempt(
+                        LoginManager.loginManager().getLoginHandler() == null ? 0 : LoginManager.loginManager().getLoginHandler().currentLoginAttemptNumber(),
+                        "re-login");
+                LoginManager.loginManager().setLoginState(LoginManager.LoginState.LOGGING_IN);
+            } else {
+                Utils.logError("could not handle 'Re-login is required' dialog because the 'Re-login' button wasn't found.");
+            }
+        });
 }
 
     @Override
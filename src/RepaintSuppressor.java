@@ -0,0 +1,340 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc;
+
+import java.awt.Component;
+import java.awt.Dialog;
+import java.awt.Frame;
+import java.awt.GraphicsDevice;
+import java.awt.GraphicsEnvironment;
+import java.awt.Rectangle;
+import java.awt.Window;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.swing.JComponent;
+import javax.swing.JRootPane;
+import javax.swing.RepaintManager;
+import javax.swing.RootPaneContainer;
+
+/**
+ * A RepaintManager that avoids painting TWS windows that nobody can see.
+ *
+ * When TWS runs under a virtual display such as Xvfb, it continues to paint
+ * tickers, logs and tables into a framebuffer that nobody looks at. If
+ * SuppressHiddenRepaints is set, IBC installs this RepaintManager, which:
+ *
+ *  - discards repaint requests for windows that are iconified (or owned by an
+ *    iconified frame) or lie entirely off-screen; and
+ *
+ *  - limits every other window to HeadlessRenderBudget paints per second
+ *    (default 2; 0 means no limit), merging the requests received in between
+ *    into a single paint.
+ *
+ * Repaint requests are passed through unchanged whenever a VNC viewer is
+ * connected (as shown by an established connection to any of the ports in
+ * VncPorts, default 5900), while IBC is logging in or configuring TWS or
+ * shutting down, and for all dialogs, since these are the windows that IBC
+ * and its users interact with.
+ *
+ * A window whose repaints have been discarded is repainted in full as soon as
+ * it becomes visible again, and all windows are repainted when a viewer
+ * connects.
+ */
+final class RepaintSuppressor extends RepaintManager {
+
+    private static final long VIEWER_POLL_INTERVAL_SECONDS = 2;
+
+    private enum Action {
+        PASS,
+        DROP,
+        THROTTLE
+    }
+
+    private static final class WindowState {
+        long lastPaintTime = Long.MIN_VALUE / 2;
+        boolean flushScheduled;
+        boolean dropped;
+        final Map<Component, Rectangle> pending = new HashMap<>();
+    }
+
+    static void installIfRequired() {
+        if (!Settings.settings().getBoolean("SuppressHiddenRepaints", false)) return;
+        if (GraphicsEnvironment.isHeadless()) {
+            Utils.logToConsole("SuppressHiddenRepaints ignored: no display");
+            return;
+        }
+
+        int budget = Settings.settings().getInt("HeadlessRenderBudget", 2);
+        if (budget < 0) {
+            Utils.logError("HeadlessRenderBudget must not be negative: repaints will not be limited");
+            budget = 0;
+        }
+        Set<Integer> vncPorts = parsePorts(Settings.settings().getString("VncPorts", "5900"));
+        final int paintsPerSecond = budget;
+
+        GuiExecutor.instance().execute(() -> {
+            RepaintManager current = RepaintManager.currentManager((Component) null);
+            if (current.getClass() != RepaintManager.class) {
+                Utils.logToConsole("SuppressHiddenRepaints ignored: a custom RepaintManager is already installed: " + current.getClass().getName());
+                return;
+            }
+            RepaintSuppressor suppressor = new RepaintSuppressor(paintsPerSecond, vncPorts);
+            suppressor.setDoubleBufferingEnabled(current.isDoubleBufferingEnabled());
+            suppressor.setDoubleBufferMaximumSize(current.getDoubleBufferMaximumSize());
+            RepaintManager.setCurrentManager(suppressor);
+            suppressor.startViewerMonitor();
+            Utils.logToConsole("Repaints of unwatched windows will be " +
+                    (paintsPerSecond == 0 ? "suppressed only while hidden" : "limited to " + paintsPerSecond + " per second") +
+                    (vncPorts.isEmpty() ? "" : "; VNC ports " + vncPorts));
+        });
+    }
+
+    private static Set<Integer> parsePorts(String value) {
+        Set<Integer> ports = new HashSet<>();
+        for (String s : value.split("[\\s,]+")) {
+            if (s.isEmpty()) continue;
+            try {
+                ports.add(Integer.parseInt(s));
+            } catch (NumberFormatException e) {
+                Utils.logError("Invalid port in VncPorts setting: " + s);
+            }
+        }
+        return ports;
+    }
+
+    private final long mMinimumInterval;
+    private final Set<Integer> mVncPorts;
+    private final Rectangle mScreenBounds = new Rectangle();
+
+    // guards mWindows and its WindowStates. RepaintManager synchronizes on
+    // itself, so calls to its methods are never made while holding this lock
+    private final Object mLock = new Object();
+    private final Map<Window, WindowState> mWindows = new WeakHashMap<>();
+
+    private volatile boolean mViewerAttached;
+    private final AtomicLong mDropped = new AtomicLong();
+    private final AtomicLong mMerged = new AtomicLong();
+
+    private RepaintSuppressor(int paintsPerSecond, Set<Integer> vncPorts) {
+        mMinimumInterval = paintsPerSecond == 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / paintsPerSecond;
+        mVncPorts = vncPorts;
+        for (GraphicsDevice device : GraphicsEnvironment.getLocalGraphicsEnvironment().getScreenDevices()) {
+            mScreenBounds.add(device.getDefaultConfiguration().getBounds());
+        }
+    }
+
+    @Override
+    public void addDirtyRegion(JComponent c, int x, int y, int w, int h) {
+        Component top = c.getTopLevelAncestor();
+        if (!(top instanceof Window)) {
+            super.addDirtyRegion(c, x, y, w, h);
+            return;
+        }
+        addDirtyRegion((Window) top, c, new Rectangle(x, y, w, h));
+    }
+
+    @Override
+    public void addDirtyRegion(Window window, int x, int y, int w, int h) {
+        addDirtyRegion(window, window, new Rectangle(x, y, w, h));
+    }
+
+    private void addDirtyRegion(Window window, Component c, Rectangle region) {
+        if (region.isEmpty()) return;
+        switch (getAction(window)) {
+            case PASS:
+                repaintIfDropped(window);
+                passDirtyRegion(c, region);
+                break;
+            case DROP:
+                synchronized (mLock) {
+                    getState(window).dropped = true;
+                }
+                mDropped.incrementAndGet();
+                break;
+            case THROTTLE:
+                throttle(window, c, region);
+                break;
+        }
+    }
+
+    private void passDirtyRegion(Component c, Rectangle r) {
+        if (c instanceof JComponent) {
+            super.addDirtyRegion((JComponent) c, r.x, r.y, r.width, r.height);
+        } else if (c instanceof Window) {
+            super.addDirtyRegion((Window) c, r.x, r.y, r.width, r.height);
+        }
+    }
+
+    private Action getAction(Window window) {
+        if (mViewerAttached || window instanceof Dialog || ibcIsInteracting()) return Action.PASS;
+        if (isHidden(window)) return Action.DROP;
+        return mMinimumInterval == 0 ? Action.PASS : Action.THROTTLE;
+    }
+
+    private static boolean ibcIsInteracting() {
+        IbcStatus status = IbcStatus.current();
+        return status.getLoginState() != LoginManager.LoginState.LOGGED_IN ||
+                status.isConfigDialogOpen() ||
+                status.getConfigTasksInProgress() != 0 ||
+                status.isShutdownInProgress();
+    }
+
+    private boolean isHidden(Window window) {
+        for (Window w = window; w != null; w = w.getOwner()) {
+            if (w instanceof Frame && (((Frame) w).getExtendedState() & Frame.ICONIFIED) != 0) return true;
+        }
+        return !mScreenBounds.intersects(window.getBounds());
+    }
+
+    private WindowState getState(Window window) {
+        return mWindows.computeIfAbsent(window, k -> new WindowState());
+    }
+
+    private void repaintIfDropped(Window window) {
+        synchronized (mLock) {
+            WindowState state = mWindows.get(window);
+            if (state == null || !state.dropped) return;
+            state.dropped = false;
+        }
+        if (window instanceof RootPaneContainer) {
+            JRootPane rootPane = ((RootPaneContainer) window).getRootPane();
+            super.addDirtyRegion(rootPane, 0, 0, rootPane.getWidth(), rootPane.getHeight());
+        } else {
+            super.addDirtyRegion(window, 0, 0, window.getWidth(), window.getHeight());
+        }
+    }
+
+    private void throttle(Window window, Component c, Rectangle region) {
+        long now = System.nanoTime();
+        long delay = -1;
+        boolean paintNow = false;
+        synchronized (mLock) {
+            WindowState state = getState(window);
+            if (!state.flushScheduled && now - state.lastPaintTime >= mMinimumInterval) {
+                state.lastPaintTime = now;
+                paintNow = true;
+            } else {
+                state.pending.merge(c, region, Rectangle::union);
+                mMerged.incrementAndGet();
+                if (!state.flushScheduled) {
+                    state.flushScheduled = true;
+                    delay = state.lastPaintTime + mMinimumInterval - now;
+                }
+            }
+        }
+        if (paintNow) {
+            repaintIfDropped(window);
+            passDirtyRegion(c, region);
+        } else if (delay >= 0) {
+            MyScheduledExecutorService.getInstance().schedule(() -> flush(window), delay, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void flush(Window window) {
+        Map<Component, Rectangle> regions;
+        synchronized (mLock) {
+            WindowState state = getState(window);
+            regions = new HashMap<>(state.pending);
+            state.pending.clear();
+            state.flushScheduled = false;
+            state.lastPaintTime = System.nanoTime();
+            if (getAction(window) == Action.DROP) {
+                state.dropped = true;
+                return;
+            }
+        }
+        repaintIfDropped(window);
+        regions.forEach(this::passDirtyRegion);
+    }
+
+    private void startViewerMonitor() {
+        if (mVncPorts.isEmpty()) return;
+        MyScheduledExecutorService.getInstance().scheduleWithFixedDelay(() -> {
+            try {
+                boolean attached = isViewerConnected();
+                if (attached == mViewerAttached) return;
+                mViewerAttached = attached;
+                if (attached) {
+                    Utils.logToConsole("VNC viewer connected: repainting all windows; " +
+                            mDropped.get() + " repaints discarded and " + mMerged.get() + " merged so far");
+                    GuiExecutor.instance().execute(this::repaintAll);
+                } else {
+                    Utils.logToConsole("VNC viewer disconnected: suppressing repaints of unwatched windows");
+                }
+            } catch (IOException e) {
+                // no /proc on this platform: stop polling
+                Utils.logError("Can't detect VNC viewers: " + e.getMessage());
+                throw new IllegalStateException(e);
+            }
+        }, 0, VIEWER_POLL_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void repaintAll() {
+        synchronized (mLock) {
+            for (WindowState state : mWindows.values()) state.dropped = false;
+        }
+        for (Window window : Window.getWindows()) {
+            if (window.isShowing()) window.repaint();
+        }
+    }
+
+    /*
+     * A viewer is connected if there is an established TCP connection whose
+     * local port is one of the VNC ports.
+     */
+    private boolean isViewerConnected() throws IOException {
+        boolean found = false;
+        for (String file : new String[] {"/proc/net/tcp", "/proc/net/tcp6"}) {
+            Path path = Paths.get(file);
+            if (!Files.isReadable(path)) continue;
+            found = true;
+            if (hasEstablishedConnection(Files.readAllLines(path))) return true;
+        }
+        if (!found) throw new IOException("/proc/net/tcp not found");
+        return false;
+    }
+
+    private boolean hasEstablishedConnection(List<String> lines) {
+        final String ESTABLISHED = "01";
+        // skip the heading line
+        for (int i = 1; i < lines.size(); i++) {
+            // sl local_address rem_address st ...
+            String[] fields = lines.get(i).trim().split("\\s+");
+            if (fields.length < 4 || !fields[3].equals(ESTABLISHED)) continue;
+            int colon = fields[1].lastIndexOf(':');
+            if (colon < 0) continue;
+            try {
+                if (mVncPorts.contains(Integer.parseInt(fields[1].substring(colon + 1), 16))) return true;
+            } catch (NumberFormatException e) {
+                // not a connection line
+            }
+        }
+        return false;
+    }
+}
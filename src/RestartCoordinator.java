@@ -0,0 +1,306 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coordinates the restarts of the IBC instances on a host, so that they don't
+ * all restart and log in at the same moment.
+ *
+ * Coordination is enabled by setting RestartCoordinationDir to a directory
+ * shared by all the instances. It works in two ways:
+ *
+ *  - Scheduled restarts (ColdRestartTime and AutoRestartTime) are spread out.
+ *    The RestartCoordinationWindowMinutes (default 30) following the configured
+ *    restart time are divided into slots of RestartCoordinationSlotMinutes
+ *    (default 5), each of which can be claimed by RestartCoordinationSlots
+ *    instances (default 1). Each instance claims the earliest free slot by
+ *    atomically creating a lease file, and its restart is moved to the start of
+ *    that slot. An instance that restarts before its slot comes round reclaims
+ *    its own lease rather than taking another.
+ *
+ *  - At most RestartCoordinationSlots instances may be starting up at once: an
+ *    instance starting TWS or Gateway first takes a lock on one of that many
+ *    lock files, waiting if necessary (but for no more than
+ *    RestartCoordinationMaxWaitMinutes, default 15), and holds it until login
+ *    has completed (or for at most RestartCoordinationMaxHoldMinutes, default
+ *    10). Since the operating system releases these locks when a process ends,
+ *    an instance that exits or crashes can never block the others.
+ *
+ * The RESTARTSLOT command reports the claimed slots and the lock state.
+ */
+class RestartCoordinator {
+
+    private static final RestartCoordinator instance = new RestartCoordinator();
+
+    static RestartCoordinator getInstance() {
+        return instance;
+    }
+
+    private static final String SLOTS_DIRECTORY_PREFIX = "slots-";
+    private static final String SLOTS_DIRECTORY_FORMAT = "yyyyMMdd-HHmm";
+    private static final long POLL_INTERVAL_MILLIS = 5000;
+
+    private boolean mLoaded;
+    private Path mDirectory;
+    private String mInstanceId;
+    private int mSlotCapacity;
+    private int mSlotMinutes;
+    private int mWindowMinutes;
+    private int mMaxWaitMinutes;
+    private int mMaxHoldMinutes;
+
+    // guarded by this
+    private FileChannel mLockChannel;
+    private FileLock mLock;
+    private int mLockIndex = -1;
+    private String mLockState = "none";
+    private ScheduledFuture<?> mReleaseTask;
+    private final Map<String, String> mClaims = new LinkedHashMap<>();
+
+    private RestartCoordinator() {}
+
+    private synchronized boolean isEnabled() {
+        if (!mLoaded) {
+            mLoaded = true;
+            String directory = Settings.settings().getString("RestartCoordinationDir", "");
+            if (!directory.isEmpty()) {
+                mDirectory = Paths.get(directory).toAbsolutePath();
+                mSlotCapacity = Math.max(1, Settings.settings().getInt("RestartCoordinationSlots", 1));
+                mSlotMinutes = Math.max(1, Settings.settings().getInt("RestartCoordinationSlotMinutes", 5));
+                mWindowMinutes = Math.max(mSlotMinutes, Settings.settings().getInt("RestartCoordinationWindowMinutes", 30));
+                mMaxWaitMinutes = Math.max(0, Settings.settings().getInt("RestartCoordinationMaxWaitMinutes", 15));
+                mMaxHoldMinutes = Math.max(1, Settings.settings().getInt("RestartCoordinationMaxHoldMinutes", 10));
+                // the settings directory identifies an instance, and doesn't change when it restarts
+                mInstanceId = Paths.get(Settings.settings().getString("IbDir", System.getProperty("user.dir"))).toAbsolutePath().normalize().toString();
+                try {
+                    Files.createDirectories(mDirectory);
+                } catch (IOException e) {
+                    Utils.logError("Restart coordination disabled: can't create " + mDirectory + ": " + e.getMessage());
+                    mDirectory = null;
+                }
+            }
+        }
+        return mDirectory != null;
+    }
+
+    /**
+     * Claims a restart slot in the window starting at the configured restart
+     * time.
+     * @param kind
+     * the kind of restart, for reporting
+     * @param configuredTime
+     * the next occurrence of the configured restart time
+     * @return
+     * the start of the claimed slot, or configuredTime if coordination is not
+     * enabled or no slot is free
+     */
+    synchronized Date claimRestartSlot(String kind, Date configuredTime) {
+        if (!isEnabled()) return configuredTime;
+
+        deleteExpiredSlotDirectories();
+        Path slotsDirectory = mDirectory.resolve(SLOTS_DIRECTORY_PREFIX + new SimpleDateFormat(SLOTS_DIRECTORY_FORMAT).format(configuredTime));
+        int slotCount = mWindowMinutes / mSlotMinutes;
+        try {
+            Files.createDirectories(slotsDirectory);
+
+            int claimed = findOwnClaim(slotsDirectory, slotCount);
+            for (int slot = 0; slot < slotCount && claimed < 0; slot++) {
+                for (int k = 0; k < mSlotCapacity && claimed < 0; k++) {
+                    try {
+                        Files.write(slotsDirectory.resolve(leaseFileName(slot, k)),
+                                (mInstanceId + "\n").getBytes(StandardCharsets.UTF_8),
+                                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                        claimed = slot;
+                    } catch (FileAlreadyExistsException e) {
+                        // taken by another instance
+                    }
+                }
+            }
+
+            if (claimed < 0) {
+                Utils.logError("No free " + kind + " slot in the " + mWindowMinutes + " minutes after " + format(configuredTime) + ": time not changed");
+                recordClaim(kind, configuredTime, -1, configuredTime);
+                return configuredTime;
+            }
+
+            Date slotTime = new Date(configuredTime.getTime() + TimeUnit.MINUTES.toMillis((long) claimed * mSlotMinutes));
+            Utils.logToConsole("Claimed " + kind + " slot " + claimed + " of " + slotCount +
+                    (claimed == 0 ? ": " + kind + " time unchanged" : ": " + kind + " moved from " + format(configuredTime) + " to " + format(slotTime)));
+            recordClaim(kind, configuredTime, claimed, slotTime);
+            return slotTime;
+        } catch (IOException e) {
+            Utils.logError("Can't claim " + kind + " slot in " + slotsDirectory + ": " + e.getMessage());
+            return configuredTime;
+        }
+    }
+
+    private static String leaseFileName(int slot, int k) {
+        return "slot-" + slot + "-" + k + ".lease";
+    }
+
+    private int findOwnClaim(Path slotsDirectory, int slotCount) throws IOException {
+        for (int slot = 0; slot < slotCount; slot++) {
+            for (int k = 0; k < mSlotCapacity; k++) {
+                Path lease = slotsDirectory.resolve(leaseFileName(slot, k));
+                if (!Files.isRegularFile(lease)) continue;
+                String owner = new String(Files.readAllBytes(lease), StandardCharsets.UTF_8).trim();
+                if (owner.equals(mInstanceId)) return slot;
+            }
+        }
+        return -1;
+    }
+
+    private void deleteExpiredSlotDirectories() {
+        long cutoff = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(mWindowMinutes) - TimeUnit.DAYS.toMillis(1);
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(mDirectory, SLOTS_DIRECTORY_PREFIX + "*")) {
+            for (Path dir : dirs) {
+                Date time;
+                try {
+                    time = new SimpleDateFormat(SLOTS_DIRECTORY_FORMAT).parse(dir.getFileName().toString().substring(SLOTS_DIRECTORY_PREFIX.length()));
+                } catch (ParseException e) {
+                    continue;
+                }
+                if (time.getTime() >= cutoff) continue;
+                try (DirectoryStream<Path> leases = Files.newDirectoryStream(dir)) {
+                    for (Path lease : leases) Files.deleteIfExists(lease);
+                }
+                Files.deleteIfExists(dir);
+            }
+        } catch (IOException e) {
+            Utils.logError("Can't delete expired restart slots: " + e.getMessage());
+        }
+    }
+
+    private void recordClaim(String kind, Date configuredTime, int slot, Date slotTime) {
+        mClaims.put(kind, kind + "Configured=" + IbcEvent.quote(format(configuredTime)) +
+                " " + kind + "Slot=" + (slot < 0 ? "none" : String.valueOf(slot)) +
+                " " + kind + "At=" + IbcEvent.quote(format(slotTime)));
+    }
+
+    private static String format(Date time) {
+        return new SimpleDateFormat("yyyy-MM-dd HH:mm").format(time);
+    }
+
+    /**
+     * Waits until fewer than RestartCoordinationSlots other instances are
+     * starting up, and then holds a start-up lock until releaseStartupLock is
+     * called.
+     */
+    void acquireStartupLock() {
+        if (!isEnabled()) return;
+
+        long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(mMaxWaitMinutes);
+        boolean logged = false;
+        while (true) {
+            synchronized (this) {
+                if (tryLock()) {
+                    mLockState = "held";
+                    Utils.logToConsole("Acquired start-up lock " + mLockIndex + " of " + mSlotCapacity);
+                    mReleaseTask = MyScheduledExecutorService.getInstance().schedule(
+                            () -> releaseStartupLock("login did not complete within " + mMaxHoldMinutes + " minutes"),
+                            mMaxHoldMinutes,
+                            TimeUnit.MINUTES);
+                    return;
+                }
+                if (System.currentTimeMillis() >= deadline) {
+                    mLockState = "timedout";
+                    Utils.logError("Gave up waiting for a start-up lock after " + mMaxWaitMinutes + " minutes: starting anyway");
+                    return;
+                }
+                mLockState = "waiting";
+            }
+            if (!logged) {
+                Utils.logToConsole("Waiting for one of the " + mSlotCapacity + " other instances starting up to complete login");
+                logged = true;
+            }
+            Utils.pause((int) POLL_INTERVAL_MILLIS);
+        }
+    }
+
+    private boolean tryLock() {
+        for (int k = 0; k < mSlotCapacity; k++) {
+            FileChannel channel = null;
+            try {
+                channel = FileChannel.open(mDirectory.resolve("startup-" + k + ".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                FileLock lock = channel.tryLock();
+                if (lock != null) {
+                    mLockChannel = channel;
+                    mLock = lock;
+                    mLockIndex = k;
+                    return true;
+                }
+                channel.close();
+            } catch (IOException e) {
+                Utils.logError("Can't lock " + mDirectory.resolve("startup-" + k + ".lock") + ": " + e.getMessage());
+                closeQuietly(channel);
+            }
+        }
+        return false;
+    }
+
+    synchronized void releaseStartupLock(String reason) {
+        if (mLock == null) return;
+        try {
+            mLock.release();
+        } catch (IOException e) {
+            Utils.logException(e);
+        }
+        closeQuietly(mLockChannel);
+        if (mReleaseTask != null) mReleaseTask.cancel(false);
+        Utils.logToConsole("Released start-up lock " + mLockIndex + ": " + reason);
+        mLock = null;
+        mLockChannel = null;
+        mReleaseTask = null;
+        mLockState = "released";
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nothing to be done
+        }
+    }
+
+    synchronized String getStatus() {
+        if (!isEnabled()) return "coordination=disabled";
+        return "coordination=enabled capacity=" + mSlotCapacity +
+                " startupLock=" + mLockState + (mLockIndex < 0 ? "" : " lockIndex=" + mLockIndex) +
+                (mClaims.isEmpty() ? "" : " " + String.join(" ", mClaims.values()));
+    }
+}
@@ -50,7 +50,7 @@ class RestartTask
         if (! _Running.set()) {
             Utils.logToConsole("RESTART already in progress");
             writeNack("RESTART already in progress");
-            mChannel.close();
+            closeChannel();
             return;
         }
 
@@ -66,7 +66,7 @@ class RestartTask
     void restart() {
         if (Utils.invokeMenuItem(MainWindowManager.mainWindowManager().getMainWindow(), new String[] {"File", "Restart..."})) {
             writeAck("Restart in progress");
-            mChannel.close();
+            closeChannel();
             return;
         }
         
@@ -88,6 +88,9 @@ class RestartTask
         LocalTime restartTime = now.withHour(newHour).withMinute(newMinute).withSecond(0);
 
         Utils.logToConsole("Setting auto-restart time to " + restartTime.format(DateTimeFormatter.ofPattern("hh:mm a")));
+        final String time = restartTime.format(DateTimeFormatter.ofPattern("HH:mm"));
+        IbcStatus.update(s -> s.withRestartScheduled("restart", time));
+        IbcEventBus.getInstance().publish(IbcEvent.Type.RESTART_SCHEDULED, "kind=restart time=" + time);
         (new ConfigurationTask(new ConfigureAutoLogoffOrRestartTimeTask(
                                         "Auto restart", 
                                         restartTime)
@@ -95,13 +98,18 @@ class RestartTask
         ).executeAsync();
 
         writeAck("Restarting at "  + restartTime.format(DateTimeFormatter.ofPattern("hh:mm a")));
-        mChannel.close();
+        closeChannel();
 
         try {
-            if (!GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().isWindowTranslucencySupported(TRANSLUCENT)) return;
-        } catch (IllegalComponentStateException e) {
-            return;
+            showCountdown(restartTime);
+        } catch (IllegalComponentStateException | UnsupportedOperationException e) {
+            // the countdown is only cosmetic: the restart has been scheduled regardless
+            Utils.logToConsole("Can't show the restart countdown: " + e);
         }
+    }
+
+    private void showCountdown(LocalTime restartTime) {
+        if (!GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().isWindowTranslucencySupported(TRANSLUCENT)) return;
 
         JFrame window = MainWindowManager.mainWindowManager().getMainWindow();
         window.setOpacity(0.80f);
@@ -116,6 +124,7 @@ class RestartTask
     private void writeAck(String message) {if (mChannel != null) mChannel.writeAck(message);}
     private void writeInfo(String message) {if (mChannel != null) mChannel.writeInfo(message);}
     private void writeNack(String message) {if (mChannel != null) mChannel.writeNack(message);}
+    private void closeChannel() {if (mChannel != null) mChannel.close();}
 
     private class Countdown extends JPanel {
         private  static final long serialVersionUID = 1L;
@@ -18,10 +18,9 @@
 
 package ibcalpha.ibc;
 
+import java.util.EnumSet;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 import javax.swing.JFrame;
 
 public class SessionManager {
@@ -55,14 +54,15 @@ public class SessionManager {
         
         // test to see if the -Drestart VM option has been supplied
         _isRestart = ! (System.getProperties().getProperty("restart", "").isEmpty());
+        IbcStatus.update(s -> s.withSession(_isGateway, _isFIX, _isRestart));
         int loginDialogDisplayTimeout = Settings.settings().getInt("LoginDialogDisplayTimeout", 60);
         if (_isRestart){
             Utils.logToConsole("Re-starting session");
             // TWS/Gateway will re-establish the session with no intervention from IBC needed
         } else {
             Utils.logToConsole("Starting session: will exit if login dialog is not displayed within " + loginDialogDisplayTimeout + " seconds");
-            MyScheduledExecutorService.getInstance().schedule(()->{
-                GuiExecutor.instance().execute(()->{
+            final ScheduledFuture<?> timeout = MyScheduledExecutorService.getInstance().schedule(()->{
+                GuiExecutor.instance().execute(EdtScheduler.Priority.LOGIN, ()->{
                     if (LoginManager.loginManager().getLoginState() != LoginManager.LoginState.LOGGED_OUT) {
                         // Login diaog has been shown - no need for IBC to exit
                         return;
@@ -70,13 +70,24 @@ public class SessionManager {
                     Utils.exitWithError(ErrorCodes.LOGIN_DIALOG_DISPLAY_TIMED_OUT, "IBC closing after TWS/Gateway failed to display login dialog");
                 });
             }, loginDialogDisplayTimeout, TimeUnit.SECONDS);
+            SessionStateMachine.getInstance()
+                    .onState(EnumSet.complementOf(EnumSet.of(LoginManager.LoginState.LOGGED_OUT)))
+                    .thenRun(() -> timeout.cancel(false));
         }
     }
     
-    private static volatile boolean _InitialisationCompleted;
-    private static final Lock lock = new ReentrantLock();
-    private static final Condition initialised = lock.newCondition();
-    static void awaitReady() {
+    /**
+     * Waits for the session to be ready for IBC to use TWS's menus.
+     * @param timeout
+     * the maximum time to wait
+     * @param unit
+     * the time unit of the timeout argument
+     * @return
+     * true if the session is ready; false if the timeout expired first
+     * @throws InterruptedException
+     * the thread was interrupted while waiting
+     */
+    static boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
         /*
          * For the gateway, the main form is loaded right at the start, and long before
          * the menu items become responsive: any attempt to access the Configure > Settings
@@ -91,57 +102,21 @@ public class SessionManager {
          * 
          */
 
-        lock.lock();
-        try {
-            while (!_InitialisationCompleted) {
-                try {
-                    initialised.await();
-                } catch (InterruptedException e) {
-                }
-            }
-        } finally {
-            lock.unlock();
-        }
+        return SessionStateMachine.getInstance().awaitReady(timeout, unit);
     }
 
-    private static volatile boolean splashScreenClosed;
     static void setSplashScreenClosed() {
         if (!SessionManager.isGateway()) return;
-        lock.lock();
-        try {
-            splashScreenClosed = true;
-            if (nonBrokerageAccountDialogClosed) {
-                _InitialisationCompleted = true;
-                initialised.signal();
-            }
-        } finally {
-            lock.unlock();
-        }
+        SessionStateMachine.getInstance().setSplashScreenClosed();
     }
     
-    private static volatile boolean nonBrokerageAccountDialogClosed;
     static void setNonBrokerageAccountDialogClosed() {
         if (!SessionManager.isGateway()) return;
-        lock.lock();
-        try {
-            nonBrokerageAccountDialogClosed = true;
-            if (splashScreenClosed) {
-                _InitialisationCompleted = true;
-                initialised.signal();
-            }
-        } finally {
-            lock.unlock();
-        }
+        SessionStateMachine.getInstance().setNonBrokerageAccountDialogClosed();
     }
     
     static void setMainWindow(JFrame window) {
-        lock.lock();
-        try {
-            _InitialisationCompleted = true;
-            initialised.signal();
-        } finally {
-            lock.unlock();
-            MainWindowManager.mainWindowManager().setMainWindow(window);
-        }
+        SessionStateMachine.getInstance().setReady();
+        MainWindowManager.mainWindowManager().setMainWindow(window);
     }
 }
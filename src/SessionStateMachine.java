@@ -0,0 +1,273 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import ibcalpha.ibc.LoginManager.LoginState;
+
+/**
+ * Holds the login state and session readiness, and lets components wait for
+ * them rather than polling.
+ *
+ * The login state is changed by compare-and-set against an immutable
+ * Transition, so concurrent handlers cannot lose or reorder each other's
+ * changes, and a change is only made if the transition table permits it: each
+ * change is made by exactly one thread, which then performs its side effects
+ * (see LoginManager.setLoginState).
+ *
+ * The session is ready once TWS has finished initialising: for TWS when its
+ * main window appears, and for Gateway when both its splash screen and the
+ * non-brokerage account warning (if any) have closed.
+ */
+final class SessionStateMachine {
+
+    private static final SessionStateMachine instance = new SessionStateMachine();
+
+    static SessionStateMachine getInstance() {
+        return instance;
+    }
+
+    private static final Map<LoginState, Set<LoginState>> TRANSITIONS = new EnumMap<>(LoginState.class);
+    static {
+        permit(LoginState.LOGGED_OUT,
+                LoginState.AWAITING_CREDENTIALS, LoginState.LOGGING_IN, LoginState.TWO_FA_IN_PROGRESS,
+                LoginState.LOGGED_IN, LoginState.LOGIN_FAILED);
+        permit(LoginState.AWAITING_CREDENTIALS,
+                LoginState.LOGGING_IN, LoginState.TWO_FA_IN_PROGRESS, LoginState.LOGGED_IN,
+                LoginState.LOGIN_FAILED, LoginState.LOGGED_OUT);
+        permit(LoginState.LOGGING_IN,
+                LoginState.AWAITING_CREDENTIALS, LoginState.TWO_FA_IN_PROGRESS, LoginState.LOGGED_IN,
+                LoginState.LOGIN_FAILED, LoginState.LOGGED_OUT);
+        // a re-login after a second factor authentication timeout returns to AWAITING_CREDENTIALS
+        permit(LoginState.TWO_FA_IN_PROGRESS,
+                LoginState.AWAITING_CREDENTIALS, LoginState.LOGGING_IN, LoginState.LOGGED_IN,
+                LoginState.LOGIN_FAILED, LoginState.LOGGED_OUT);
+        // the 'Re-login is required' dialog leads to LOGGING_IN, TWS may itself
+        // require second factor authentication during a session, and it may
+        // show its login frame again without the 'Re-login is required' dialog
+        permit(LoginState.LOGGED_IN,
+                LoginState.AWAITING_CREDENTIALS, LoginState.LOGGING_IN, LoginState.TWO_FA_IN_PROGRESS,
+                LoginState.LOGGED_OUT);
+        permit(LoginState.LOGIN_FAILED,
+                LoginState.AWAITING_CREDENTIALS, LoginState.LOGGING_IN, LoginState.LOGGED_OUT);
+    }
+
+    private static void permit(LoginState from, LoginState... to) {
+        TRANSITIONS.put(from, Collections.unmodifiableSet(EnumSet.copyOf(Arrays.asList(to))));
+    }
+
+    static boolean isPermitted(LoginState from, LoginState to) {
+        return TRANSITIONS.get(from).contains(to);
+    }
+
+    /**
+     * An immutable record of a change of login state.
+     */
+    static final class Transition {
+        private final long sequence;
+        private final LoginState state;
+        private final LoginState previous;
+        private final long time;
+        private final long[] enteredTimes;
+
+        private Transition(long sequence, LoginState state, LoginState previous, long time, long[] enteredTimes) {
+            this.sequence = sequence;
+            this.state = state;
+            this.previous = previous;
+            this.time = time;
+            this.enteredTimes = enteredTimes;
+        }
+
+        long getSequence() {return sequence;}
+        LoginState getState() {return state;}
+        LoginState getPrevious() {return previous;}
+        long getTime() {return time;}
+
+        /**
+         * Returns the time the given state was last entered.
+         * @param s
+         * the state
+         * @return
+         * the time in milliseconds since the epoch, or 0 if the state has not
+         * been entered
+         */
+        long getEnteredTime(LoginState s) {
+            return enteredTimes[s.ordinal()];
+        }
+
+        @Override
+        public String toString() {
+            return previous + " -> " + state + " at " + time;
+        }
+    }
+
+    private final AtomicReference<Transition> mCurrent;
+    private final Map<LoginState, Queue<CompletableFuture<Transition>>> mWaiters = new EnumMap<>(LoginState.class);
+
+    private static final int SPLASH_SCREEN_CLOSED = 1;
+    private static final int NON_BROKERAGE_ACCOUNT_DIALOG_CLOSED = 2;
+    private static final int GATEWAY_READY = SPLASH_SCREEN_CLOSED | NON_BROKERAGE_ACCOUNT_DIALOG_CLOSED;
+    private final AtomicInteger mGatewayReadiness = new AtomicInteger();
+    private final CompletableFuture<Long> mReady = new CompletableFuture<>();
+
+    private SessionStateMachine() {
+        long now = System.currentTimeMillis();
+        long[] enteredTimes = new long[LoginState.values().length];
+        enteredTimes[LoginState.LOGGED_OUT.ordinal()] = now;
+        mCurrent = new AtomicReference<>(new Transition(0, LoginState.LOGGED_OUT, LoginState.LOGGED_OUT, now, enteredTimes));
+        for (LoginState s : LoginState.values()) mWaiters.put(s, new ConcurrentLinkedQueue<>());
+    }
+
+    Transition current() {
+        return mCurrent.get();
+    }
+
+    LoginState getState() {
+        return mCurrent.get().getState();
+    }
+
+    /**
+     * Changes the login state, if the transition table permits it.
+     * @param state
+     * the new state
+     * @return
+     * the transition made, or null if the state was already the requested
+     * state or the change is not permitted
+     */
+    Transition transition(LoginState state) {
+        Transition current;
+        Transition next;
+        do {
+            current = mCurrent.get();
+            if (current.getState() == state) return null;
+            if (!isPermitted(current.getState(), state)) {
+                Utils.logError("Login state change from " + current.getState() + " to " + state + " is not permitted: ignored");
+                return null;
+            }
+            long now = System.currentTimeMillis();
+            long[] enteredTimes = current.enteredTimes.clone();
+            enteredTimes[state.ordinal()] = now;
+            next = new Transition(current.getSequence() + 1, state, current.getState(), now, enteredTimes);
+        } while (!mCurrent.compareAndSet(current, next));
+
+        CompletableFuture<Transition> waiter;
+        Queue<CompletableFuture<Transition>> waiters = mWaiters.get(state);
+        while ((waiter = waiters.poll()) != null) waiter.complete(next);
+        return next;
+    }
+
+    /**
+     * Returns a future that completes when the login state is next one of the
+     * given states, or immediately if it already is.
+     *
+     * Dependent actions run on the thread that makes the transition unless an
+     * async variant is used, so they must not block.
+     * @param states
+     * the states of interest
+     * @return
+     * a future that completes with the transition into one of the states
+     */
+    CompletableFuture<Transition> onState(Set<LoginState> states) {
+        // a waiter registered for several states completes only once
+        CompletableFuture<Transition> waiter = new CompletableFuture<>();
+        for (LoginState s : states) mWaiters.get(s).add(waiter);
+        // check after registering, so that a concurrent transition cannot be missed
+        Transition current = mCurrent.get();
+        if (states.contains(current.getState())) waiter.complete(current);
+        if (waiter.isDone()) {
+            for (LoginState s : states) mWaiters.get(s).remove(waiter);
+        }
+        return waiter;
+    }
+
+    CompletableFuture<Transition> onState(LoginState state) {
+        return onState(EnumSet.of(state));
+    }
+
+    /**
+     * Records that TWS has finished initialising.
+     */
+    void setReady() {
+        if (mReady.complete(System.currentTimeMillis())) {
+            IbcStatus.update(IbcStatus::withInitialisationCompleted);
+        }
+    }
+
+    void setSplashScreenClosed() {
+        setGatewayReadiness(SPLASH_SCREEN_CLOSED);
+    }
+
+    void setNonBrokerageAccountDialogClosed() {
+        setGatewayReadiness(NON_BROKERAGE_ACCOUNT_DIALOG_CLOSED);
+    }
+
+    private void setGatewayReadiness(int condition) {
+        if (mGatewayReadiness.accumulateAndGet(condition, (a, b) -> a | b) == GATEWAY_READY) setReady();
+    }
+
+    boolean isReady() {
+        return mReady.isDone();
+    }
+
+    /**
+     * Returns a future that completes with the time at which TWS finished
+     * initialising.
+     * @return
+     * the future
+     */
+    CompletableFuture<Long> whenReady() {
+        return mReady.thenApply(t -> t);
+    }
+
+    /**
+     * Waits for TWS to finish initialising.
+     * @param timeout
+     * the maximum time to wait
+     * @param unit
+     * the unit of timeout
+     * @return
+     * true if TWS has finished initialising; false if the timeout elapsed
+     * @throws InterruptedException
+     * if the current thread was interrupted while waiting
+     */
+    boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+        try {
+            mReady.get(timeout, unit);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            // mReady is never completed exceptionally
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,578 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps a history of the TWS settings directory, so that it can be rolled back
+ * if a save is corrupted or a layout change stops TWS working.
+ *
+ * If SettingsSnapshots is set, a snapshot of the settings directory is taken
+ * SettingsSnapshotDelay seconds (default 10) after each successful save of the
+ * TWS settings by SaveTwsSettingsAt. Snapshots are kept in a content-addressed
+ * store in SettingsSnapshotDir (default ibc-snapshots in the settings
+ * directory):
+ *
+ *  - each distinct file content is stored once, gzipped, in objects/, named by
+ *    the SHA-256 hash of the content, and is shared by every snapshot that
+ *    contains it;
+ *
+ *  - each snapshot is a small text manifest in manifests/, listing the hash,
+ *    size, modification time and relative path of each file.
+ *
+ * A file whose size and modification time match the previous snapshot is not
+ * read again, and a snapshot identical to the previous one is not recorded, so
+ * frequent snapshots cost very little. Files whose names match any of the
+ * globs in SettingsSnapshotExclude (default *.log *.ibgzenc *.lck *.tmp
+ * ibc-login-history.txt ibc-status.bin segment-*.idx) are not included. IBC's
+ * own login history, status file and LogStore indexes are excluded because
+ * they change all the time and a restore must not rewind them.
+ *
+ * The most recent SettingsSnapshotKeep snapshots (default 20) are retained,
+ * plus the latest snapshot of each of the last SettingsSnapshotKeepDays days
+ * (default 7). Contents no longer used by any snapshot are then deleted.
+ *
+ * The RESTORE command lists the snapshots, or selects one to be restored. A
+ * restore can't safely be done while TWS is running, since TWS rewrites its
+ * settings when it exits, so it is applied when IBC next starts, before TWS is
+ * started: restoring is therefore normally followed by a cold restart (for
+ * example STOP). The settings directory is snapshotted before being restored,
+ * so a restore can itself be undone. Only the files recorded in the snapshot
+ * are restored: files created since then are left in place, since they may
+ * belong to IBC (for example its window event journal or restart
+ * coordination files) rather than to TWS.
+ */
+class SettingsSnapshotStore {
+
+    private static final SettingsSnapshotStore instance = new SettingsSnapshotStore();
+
+    static SettingsSnapshotStore getInstance() {
+        return instance;
+    }
+
+    private static final String MANIFEST_SUFFIX = ".manifest";
+    private static final String PENDING_RESTORE_FILE = "restore-pending";
+    private static final String ID_FORMAT = "yyyyMMdd-HHmmss-SSS";
+    // an id in ID_FORMAT: anything else, such as a path, is not a snapshot id
+    private static final Pattern ID_PATTERN = Pattern.compile("\\d{8}-\\d{6}-\\d{3}");
+    private static final String DAY_FORMAT = "yyyyMMdd";
+
+    /**
+     * A file recorded in a snapshot.
+     */
+    private static final class Entry {
+        final String hash;
+        final long size;
+        final long modified;
+        final String path;
+
+        Entry(String hash, long size, long modified, String path) {
+            this.hash = hash;
+            this.size = size;
+            this.modified = modified;
+            this.path = path;
+        }
+
+        boolean sameContentAs(Entry other) {
+            return other != null && hash.equals(other.hash) && modified == other.modified;
+        }
+
+        String toLine() {
+            return hash + " " + size + " " + modified + " " + path;
+        }
+
+        static Entry fromLine(String line) {
+            String[] fields = line.split(" ", 4);
+            return new Entry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3]);
+        }
+    }
+
+    private volatile boolean mInitialised;
+    private boolean mEnabled;
+    private Path mSettingsDir;
+    private Path mStoreDir;
+    private Path mObjectsDir;
+    private Path mManifestsDir;
+    private List<PathMatcher> mExclusions;
+    private int mDelay;
+    private int mKeep;
+    private int mKeepDays;
+
+    private SettingsSnapshotStore() {}
+
+    /**
+     * Prepares the store for the given settings directory, and applies any
+     * restore requested by a RESTORE command in a previous session. This must be
+     * called before TWS is started.
+     * @param settingsDirectory
+     * the TWS settings directory
+     */
+    synchronized void initialise(String settingsDirectory) {
+        mEnabled = Settings.settings().getBoolean("SettingsSnapshots", false);
+        if (!mEnabled) return;
+
+        mSettingsDir = Paths.get(settingsDirectory).toAbsolutePath().normalize();
+        mStoreDir = Paths.get(Settings.settings().getString("SettingsSnapshotDir",
+                mSettingsDir.resolve("ibc-snapshots").toString())).toAbsolutePath().normalize();
+        mObjectsDir = mStoreDir.resolve("objects");
+        mManifestsDir = mStoreDir.resolve("manifests");
+        mDelay = Math.max(0, Settings.settings().getInt("SettingsSnapshotDelay", 10));
+        mKeep = Math.max(1, Settings.settings().getInt("SettingsSnapshotKeep", 20));
+        mKeepDays = Math.max(0, Settings.settings().getInt("SettingsSnapshotKeepDays", 7));
+        mExclusions = new ArrayList<>();
+        for (String glob : Settings.settings().getString("SettingsSnapshotExclude", "*.log *.ibgzenc *.lck *.tmp ibc-login-history.txt ibc-status.bin segment-*.idx").split("[\\s,]+")) {
+            if (!glob.isEmpty()) mExclusions.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+        }
+
+        try {
+            Files.createDirectories(mObjectsDir);
+            Files.createDirectories(mManifestsDir);
+        } catch (IOException e) {
+            Utils.logError("Settings snapshots disabled: can't create " + mStoreDir + ": " + e.getMessage());
+            mEnabled = false;
+            return;
+        }
+        mInitialised = true;
+        Utils.logToConsole("Settings snapshots will be stored in " + mStoreDir);
+
+        applyPendingRestore();
+    }
+
+    /**
+     * Arranges for a snapshot to be taken once TWS has had time to finish
+     * writing its settings.
+     */
+    void snapshotAfterSave() {
+        if (!mInitialised) return;
+        MyScheduledExecutorService.getInstance().schedule(
+                () -> MyCachedThreadPool.getInstance().execute(() -> takeSnapshot("save")),
+                mDelay,
+                TimeUnit.SECONDS);
+    }
+
+    /**
+     * Records a snapshot of the settings directory, unless it is unchanged
+     * since the previous snapshot, and then applies the retention policy.
+     * @param reason
+     * why the snapshot was taken, for the manifest
+     * @return
+     * the id of the new snapshot, or of the previous one if nothing has changed
+     */
+    synchronized String takeSnapshot(String reason) {
+        try {
+            long start = System.currentTimeMillis();
+            String latestId = getLatestSnapshotId();
+            Map<String, Entry> previous = latestId == null ? Collections.emptyMap() : readManifest(latestId);
+
+            Map<String, Entry> entries = new LinkedHashMap<>();
+            int hashed = 0;
+            for (Path file : listSettingsFiles()) {
+                String path = relativePath(file);
+                long size = Files.size(file);
+                long modified = Files.getLastModifiedTime(file).toMillis();
+                Entry old = previous.get(path);
+                if (old != null && old.size == size && old.modified == modified && Files.exists(objectPath(old.hash))) {
+                    entries.put(path, old);
+                } else {
+                    entries.put(path, new Entry(storeObject(file), size, modified, path));
+                    hashed++;
+                }
+            }
+
+            if (latestId != null && sameEntries(entries, previous)) {
+                Utils.logToConsole("Settings snapshot not needed: no changes since " + latestId);
+                return latestId;
+            }
+
+            String id = newSnapshotId();
+            writeManifest(id, reason, entries);
+            Utils.logToConsole("Settings snapshot " + id + " taken: " + entries.size() + " files, " +
+                    hashed + " new or changed, in " + (System.currentTimeMillis() - start) + "ms");
+            applyRetentionPolicy();
+            return id;
+        } catch (IOException e) {
+            Utils.logError("Settings snapshot failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static boolean sameEntries(Map<String, Entry> a, Map<String, Entry> b) {
+        if (a.size() != b.size()) return false;
+        for (Entry e : a.values()) {
+            if (!e.sameContentAs(b.get(e.path))) return false;
+        }
+        return true;
+    }
+
+    private List<Path> listSettingsFiles() throws IOException {
+        try (Stream<Path> files = Files.walk(mSettingsDir)) {
+            return files
+                    .filter(p -> !p.startsWith(mStoreDir))
+                    .filter(Files::isRegularFile)
+                    .filter(p -> !isExcluded(p))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private boolean isExcluded(Path file) {
+        Path name = file.getFileName();
+        for (PathMatcher m : mExclusions) {
+            if (m.matches(name)) return true;
+        }
+        return false;
+    }
+
+    private String relativePath(Path file) {
+        return mSettingsDir.relativize(file).toString().replace('\\', '/');
+    }
+
+    private Path objectPath(String hash) {
+        return mObjectsDir.resolve(hash.substring(0, 2)).resolve(hash.substring(2));
+    }
+
+    /*
+     * Copies the file into the store, computing its hash as it is read, and
+     * returns the hash. If the store already holds that content, the copy is
+     * discarded.
+     */
+    private String storeObject(Path file) throws IOException {
+        Path temp = Files.createTempFile(mObjectsDir, "new", ".tmp");
+        try {
+            MessageDigest digest = newDigest();
+            try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest);
+                    OutputStream out = new GZIPOutputStream(Files.newOutputStream(temp))) {
+                in.transferTo(out);
+            }
+            String hash = toHex(digest.digest());
+            Path target = objectPath(hash);
+            if (!Files.exists(target)) {
+                Files.createDirectories(target.getParent());
+                moveIntoPlace(temp, target);
+            }
+            return hash;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void moveIntoPlace(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        return sb.toString();
+    }
+
+    private String newSnapshotId() {
+        String id = new SimpleDateFormat(ID_FORMAT).format(new Date());
+        // ids must be unique and must sort in order of creation
+        String latest = getLatestSnapshotId();
+        while (latest != null && id.compareTo(latest) <= 0) {
+            Utils.pause(1);
+            id = new SimpleDateFormat(ID_FORMAT).format(new Date());
+        }
+        return id;
+    }
+
+    private Path manifestPath(String id) {
+        return mManifestsDir.resolve(id + MANIFEST_SUFFIX);
+    }
+
+    private void writeManifest(String id, String reason, Map<String, Entry> entries) throws IOException {
+        Path temp = Files.createTempFile(mManifestsDir, id, ".tmp");
+        try {
+            try (BufferedWriter w = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                w.write("# IBC settings snapshot " + id + " reason=" + reason);
+                w.newLine();
+                for (Entry e : entries.values()) {
+                    w.write(e.toLine());
+                    w.newLine();
+                }
+            }
+            moveIntoPlace(temp, manifestPath(id));
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private Map<String, Entry> readManifest(String id) throws IOException {
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(manifestPath(id), StandardCharsets.UTF_8)) {
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            Entry e = Entry.fromLine(line);
+            entries.put(e.path, e);
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the ids of the recorded snapshots.
+     * @return
+     * the ids, oldest first
+     */
+    synchronized List<String> getSnapshotIds() {
+        List<String> ids = new ArrayList<>();
+        try (Stream<Path> files = Files.list(mManifestsDir)) {
+            files.map(p -> p.getFileName().toString())
+                    .filter(n -> n.endsWith(MANIFEST_SUFFIX))
+                    .map(n -> n.substring(0, n.length() - MANIFEST_SUFFIX.length()))
+                    .sorted()
+                    .forEach(ids::add);
+        } catch (IOException e) {
+            Utils.logError("Can't list settings snapshots: " + e.getMessage());
+        }
+        return ids;
+    }
+
+    private String getLatestSnapshotId() {
+        List<String> ids = getSnapshotIds();
+        return ids.isEmpty() ? null : ids.get(ids.size() - 1);
+    }
+
+    private void applyRetentionPolicy() throws IOException {
+        List<String> ids = getSnapshotIds();
+        Set<String> retained = new HashSet<>(ids.subList(Math.max(0, ids.size() - mKeep), ids.size()));
+
+        // the latest snapshot of each of the last mKeepDays days
+        SimpleDateFormat dayFormat = new SimpleDateFormat(DAY_FORMAT);
+        Set<String> days = new HashSet<>();
+        for (int i = 0; i < mKeepDays; i++) {
+            days.add(dayFormat.format(new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(i))));
+        }
+        Set<String> daysSeen = new HashSet<>();
+        for (int i = ids.size() - 1; i >= 0; i--) {
+            String day = ids.get(i).substring(0, DAY_FORMAT.length());
+            if (days.contains(day) && daysSeen.add(day)) retained.add(ids.get(i));
+        }
+
+        String pending = getPendingRestore();
+        if (pending != null) retained.add(pending);
+
+        boolean deleted = false;
+        for (String id : ids) {
+            if (retained.contains(id)) continue;
+            Files.deleteIfExists(manifestPath(id));
+            deleted = true;
+        }
+        if (deleted) deleteUnreferencedObjects();
+    }
+
+    private void deleteUnreferencedObjects() throws IOException {
+        Set<String> referenced = new HashSet<>();
+        for (String id : getSnapshotIds()) {
+            for (Entry e : readManifest(id).values()) referenced.add(e.hash);
+        }
+
+        int count = 0;
+        List<Path> objects;
+        try (Stream<Path> files = Files.walk(mObjectsDir)) {
+            objects = files.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        for (Path object : objects) {
+            if (object.getParent().equals(mObjectsDir)) continue;     // temporary files
+            String hash = object.getParent().getFileName().toString() + object.getFileName().toString();
+            if (referenced.contains(hash)) continue;
+            Files.deleteIfExists(object);
+            count++;
+        }
+        if (count != 0) Utils.logToConsole("Settings snapshots: deleted " + count + " unused files");
+    }
+
+    /**
+     * Returns a description of each snapshot, for the RESTORE command.
+     * @return
+     * the descriptions, oldest first
+     */
+    synchronized List<String> describeSnapshots() {
+        List<String> descriptions = new ArrayList<>();
+        for (String id : getSnapshotIds()) {
+            try {
+                Map<String, Entry> entries = readManifest(id);
+                long bytes = 0;
+                for (Entry e : entries.values()) bytes += e.size;
+                descriptions.add(id + " files=" + entries.size() + " bytes=" + bytes);
+            } catch (IOException e) {
+                descriptions.add(id + " unreadable");
+            }
+        }
+        return descriptions;
+    }
+
+    boolean isAvailable() {
+        return mInitialised;
+    }
+
+    /**
+     * Selects a snapshot to be restored when IBC next starts.
+     * @param id
+     * the snapshot id, or LATEST
+     * @return
+     * the id of the selected snapshot
+     * @throws IbcException
+     * no such snapshot exists
+     */
+    synchronized String requestRestore(String id) throws IbcException {
+        if (id.equalsIgnoreCase("LATEST")) {
+            id = getLatestSnapshotId();
+            if (id == null) throw new IbcException("no snapshots");
+        } else if (!ID_PATTERN.matcher(id).matches()) {
+            throw new IbcException("invalid snapshot id: " + id);
+        } else if (!Files.isRegularFile(manifestPath(id))) {
+            throw new IbcException("no such snapshot: " + id);
+        }
+        try {
+            Files.write(mStoreDir.resolve(PENDING_RESTORE_FILE), id.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new IbcException("can't record restore request: " + e.getMessage());
+        }
+        Utils.logToConsole("Settings snapshot " + id + " will be restored when IBC next starts");
+        return id;
+    }
+
+    synchronized boolean cancelRestore() {
+        try {
+            return Files.deleteIfExists(mStoreDir.resolve(PENDING_RESTORE_FILE));
+        } catch (IOException e) {
+            Utils.logError("Can't cancel settings restore: " + e.getMessage());
+            return false;
+        }
+    }
+
+    synchronized String getPendingRestore() {
+        try {
+            return new String(Files.readAllBytes(mStoreDir.resolve(PENDING_RESTORE_FILE)), StandardCharsets.UTF_8).trim();
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            Utils.logError("Can't read settings restore request: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void applyPendingRestore() {
+        String id = getPendingRestore();
+        if (id == null) return;
+        if (!ID_PATTERN.matcher(id).matches()) {
+            Utils.logError("Invalid settings snapshot id in restore request: " + id);
+            cancelRestore();
+            return;
+        }
+
+        Utils.logToConsole("Restoring settings snapshot " + id);
+        try {
+            Map<String, Entry> entries = readManifest(id);
+            takeSnapshot("before restore of " + id);
+
+            int restored = 0;
+            for (Entry e : entries.values()) {
+                Path target = mSettingsDir.resolve(e.path).normalize();
+                if (!target.startsWith(mSettingsDir)) throw new IOException("invalid path in snapshot: " + e.path);
+                if (isUnchanged(target, e)) continue;
+                restoreFile(e, target);
+                restored++;
+            }
+
+            // files that are not in the snapshot are not deleted, because
+            // IBC's own files in the settings directory would be among them
+            int notInSnapshot = 0;
+            for (Path file : listSettingsFiles()) {
+                if (!entries.containsKey(relativePath(file))) notInSnapshot++;
+            }
+            Utils.logToConsole("Restored settings snapshot " + id + ": " + restored + " files restored, " + notInSnapshot + " files not in the snapshot left in place");
+        } catch (IOException e) {
+            Utils.logError("Failed to restore settings snapshot " + id + ": " + e.getMessage());
+        } finally {
+            // the snapshot is protected from the retention policy until now;
+            // whatever happened, the restore is only attempted once
+            cancelRestore();
+        }
+    }
+
+    private boolean isUnchanged(Path file, Entry e) throws IOException {
+        if (!Files.isRegularFile(file) || Files.size(file) != e.size) return false;
+        MessageDigest digest = newDigest();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return toHex(digest.digest()).equals(e.hash);
+    }
+
+    private void restoreFile(Entry e, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), "restore", ".tmp");
+        try {
+            try (InputStream in = new GZIPInputStream(Files.newInputStream(objectPath(e.hash)));
+                    OutputStream out = Files.newOutputStream(temp)) {
+                in.transferTo(out);
+            }
+            Files.setLastModifiedTime(temp, FileTime.fromMillis(e.modified));
+            moveIntoPlace(temp, target);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc;
+
+import java.awt.Window;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Puts a hard upper bound on the time taken to shut down.
+ *
+ * A shutdown passes through these phases, each of which is timed:
+ *
+ *  - REQUESTED: StopTask has started the shutdown;
+ *  - MENU_INVOKED: the File > Exit (or File > Close) menu item has been clicked;
+ *  - EXIT_CONFIRMED: the exit confirmation dialog has been answered;
+ *  - SHUTDOWN_PROGRESS: TWS has displayed its shutdown progress dialog;
+ *  - EXIT_HOOKS: the JVM has started running its shutdown hooks.
+ *
+ * If the JVM has not started to exit within ShutdownDeadline seconds (default
+ * 90) of the request, IBC escalates: at half the deadline it disposes all
+ * windows, at three quarters it calls System.exit, and at the deadline itself
+ * (which also applies to the shutdown hooks) it halts the JVM with exit code
+ * SHUTDOWN_DEADLINE_EXCEEDED.
+ *
+ * Each phase is published as a SHUTDOWN_PHASE event, with detail:
+ *
+ *      phase=<phase> elapsed=<milliseconds since the request>
+ *
+ * followed, when the JVM exits, by one with phase=COMPLETE and the timings of
+ * all the phases. The events are also written (as EVENT lines, so that they
+ * are distinct from command replies) to the client that requested the
+ * shutdown, if any. The same information is logged.
+ *
+ * The watchdog runs on its own thread, since the shutdown progress dialog
+ * causes IBC's executors to be shut down.
+ */
+class ShutdownCoordinator {
+
+    private static final ShutdownCoordinator instance = new ShutdownCoordinator();
+
+    static ShutdownCoordinator getInstance() {
+        return instance;
+    }
+
+    enum Phase {
+        REQUESTED,
+        MENU_INVOKED,
+        EXIT_CONFIRMED,
+        SHUTDOWN_PROGRESS,
+        DISPOSE_WINDOWS,
+        SYSTEM_EXIT,
+        EXIT_HOOKS,
+        HALT
+    }
+
+    private long mStartTime;
+    private CommandChannel mChannel;
+    private final List<String> mTimings = new ArrayList<>();
+    private final EnumSet<Phase> mPhasesReached = EnumSet.noneOf(Phase.class);
+    private volatile boolean mExiting;
+
+    private ShutdownCoordinator() {}
+
+    /**
+     * Starts timing a shutdown, and starts the watchdog that enforces the
+     * deadline.
+     * @param reason
+     * the reason for the shutdown
+     * @param channel
+     * the channel to report progress to, or null
+     */
+    void begin(String reason, CommandChannel channel) {
+        final long deadline = TimeUnit.SECONDS.toMillis(Math.max(1, Settings.settings().getInt("ShutdownDeadline", 90)));
+        synchronized (this) {
+            if (mStartTime != 0) return;
+            mStartTime = System.currentTimeMillis();
+            mChannel = channel;
+        }
+        Utils.logToConsole("Shutdown deadline is " + TimeUnit.MILLISECONDS.toSeconds(deadline) + " seconds");
+        phase(Phase.REQUESTED, reason);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            mExiting = true;
+            phase(Phase.EXIT_HOOKS, "");
+            report(IbcEventBus.getInstance().publish(IbcEvent.Type.SHUTDOWN_PHASE,
+                                                     "phase=COMPLETE timings=" + IbcEvent.quote(getSummary())));
+        }, "IBC-shutdown-report"));
+
+        Thread watchdog = new Thread(() -> watch(deadline), "IBC-shutdown-watchdog");
+        watchdog.setDaemon(true);
+        watchdog.start();
+    }
+
+    /**
+     * Records that a phase has been reached.
+     * @param phase
+     * the phase
+     * @param detail
+     * additional information, or ""
+     */
+    void phase(Phase phase, String detail) {
+        long elapsed;
+        synchronized (this) {
+            if (mStartTime == 0 || !mPhasesReached.add(phase)) return;
+            elapsed = System.currentTimeMillis() - mStartTime;
+            mTimings.add(phase + " +" + elapsed + "ms");
+        }
+        Utils.logToConsole("Shutdown phase " + phase + " +" + elapsed + "ms" + (detail.isEmpty() ? "" : ": " + detail));
+        report(IbcEventBus.getInstance().publish(IbcEvent.Type.SHUTDOWN_PHASE, "phase=" + phase + " elapsed=" + elapsed));
+    }
+
+    private synchronized String getSummary() {
+        return String.join(" ", mTimings);
+    }
+
+    private void report(IbcEvent event) {
+        CommandChannel channel;
+        synchronized (this) {
+            channel = mChannel;
+        }
+        if (channel != null && !channel.writeEvent(event.toLine())) {
+            synchronized (this) {
+                mChannel = null;
+            }
+        }
+    }
+
+    private void watch(long deadline) {
+        // daemon threads keep running while the shutdown hooks run, so the
+        // deadline is enforced until the JVM actually terminates; the earlier
+        // steps are skipped once the JVM has started to exit
+
+        sleepUntil(deadline / 2);
+        if (!mExiting) {
+            phase(Phase.DISPOSE_WINDOWS, "shutdown has not completed within " + deadline / 2 + "ms");
+            GuiExecutor.instance().execute(() -> {
+                for (Window window : Window.getWindows()) window.dispose();
+            });
+        }
+
+        sleepUntil(deadline * 3 / 4);
+        if (!mExiting) {
+            phase(Phase.SYSTEM_EXIT, "shutdown has not completed within " + deadline * 3 / 4 + "ms");
+            // System.exit blocks until the shutdown hooks have run, so it is
+            // called on another thread to leave this one free to enforce the deadline
+            Thread exitThread = new Thread(() -> System.exit(0), "IBC-shutdown-exit");
+            exitThread.setDaemon(true);
+            exitThread.start();
+        }
+
+        sleepUntil(deadline);
+        phase(Phase.HALT, "shutdown has not completed within " + deadline + "ms");
+        Utils.logError("Halting: shutdown took too long: " + getSummary());
+        Runtime.getRuntime().halt(ErrorCodes.SHUTDOWN_DEADLINE_EXCEEDED);
+    }
+
+    private void sleepUntil(long elapsed) {
+        long wakeTime = mStartTime + elapsed;
+        long now;
+        while ((now = System.currentTimeMillis()) < wakeTime) {
+            try {
+                Thread.sleep(wakeTime - now);
+            } catch (InterruptedException e) {
+                // keep waiting: nothing else can enforce the deadline
+            }
+        }
+    }
+}
@@ -33,9 +33,11 @@ public class ShutdownProgressDialogHandler implements WindowHandler {
     }
 
     public void handleWindow(Window window, int eventID) {
+        ShutdownCoordinator.getInstance().phase(ShutdownCoordinator.Phase.SHUTDOWN_PROGRESS, "");
         MyCachedThreadPool.getInstance().shutdownNow();
         MyScheduledExecutorService.getInstance().shutdownNow();
         CommandServer.commandServer().shutdown();
+        ApiProxy.getInstance().shutdown();
     }
 
     public boolean recogniseWindow(Window window) {
@@ -0,0 +1,344 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Maintains a small memory-mapped file describing IBC's state, so that local
+ * monitors can read it without connecting to the command server and without
+ * involving any IBC thread.
+ *
+ * The file is named by the StatusFile setting (default ibc-status.bin, relative
+ * to the TWS settings directory; empty to disable). It is 256 bytes long and
+ * little-endian, with this layout:
+ *
+ *      offset  size  content
+ *        0      8    magic: "IBCSTAT" followed by a zero byte
+ *        8      4    layout version (1)
+ *       12      4    file size (256)
+ *       16      8    sequence: odd while an update is in progress
+ *       24      8    process id
+ *       32      8    IBC start time (milliseconds since the epoch)
+ *       40      8    time of the last state change
+ *       48      4    login state (ordinal of LoginManager.LoginState)
+ *       52      4    flags (see the FLAG_ constants)
+ *       56      8    time the login state last changed
+ *       64      8    time of IBC's next shutdown (ClosedownAt/ColdRestartTime), or 0
+ *       72      8    time the API readiness last changed
+ *       80      8    time of the last IbcEvent
+ *       88      8    number of IbcEvents published
+ *       96      4    configuration tasks in progress
+ *      100      4    reserved
+ *      104      8    window events handled
+ *      112      8    window events for unrecognised windows
+ *      120      8    login attempts
+ *      128     32    shutdown kind (ASCII, zero padded)
+ *      160     32    restart kind (ASCII, zero padded)
+ *      192     32    restart time (ASCII, zero padded)
+ *      224     32    login state name (ASCII, zero padded)
+ *
+ * Updates follow the seqlock protocol: the writer increments the sequence to
+ * an odd value, writes the fields, then increments it to an even value. A
+ * reader reads the sequence, then the fields, then the sequence again, and
+ * retries if the two sequence values differ or are odd.
+ */
+class StatusFile {
+
+    static final int FLAG_SESSION_STARTED = 1;
+    static final int FLAG_GATEWAY = 1 << 1;
+    static final int FLAG_FIX = 1 << 2;
+    static final int FLAG_RESTART = 1 << 3;
+    static final int FLAG_INITIALISATION_COMPLETED = 1 << 4;
+    static final int FLAG_MAIN_WINDOW = 1 << 5;
+    static final int FLAG_CONFIG_DIALOG_OPEN = 1 << 6;
+    static final int FLAG_CONFIGURATION_COMPLETED = 1 << 7;
+    static final int FLAG_SHUTDOWN_IN_PROGRESS = 1 << 8;
+    static final int FLAG_API_READY = 1 << 9;
+
+    private static final byte[] MAGIC = "IBCSTAT\0".getBytes(StandardCharsets.US_ASCII);
+    private static final int LAYOUT_VERSION = 1;
+    private static final int SIZE = 256;
+    private static final int STRING_SIZE = 32;
+
+    private static final int OFFSET_SEQUENCE = 16;
+    private static final int OFFSET_PID = 24;
+    private static final int OFFSET_START_TIME = 32;
+    private static final int OFFSET_UPDATE_TIME = 40;
+    private static final int OFFSET_LOGIN_STATE = 48;
+    private static final int OFFSET_FLAGS = 52;
+    private static final int OFFSET_LOGIN_STATE_TIME = 56;
+    private static final int OFFSET_SHUTDOWN_TIME = 64;
+    private static final int OFFSET_API_READY_TIME = 72;
+    private static final int OFFSET_LAST_EVENT_TIME = 80;
+    private static final int OFFSET_EVENT_COUNT = 88;
+    private static final int OFFSET_CONFIG_TASKS = 96;
+    private static final int OFFSET_WINDOWS_HANDLED = 104;
+    private static final int OFFSET_WINDOWS_UNKNOWN = 112;
+    private static final int OFFSET_LOGIN_ATTEMPTS = 120;
+    private static final int OFFSET_SHUTDOWN_KIND = 128;
+    private static final int OFFSET_RESTART_KIND = 160;
+    private static final int OFFSET_RESTART_TIME = 192;
+    private static final int OFFSET_LOGIN_STATE_NAME = 224;
+
+    // gives the sequence the memory ordering that the seqlock protocol relies on
+    private static final VarHandle LONG_VIEW = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final StatusFile instance = new StatusFile();
+
+    static StatusFile getInstance() {
+        return instance;
+    }
+
+    private MappedByteBuffer mBuffer;
+    private long mSequence;
+
+    private final AtomicLong mLastEventTime = new AtomicLong();
+    private final AtomicLong mEventCount = new AtomicLong();
+    private final AtomicLong mWindowsHandled = new AtomicLong();
+    private final AtomicLong mWindowsUnknown = new AtomicLong();
+    private final AtomicLong mLoginAttempts = new AtomicLong();
+
+    private StatusFile() {}
+
+    /**
+     * Creates the status file, if one is required, and writes the current
+     * state to it.
+     * @param settingsDirectory
+     * the TWS settings directory
+     */
+    synchronized void initialise(String settingsDirectory) {
+        if (mBuffer != null) return;
+        String name = Settings.settings().getString("StatusFile", "ibc-status.bin");
+        if (name.isEmpty()) return;
+        File file = new File(name);
+        if (!file.isAbsolute()) file = new File(settingsDirectory, name);
+
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                                                    StandardOpenOption.CREATE,
+                                                    StandardOpenOption.READ,
+                                                    StandardOpenOption.WRITE)) {
+            // the mapping remains valid after the channel is closed
+            channel.truncate(SIZE);
+            mBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+        } catch (IOException e) {
+            Utils.logError("Can't create status file " + file + ": " + e.getMessage());
+            return;
+        }
+        mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        // the file may be left over from a previous run: make it consistent
+        // before a reader can see the new header
+        mSequence = (readSequence(mBuffer) + 1) | 1;
+        LONG_VIEW.setRelease(mBuffer, OFFSET_SEQUENCE, mSequence);
+        byte[] zeros = new byte[SIZE];
+        mBuffer.put(0, zeros, 0, OFFSET_SEQUENCE);
+        mBuffer.put(OFFSET_SEQUENCE + 8, zeros, 0, SIZE - OFFSET_SEQUENCE - 8);
+        mBuffer.put(0, MAGIC);
+        mBuffer.putInt(8, LAYOUT_VERSION);
+        mBuffer.putInt(12, SIZE);
+        mBuffer.putLong(OFFSET_PID, ProcessHandle.current().pid());
+        writeState(IbcStatus.current());
+        writeCounters();
+        mSequence++;
+        LONG_VIEW.setRelease(mBuffer, OFFSET_SEQUENCE, mSequence);
+        Utils.logToConsole("Status file is " + file);
+    }
+
+    /**
+     * Writes the current IbcStatus to the file. The latest snapshot is written,
+     * rather than one passed by the caller, so that concurrent updates cannot
+     * leave an older snapshot in the file.
+     */
+    void stateChanged() {
+        if (mBuffer == null) return;
+        synchronized (this) {
+            beginWrite();
+            writeState(IbcStatus.current());
+            endWrite();
+        }
+    }
+
+    void eventPublished(long time) {
+        mLastEventTime.accumulateAndGet(time, Math::max);
+        mEventCount.incrementAndGet();
+        countersChanged();
+    }
+
+    void windowEventDispatched(boolean handled) {
+        (handled ? mWindowsHandled : mWindowsUnknown).incrementAndGet();
+        countersChanged();
+    }
+
+    void loginAttempted() {
+        mLoginAttempts.incrementAndGet();
+        countersChanged();
+    }
+
+    private void countersChanged() {
+        if (mBuffer == null) return;
+        synchronized (this) {
+            beginWrite();
+            writeCounters();
+            endWrite();
+        }
+    }
+
+    private void beginWrite() {
+        mSequence++;
+        LONG_VIEW.setRelease(mBuffer, OFFSET_SEQUENCE, mSequence);
+        // the odd sequence must be visible before any of the fields change
+        VarHandle.storeStoreFence();
+    }
+
+    private void endWrite() {
+        mSequence++;
+        LONG_VIEW.setRelease(mBuffer, OFFSET_SEQUENCE, mSequence);
+    }
+
+    private void writeState(IbcStatus s) {
+        mBuffer.putLong(OFFSET_START_TIME, s.getStartTime());
+        mBuffer.putLong(OFFSET_UPDATE_TIME, s.getUpdateTime());
+        mBuffer.putInt(OFFSET_LOGIN_STATE, s.getLoginState().ordinal());
+        mBuffer.putInt(OFFSET_FLAGS, getFlags(s));
+        mBuffer.putLong(OFFSET_LOGIN_STATE_TIME, s.getLoginStateTime());
+        mBuffer.putLong(OFFSET_SHUTDOWN_TIME, s.getShutdownTime());
+        mBuffer.putLong(OFFSET_API_READY_TIME, s.getApiReadyTime());
+        mBuffer.putInt(OFFSET_CONFIG_TASKS, s.getConfigTasksInProgress());
+        putString(OFFSET_SHUTDOWN_KIND, s.getShutdownKind());
+        putString(OFFSET_RESTART_KIND, s.getRestartKind());
+        putString(OFFSET_RESTART_TIME, s.getRestartTime());
+        putString(OFFSET_LOGIN_STATE_NAME, s.getLoginState().toString());
+    }
+
+    private void writeCounters() {
+        mBuffer.putLong(OFFSET_LAST_EVENT_TIME, mLastEventTime.get());
+        mBuffer.putLong(OFFSET_EVENT_COUNT, mEventCount.get());
+        mBuffer.putLong(OFFSET_WINDOWS_HANDLED, mWindowsHandled.get());
+        mBuffer.putLong(OFFSET_WINDOWS_UNKNOWN, mWindowsUnknown.get());
+        mBuffer.putLong(OFFSET_LOGIN_ATTEMPTS, mLoginAttempts.get());
+    }
+
+    private static int getFlags(IbcStatus s) {
+        int flags = 0;
+        if (s.isSessionStarted()) flags |= FLAG_SESSION_STARTED;
+        if (s.isGateway()) flags |= FLAG_GATEWAY;
+        if (s.isFIX()) flags |= FLAG_FIX;
+        if (s.isRestart()) flags |= FLAG_RESTART;
+        if (s.isInitialisationCompleted()) flags |= FLAG_INITIALISATION_COMPLETED;
+        if (s.isMainWindowAvailable()) flags |= FLAG_MAIN_WINDOW;
+        if (s.isConfigDialogOpen()) flags |= FLAG_CONFIG_DIALOG_OPEN;
+        if (s.isConfigurationCompleted()) flags |= FLAG_CONFIGURATION_COMPLETED;
+        if (s.isShutdownInProgress()) flags |= FLAG_SHUTDOWN_IN_PROGRESS;
+        if (s.isApiReady()) flags |= FLAG_API_READY;
+        return flags;
+    }
+
+    private void putString(int offset, String value) {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.US_ASCII);
+        int length = Math.min(bytes.length, STRING_SIZE - 1);
+        mBuffer.put(offset, bytes, 0, length);
+        for (int i = offset + length; i < offset + STRING_SIZE; i++) mBuffer.put(i, (byte) 0);
+    }
+
+    private static long readSequence(ByteBuffer buffer) {
+        return (long) LONG_VIEW.getAcquire(buffer, OFFSET_SEQUENCE);
+    }
+
+    /**
+     * Reads a consistent snapshot of a status file, as a local monitor would.
+     * @param buffer
+     * the mapped file
+     * @return
+     * the fields, by name
+     */
+    static Map<String, Object> read(ByteBuffer buffer) {
+        ByteBuffer b = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        while (true) {
+            long before = readSequence(b);
+            if ((before & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("version", b.getInt(8));
+            m.put("sequence", before);
+            m.put("pid", b.getLong(OFFSET_PID));
+            m.put("startTime", b.getLong(OFFSET_START_TIME));
+            m.put("updateTime", b.getLong(OFFSET_UPDATE_TIME));
+            m.put("loginState", getString(b, OFFSET_LOGIN_STATE_NAME));
+            m.put("flags", Integer.toHexString(b.getInt(OFFSET_FLAGS)));
+            m.put("loginStateTime", b.getLong(OFFSET_LOGIN_STATE_TIME));
+            m.put("shutdownKind", getString(b, OFFSET_SHUTDOWN_KIND));
+            m.put("shutdownTime", b.getLong(OFFSET_SHUTDOWN_TIME));
+            m.put("restartKind", getString(b, OFFSET_RESTART_KIND));
+            m.put("restartTime", getString(b, OFFSET_RESTART_TIME));
+            m.put("apiReadyTime", b.getLong(OFFSET_API_READY_TIME));
+            m.put("configTasksInProgress", b.getInt(OFFSET_CONFIG_TASKS));
+            m.put("lastEventTime", b.getLong(OFFSET_LAST_EVENT_TIME));
+            m.put("eventCount", b.getLong(OFFSET_EVENT_COUNT));
+            m.put("windowsHandled", b.getLong(OFFSET_WINDOWS_HANDLED));
+            m.put("windowsUnknown", b.getLong(OFFSET_WINDOWS_UNKNOWN));
+            m.put("loginAttempts", b.getLong(OFFSET_LOGIN_ATTEMPTS));
+            // the field reads must complete before the sequence is re-read
+            VarHandle.loadLoadFence();
+            if (readSequence(b) == before) return m;
+        }
+    }
+
+    private static String getString(ByteBuffer b, int offset) {
+        int length = 0;
+        while (length < STRING_SIZE && b.get(offset + length) != 0) length++;
+        byte[] bytes = new byte[length];
+        b.get(offset, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Prints the content of a status file.
+     * @param args
+     * the path of the status file
+     * @throws IOException
+     * if the file cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: StatusFile <path>");
+            System.exit(1);
+        }
+        try (FileChannel channel = FileChannel.open(new File(args[0]).toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, SIZE);
+            for (Map.Entry<String, Object> e : read(buffer).entrySet()) {
+                System.out.println(e.getKey() + "=" + e.getValue());
+            }
+        }
+    }
+}
@@ -41,10 +41,11 @@ class StopTask
         if (! _Running.set()) {
             Utils.logToConsole("STOP already in progress");
             writeNack("STOP already in progress");
-            mChannel.close();
+            if (mChannel != null) mChannel.close();
             return;
         }
 
+        IbcStatus.update(IbcStatus::withShutdownInProgress);
         try {
             writeInfo("Closing IBC");
             if (mForceColdRestart) createColdRestartFlagFile();
@@ -75,7 +76,9 @@ class StopTask
     private void stop(String reason) {
         try {
             writeAck("Shutting down: " + reason);
-            if (mChannel != null) mChannel.close();
+            // the channel is left open so that the shutdown coordinator can report
+            // the timing of each phase: it is closed when the JVM exits
+            ShutdownCoordinator.getInstance().begin(reason, mChannel);
             if (LoginManager.loginManager().getLoginState() != LoginManager.LoginState.LOGGED_IN) {
                 CommandServer.commandServer().shutdown();
                 Utils.logToConsole("Login has not completed: exiting immediately");
@@ -84,6 +87,7 @@ class StopTask
                 String[] closeMenuPath = SessionManager.isGateway() ? new String[] {"File", "Close"} : new String[] {"File", "Exit"};
                 Utils.logToConsole("Login has completed: exiting via " + Arrays.deepToString(closeMenuPath) + " menu");
                 Utils.invokeMenuItem(MainWindowManager.mainWindowManager().getMainWindow(), closeMenuPath);
+                ShutdownCoordinator.getInstance().phase(ShutdownCoordinator.Phase.MENU_INVOKED, Arrays.deepToString(closeMenuPath));
             }
             
         } catch (IllegalStateException e) {
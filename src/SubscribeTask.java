@@ -0,0 +1,121 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams IbcEvents to a command channel until the client disconnects.
+ *
+ * Command syntax:
+ *
+ *      SUBSCRIBE [<type>[,<type>]...]
+ *
+ * where each type is one of the IbcEvent.Type names. If no types are given, all
+ * events are streamed. A HEARTBEAT event is sent whenever no other event has
+ * been sent for the SubscriptionHeartbeatInterval (in seconds, default 30): this
+ * is how a disconnected client is detected.
+ */
+class SubscribeTask
+        implements Runnable {
+
+    private final CommandChannel mChannel;
+    private final Set<IbcEvent.Type> mTypes;
+    private final String mArgumentError;
+
+    SubscribeTask(final CommandChannel channel, final String arguments) {
+        mChannel = channel;
+        Set<IbcEvent.Type> types = null;
+        String error = null;
+        try {
+            types = parseTypes(arguments);
+        } catch (IllegalArgumentException e) {
+            error = e.getMessage();
+        }
+        mTypes = types;
+        mArgumentError = error;
+    }
+
+    boolean argumentsValid() {
+        return mArgumentError == null;
+    }
+
+    @Override
+    public void run() {
+        if (!argumentsValid()) {
+            mChannel.writeNack(mArgumentError);
+            return;
+        }
+
+        final Set<IbcEvent.Type> types = mTypes;
+        final int heartbeatInterval = Math.max(1, Settings.settings().getInt("SubscriptionHeartbeatInterval", 30));
+        final IbcEventBus bus = IbcEventBus.getInstance();
+        final IbcEventBus.Subscription subscription = bus.subscribe(types);
+
+        Utils.logToConsole("CommandServer: subscription started for " + (types.isEmpty() ? "all events" : types.toString()));
+        try {
+            mChannel.writeAck("subscribed");
+            if (!writeStickyEvents(subscription)) return;
+
+            while (true) {
+                IbcEvent event = subscription.poll(heartbeatInterval, TimeUnit.SECONDS);
+
+                int dropped = subscription.takeDroppedCount();
+                if (dropped != 0) {
+                    // the event just taken is as stale as those discarded
+                    if (event != null) dropped++;
+                    if (!mChannel.writeEvent(bus.createEvent(IbcEvent.Type.DROPPED, "count=" + dropped).toLine())) break;
+                    if (!writeStickyEvents(subscription)) break;
+                    continue;
+                }
+
+                if (event == null) event = bus.createEvent(IbcEvent.Type.HEARTBEAT, "");
+                if (!mChannel.writeEvent(event.toLine())) break;
+            }
+        } catch (InterruptedException e) {
+            // the command server is shutting down
+        } finally {
+            bus.unsubscribe(subscription);
+            Utils.logToConsole("CommandServer: subscription ended");
+        }
+    }
+
+    private boolean writeStickyEvents(IbcEventBus.Subscription subscription) {
+        for (IbcEvent event : IbcEventBus.getInstance().getLatestStickyEvents()) {
+            if (!subscription.getTypes().contains(event.getType())) continue;
+            if (!mChannel.writeEvent(event.toLine())) return false;
+        }
+        return true;
+    }
+
+    private static Set<IbcEvent.Type> parseTypes(String arguments) throws IllegalArgumentException {
+        Set<IbcEvent.Type> types = EnumSet.noneOf(IbcEvent.Type.class);
+        if (arguments == null || arguments.trim().isEmpty()) return types;
+        for (String name : arguments.trim().split("[\\s,]+")) {
+            try {
+                types.add(IbcEvent.Type.valueOf(name.toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("unknown event type: " + name);
+            }
+        }
+        return types;
+    }
+}
@@ -90,12 +90,13 @@ class SwingUtils {
      *  the button, if was found;  otherwise null
      */
     static JButton findButton(Container container, String text) {
+        JfrEvents.FinderEvent jfr = JfrEvents.beginFind();
         ComponentIterator iter = new ComponentIterator(container);
         while (iter.hasNext()) {
             Component component = iter.next();
-            if (component instanceof JButton && text.equalsIgnoreCase(((JButton)component).getText())) return (JButton)component;
+            if (component instanceof JButton && text.equalsIgnoreCase(((JButton)component).getText())) return JfrEvents.endFind(jfr, "findButton", text, iter, (JButton)component);
         }
-        return null;
+        return JfrEvents.endFind(jfr, "findButton", text, iter, null);
     }
 
     /**
@@ -109,12 +110,13 @@ class SwingUtils {
      *  the checkbox, if it was found;  otherwise null
      */
     static JCheckBox findCheckBox(Container container, String text) {
+        JfrEvents.FinderEvent jfr = JfrEvents.beginFind();
         ComponentIterator iter = new ComponentIterator(container);
         while (iter.hasNext()) {
             Component component = iter.next();
-            if (component instanceof JCheckBox && text.equalsIgnoreCase(((JCheckBox)component).getText())) return (JCheckBox)component;
+            if (component instanceof JCheckBox && text.equalsIgnoreCase(((JCheckBox)component).getText())) return JfrEvents.endFind(jfr, "findCheckBox", text, iter, (JCheckBox)component);
         }
-        return null;
+        return JfrEvents.endFind(jfr, "findCheckBox", text, iter, null);
     }
 
     /**
@@ -130,13 +132,14 @@ class SwingUtils {
      *  the required JComboBox if it is found, otherwise null
      */
     static JComboBox<?> findComboBox(Container container, int ith) {
+        JfrEvents.FinderEvent jfr = JfrEvents.beginFind();
         ComponentIterator iter = new ComponentIterator(container);
         int i = 0;
         while (iter.hasNext()) {
             Component component = iter.next();
-            if (component instanceof JComboBox<?> && i++ == ith) return (JComboBox<?>)component;
+            if (component instanceof JComboBox<?> && i++ == ith) return JfrEvents.endFind(jfr, "findComboBox", ith, iter, (JComboBox<?>)component);
         }
-        return null;
+        return JfrEvents.endFind(jfr, "findComboBox", ith, iter, null);
     }
 
     /**
@@ -150,12 +153,13 @@ class SwingUtils {
      *  the Component, if it was found;  otherwise null
      */
     static Component findComponent(Container container, String text) {
+        JfrEvents.FinderEvent jfr = JfrEvents.beginFind();
         ComponentIterator iter = new ComponentIterator(container);
         while (iter.hasNext()) {
             Component component = iter.next();
-            if (text.equalsIgnoreCase(component.getName())) return component;
+            if (text.equalsIgnoreCase(component.getName())) return JfrEvents.endFind(jfr, "findComponent", text, iter, component);
         }
-        return null;
+        return JfrEvents.endFind(jfr, "findComponent", text, iter, null);
     }
 
     /**
@@ -169,12 +173,13 @@ class SwingUtils {
      *  the radio button, if it was found;  otherwise null
      */
     static JRadioButton findRadioButton(Container container, String text) {
+        JfrEvents.FinderEvent jfr = JfrEvents.beginFind();
         ComponentIterator iter = new ComponentIterator(container);
         while (iter.hasNext()) {
             Component component = iter.next();
-            if (component instanceof JRadioButton && text.equalsIgnoreCase(((JRadioButton)component).getText())) return (JRadioButton)component;
+            if (component instanceof JRadioButton && text.equalsIgnoreCase(((JRadioButton)component).getText())) return JfrEvents.endFind(jfr, "findRadioButton", text, iter, (JRadioButton)component);
         }
-        return null;
+        return JfrEvents.endFind(jfr, "findRadioButton", text, iter, null);
     }
 
     /**
@@ -188,12 +193,13 @@ class SwingUtils {
      *  the JLabel, if it was found;  otherwise null
      */
     static JLabel findLabel(Container container, String text) {
+        JfrEvents.FinderEvent jfr = JfrEvents.beginFind();
         ComponentIterator iter = new ComponentIterator(container);
         while (iter.hasNext()) {
             Component component = iter.next();
-            if (component instanceof JLabel && ((JLabel)component).getText() != null &&  ((JLabel)component).getText().toLowerCase().contains(text.toLowerCase())) return (JLabel)component;
+            if (component instanceof JLabel && ((JLabel)component).getText() != null &&  ((JLabel)component).getText().toLowerCase().contains(text.toLowerCase())) return JfrEvents.endFind(jfr, "findLabel", text, iter, (JLabel)component);
         }
-        return null;
+        return JfrEvents.endFind(jfr, "findLabel", text, iter, null);
     }
 
     /**
@@ -209,13 +215,14 @@ class SwingUtils {
      *  the required JList if it is found, otherwise null
      */
     static JList<?> findList(Container container, int ith) {
+        JfrEvents.FinderEvent jfr = JfrEvents.beginFind();
         ComponentIterator iter = new ComponentIterator(container);
         int i = 0;
         while (iter.hasNext()) {
             Component component = iter.next();
-            if (component instanceof JList<?> && i++ == ith) return (JList<?>)component;
+            if (component instanceof JList<?> && i++ == ith) return JfrEvents.endFind(jfr, "findList", ith, iter, (JList<?>)component);
         }
-        return null;
+        return JfrEvents.endFind(jfr, "findList", ith, iter, null);
     }
 
     /**
@@ -229,17 +236,18 @@ class SwingUtils {
      *  the JTextArea, if it was found;  otherwise null
      */
     static JTextArea findTextArea(Container container, String text) {
+        JfrEvents.FinderEvent jfr = JfrEvents.beginFind();
         ComponentIterator iter = new ComponentIterator(container);
         while (iter.hasNext()) {
             Component component = iter.next();
             if (component instanceof JTextArea) {
                 String content = ((JTextArea)component).getText();
                 if (content != null && content.toLowerCase().contains(text.toLowerCase())) {
-                    return (JTextArea)component;
+                    return JfrEvents.endFind(jfr, "findTextArea", text, iter, (JTextArea)component);
                 }
             }
         }
-        return null;
+        return JfrEvents.endFind(jfr, "findTextArea", text, iter, null);
     }
 
     static String getTexts(Container container) {
@@ -271,13 +279,14 @@ class SwingUtils {
      *  the required JTextField if it is found, otherwise null
      */
     static JTextField findTextField(Container container, int ith) {
+        JfrEvents.FinderEvent jfr = JfrEvents.beginFind();
         ComponentIterator iter = new ComponentIterator(container);
         int i = 0;
         while (iter.hasNext()) {
             Component component = iter.next();
-            if (component instanceof JTextField && i++ == ith) return (JTextField)component;
+            if (component instanceof JTextField && i++ == ith) return JfrEvents.endFind(jfr, "findTextField", ith, iter, (JTextField)component);
         }
-        return null;
+        return JfrEvents.endFind(jfr, "findTextField", ith, iter, null);
     }
 
     /**
@@ -291,17 +300,18 @@ class SwingUtils {
      *  the JTextArea, if it was found;  otherwise null
      */
     static JTextPane findTextPane(Container container, String text) {
+        JfrEvents.FinderEvent jfr = JfrEvents.beginFind();
         ComponentIterator iter = new ComponentIterator(container);
         while (iter.hasNext()) {
             Component component = iter.next();
             if (component instanceof JTextPane) {
                 String content = ((JTextPane)component).getText();
                 if (content != null && content.toLowerCase().contains(text.toLowerCase())) {
-                    return (JTextPane)component;
+                    return JfrEvents.endFind(jfr, "findTextPane", text, iter, (JTextPane)component);
                 }
             }
         }
-        return null;
+        return JfrEvents.endFind(jfr, "findTextPane", text, iter, null);
     }
 
     /**
@@ -315,12 +325,13 @@ class SwingUtils {
      *  the radio button, if it was found;  otherwise null
      */
     static JToggleButton findToggleButton(Container container, String text) {
+        JfrEvents.FinderEvent jfr = JfrEvents.beginFind();
         ComponentIterator iter = new ComponentIterator(container);
         while (iter.hasNext()) {
             Component component = iter.next();
-            if (component instanceof JToggleButton && text.equalsIgnoreCase(((JToggleButton)component).getText())) return (JToggleButton)component;
+            if (component instanceof JToggleButton && text.equalsIgnoreCase(((JToggleButton)component).getText())) return JfrEvents.endFind(jfr, "findToggleButton", text, iter, (JToggleButton)component);
         }
-        return null;
+        return JfrEvents.endFind(jfr, "findToggleButton", text, iter, null);
     }
 
     /**
@@ -332,12 +343,13 @@ class SwingUtils {
      * the first JMenuBar found, if any; otherwise null
      */
     static JMenuBar findMenuBar(Container container) {
+        JfrEvents.FinderEvent jfr = JfrEvents.beginFind();
         ComponentIterator iter = new ComponentIterator(container);
         while (iter.hasNext()) {
             Component component = iter.next();
-            if (component instanceof JMenuBar) return (JMenuBar)component;
+            if (component instanceof JMenuBar) return JfrEvents.endFind(jfr, "findMenuBar", null, iter, (JMenuBar)component);
         }
-        return null;
+        return JfrEvents.endFind(jfr, "findMenuBar", null, iter, null);
     }
 
     /**
@@ -353,13 +365,14 @@ class SwingUtils {
      *  the required JMenuBar if it is found, otherwise null
      */
     static JMenuBar findMenuBar(Container container, int ith) {
+        JfrEvents.FinderEvent jfr = JfrEvents.beginFind();
         ComponentIterator iter = new ComponentIterator(container);
         int i = 0;
         while (iter.hasNext()) {
             Component component = iter.next();
-            if (component instanceof JMenuBar && i++ == ith) return (JMenuBar)component;
+            if (component instanceof JMenuBar && i++ == ith) return JfrEvents.endFind(jfr, "findMenuBar", ith, iter, (JMenuBar)component);
         }
-        return null;
+        return JfrEvents.endFind(jfr, "findMenuBar", ith, iter, null);
     }
 
     /**
@@ -470,12 +483,13 @@ class SwingUtils {
      *  the first JOptionPane, if one was found;  otherwise null
      */
     static JOptionPane findOptionPane(Container container) {
+        JfrEvents.FinderEvent jfr = JfrEvents.beginFind();
         ComponentIterator iter = new ComponentIterator(container);
         while (iter.hasNext()) {
             Component component = iter.next();
-            if (component instanceof JOptionPane) return (JOptionPane)component;
+            if (component instanceof JOptionPane) return JfrEvents.endFind(jfr, "findOptionPane", null, iter, (JOptionPane)component);
         }
-        return null;
+        return JfrEvents.endFind(jfr, "findOptionPane", null, iter, null);
     }
 
     /**
@@ -487,12 +501,13 @@ class SwingUtils {
      *  the first JTree, if one was found;  otherwise null
      */
     static JTree findTree(Container container) {
+        JfrEvents.FinderEvent jfr = JfrEvents.beginFind();
         ComponentIterator iter = new ComponentIterator(container);
         while (iter.hasNext()) {
             Component component = iter.next();
-            if (component instanceof JTree) return (JTree)component;
+            if (component instanceof JTree) return JfrEvents.endFind(jfr, "findTree", null, iter, (JTree)component);
         }
-        return null;
+        return JfrEvents.endFind(jfr, "findTree", null, iter, null);
     }
 
     /**
@@ -0,0 +1,94 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The view of a command channel seen by a single command in tagged mode.
+ *
+ * Every reply is prefixed with the command's tag, and only the first
+ * terminating reply (OK or ERROR) is written: this ensures that a command that
+ * completes just as its deadline expires produces exactly one result.
+ *
+ * The underlying connection is shared with other commands, so closing this
+ * channel has no effect.
+ */
+final class TaggedCommandChannel extends CommandChannel {
+
+    private final CommandChannel mChannel;
+    private final String mTag;
+    private final AtomicBoolean mReplied = new AtomicBoolean();
+
+    TaggedCommandChannel(final CommandChannel channel, final String tag) {
+        mChannel = channel;
+        mTag = tag;
+    }
+
+    String getTag() {
+        return mTag;
+    }
+
+    boolean hasReplied() {
+        return mReplied.get();
+    }
+
+    @Override
+    void close() {
+    }
+
+    @Override
+    String getCommand() {
+        return null;
+    }
+
+    @Override
+    void writeAck(String info) {
+        if (mReplied.compareAndSet(false, true)) mChannel.writeLine(mTag + " OK " + info);
+    }
+
+    @Override
+    void writeInfo(String info) {
+        if (!mChannel.isInfoSuppressed() && !mReplied.get()) mChannel.writeLine(mTag + " INFO " + info);
+    }
+
+    @Override
+    void writeNack(String info) {
+        if (mReplied.compareAndSet(false, true)) mChannel.writeLine(mTag + " ERROR " + info);
+    }
+
+    @Override
+    boolean writeEvent(String event) {
+        return mChannel.writeLine(mTag + " EVENT " + event);
+    }
+
+    @Override
+    void writePrompt() {
+    }
+
+    @Override
+    boolean writeLine(String line) {
+        return mChannel.writeLine(mTag + " " + line);
+    }
+
+    @Override
+    boolean isInfoSuppressed() {
+        return mChannel.isInfoSuppressed();
+    }
+}
@@ -22,7 +22,6 @@ import java.awt.Window;
 import java.awt.event.WindowEvent;
 import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.concurrent.TimeUnit;
 import javax.swing.JDialog;
 import java.util.regex.*;
 
@@ -59,17 +58,17 @@ public class TooManyFailedLoginAttemptsDialogHandler implements WindowHandler {
             Duration waitfor = Duration.parse("PT" + minutes + "M" + seconds + "S").plus(Duration.ofSeconds(3));
 
             if (Settings.settings().getBoolean("ReloginAfterSecondFactorAuthenticationTimeout", false)) {
-                Utils.logToConsole("Will re-login at " + Utils.formatDate(LocalDateTime.now().plus(waitfor)) + 
-                                    "; login number: " + 
+                Utils.logToConsole("TWS requires a wait until " + Utils.formatDate(LocalDateTime.now().plus(waitfor)) + 
+                                    " before login number: " + 
                                     (LoginManager.loginManager().getLoginHandler().currentLoginAttemptNumber() + 1));
 
-                MyScheduledExecutorService.getInstance().schedule(() -> {
-                    GuiDeferredExecutor.instance().execute(
+                LoginRetryScheduler.getInstance().runAfterBackoff(
+                        "re-login",
+                        true,
+                        waitfor.toMillis(),
                         () -> {
                             LoginManager.loginManager().getLoginHandler().initiateLogin(LoginManager.loginManager().getLoginFrame());
-                        }
-                    );
-                }, waitfor.getSeconds(), TimeUnit.SECONDS);
+                        });
 
                 if (!SwingUtils.clickButton(window, "OK")) {
                     Utils.logError("could not dismiss \"Too many failed login attempts\" dialog because we could not find one of the controls.");
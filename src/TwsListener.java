@@ -22,6 +22,7 @@ import java.awt.AWTEvent;
 import java.awt.Window;
 import java.awt.event.AWTEventListener;
 import java.awt.event.WindowEvent;
+import java.util.Arrays;
 import java.util.List;
 import javax.swing.JDialog;
 import javax.swing.JFrame;
@@ -47,19 +48,10 @@ class TwsListener
             final Window window;
             window = ((WindowEvent) event).getWindow();
 
-            GuiDeferredExecutor.instance().execute(() -> {
+            // a repeat of an event that is still waiting to be dispatched is dropped
+            EdtScheduler.getInstance().execute(EdtScheduler.Priority.DIALOG, Arrays.asList(window, eventID), () -> {
                 try{
-                    logWindow(window, eventID);
-
-                    for (WindowHandler wh : windowHandlers) {
-                        if (wh.recogniseWindow(window))  {
-                                logWindowStructure(window, eventID, true);
-                                if (wh.filterEvent(window, eventID)) wh.handleWindow(window, eventID);
-                            return;
-                        }
-                    }
-
-                    logWindowStructure(window, eventID, false);
+                    dispatch(window, eventID);
                 } catch (Throwable e) {
                     Utils.exitWithException(ErrorCodes.UNHANDLED_EXCEPTION, e);
                 }
@@ -68,7 +60,53 @@ class TwsListener
             Utils.exitWithException(ErrorCodes.UNHANDLED_EXCEPTION, e);
         }
     }
+
+    /**
+     * Passes a window event to the first window handler that recognises the
+     * window. This runs on the event dispatch thread.
+     * @param window
+     * the window
+     * @param eventID
+     * the window event
+     */
+    void dispatch(Window window, int eventID) {
+        JfrEvents.WindowDispatchEvent jfr = JfrEvents.beginWindowDispatch();
+        WindowEventJournal.Record record = WindowEventJournal.getInstance().begin(window, eventID);
+        logWindow(window, eventID);
+
+        for (WindowHandler wh : windowHandlers) {
+            if (wh.recogniseWindow(window, eventID))  {
+                    logWindowStructure(window, eventID, true);
+                    if (wh.filterEvent(window, eventID)) {
+                        JfrEvents.WindowHandlerEvent jfrHandler = JfrEvents.beginWindowHandler();
+                        wh.handleWindow(window, eventID);
+                        JfrEvents.endWindowHandler(jfrHandler, wh, window, eventID);
+                        publishWindowEvent(IbcEvent.Type.WINDOW_HANDLED, wh, window, eventID);
+                    }
+                JfrEvents.endWindowDispatch(jfr, window, eventID, wh);
+                WindowEventJournal.getInstance().end(record, wh);
+                StatusFile.getInstance().windowEventDispatched(true);
+                return;
+            }
+        }
+
+        logWindowStructure(window, eventID, false);
+        JfrEvents.endWindowDispatch(jfr, window, eventID, null);
+        WindowEventJournal.getInstance().end(record, null);
+        StatusFile.getInstance().windowEventDispatched(false);
+        publishWindowEvent(IbcEvent.Type.WINDOW_UNKNOWN, null, window, eventID);
+    }
     
+    private static void publishWindowEvent(IbcEvent.Type type, WindowHandler handler, Window window, int eventID) {
+        // this runs on the event dispatch thread, so don't format events that nobody wants
+        if (!IbcEventBus.getInstance().hasSubscribers()) return;
+        IbcEventBus.getInstance().publish(type,
+                                          (handler == null ? "" : "handler=" + handler.getClass().getSimpleName() + " ") +
+                                          "event=" + IbcEvent.quote(SwingUtils.windowEventToString(eventID)) +
+                                          " class=" + window.getClass().getName() +
+                                          " title=" + IbcEvent.quote(SwingUtils.getWindowTitle(window)));
+    }
+
     private static void getLogStructureParameters() {
         // legacy deprecated setting overrides explicit values of LogStructureScope 
         // and LogStructureWhen
@@ -175,8 +213,14 @@ class TwsListener
             ||
             (logStructureWhen.equalsIgnoreCase(SwingUtils.windowEventToString(eventID))))
         {
-            Utils.logToConsole("Window structure for " + getWindowTypeAndTitle(window) + "; event=" + SwingUtils.windowEventToString(eventID));
-            Utils.logRawToConsole(SwingUtils.getWindowStructure(window));
+            // the structure is captured now, so that it shows the window as the
+            // handler sees it, but writing it waits until IBC's other work is done
+            final String heading = "Window structure for " + getWindowTypeAndTitle(window) + "; event=" + SwingUtils.windowEventToString(eventID);
+            final String structure = SwingUtils.getWindowStructure(window);
+            EdtScheduler.getInstance().execute(EdtScheduler.Priority.DIAGNOSTIC, () -> {
+                Utils.logToConsole(heading);
+                Utils.logRawToConsole(structure);
+            });
         }
     }
 }
@@ -79,7 +79,7 @@ class TwsSettingsSaver {
         return saveTimes;
     }
 
-    private static List<Date> generateSaveTimes(String[] times) throws IbcException {
+    static List<Date> generateSaveTimes(String[] times) throws IbcException {
         int interval = 0;
         try {
             interval = Integer.parseInt(times[1]);
@@ -147,7 +147,9 @@ class TwsSettingsSaver {
 
         MyScheduledExecutorService.getInstance().scheduleAtFixedRate(() -> {
             Utils.logToConsole("Saving Tws settings");
-            Utils.invokeMenuItem(MainWindowManager.mainWindowManager().getMainWindow(), new String[] {"File", "Save Settings"});
+            if (Utils.invokeMenuItem(MainWindowManager.mainWindowManager().getMainWindow(), new String[] {"File", "Save Settings"})) {
+                SettingsSnapshotStore.getInstance().snapshotAfterSave();
+            }
         }, saveTime.getTime() - System.currentTimeMillis(), 86400000, TimeUnit.MILLISECONDS);
     }
 
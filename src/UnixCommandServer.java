@@ -0,0 +1,167 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+
+/**
+ * Serves the command server's command set over a Unix domain socket, for
+ * supervisors running on the same host.
+ *
+ * The socket is created at the path given by the CommandServerSocketPath
+ * setting. Access is controlled by the socket file's permissions, which are set
+ * from the CommandServerSocketPermissions setting (default rw-------, ie only
+ * the user running IBC may connect), so the ControlFrom setting does not apply.
+ * Since the permissions can only be set once the socket has been created, the
+ * socket should be placed in a directory that is itself not accessible to other
+ * users.
+ */
+class UnixCommandServer
+        implements Runnable {
+
+    private volatile ServerSocketChannel mServerChannel;
+    private volatile Path mPath;
+    private volatile boolean mQuitting = false;
+
+    @Override
+    public void run() {
+        Thread.currentThread().setName("UnixCommandServer");
+
+        final String socketPath = Settings.settings().getString("CommandServerSocketPath", "");
+        if (socketPath.isEmpty()) return;
+
+        Utils.logToConsole("CommandServer is starting with socket " + socketPath);
+
+        if (createSocket(Paths.get(socketPath))) {
+            Utils.logToConsole("CommandServer started and is ready to accept commands on socket " + socketPath);
+            for (; !mQuitting;) {
+                // this will return null if the shutDown method is called
+                SocketChannel channel = getClient();
+
+                if (channel != null) {
+                    MyCachedThreadPool.getInstance().execute(new CommandDispatcher(new CommandChannel(channel)));
+                }
+            }
+        }
+
+        Utils.logToConsole("CommandServer socket " + socketPath + " is shutdown");
+    }
+
+    void shutdown() {
+        mQuitting = true;
+        ServerSocketChannel serverChannel = mServerChannel;
+        if (serverChannel == null) return;
+        mServerChannel = null;
+        try {
+            Utils.logToConsole("CommandServer closing socket " + mPath);
+            serverChannel.close();
+            Files.deleteIfExists(mPath);
+        } catch (IOException ex) {
+            Utils.logException(ex);
+        }
+    }
+
+    private boolean createSocket(final Path path) {
+        try {
+            if (!removeStaleSocket(path)) return false;
+
+            ServerSocketChannel serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            serverChannel.bind(UnixDomainSocketAddress.of(path));
+            mPath = path;
+            mServerChannel = serverChannel;
+
+            final String permissions = Settings.settings().getString("CommandServerSocketPermissions", "rw-------");
+            try {
+                Files.setPosixFilePermissions(path, PosixFilePermissions.fromString(permissions));
+            } catch (IllegalArgumentException | UnsupportedOperationException e) {
+                Utils.logError("CommandServer cannot set permissions '" + permissions + "' on socket " + path + ": " + e.getMessage());
+                shutdown();
+                return false;
+            }
+            Utils.logToConsole("CommandServer listening on socket: " + path + " permissions: " + permissions);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            Utils.logException(e);
+            Utils.logToConsole("CommandServer failed to create socket " + path);
+            Utils.logToConsole("CommandServer cannot process commands on socket " + path);
+            mServerChannel = null;
+            return false;
+        }
+    }
+
+    /*
+     * A socket file left behind by a previous instance that did not shut down
+     * cleanly prevents the socket being bound, so it is removed. But a regular
+     * file, or a socket that another process is still listening on, is left alone.
+     */
+    private boolean removeStaleSocket(final Path path) throws IOException {
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) return true;
+
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        if (!attributes.isOther()) {
+            Utils.logError("CommandServer cannot use " + path + " because it is not a socket");
+            return false;
+        }
+
+        boolean listening;
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(path)).close();
+            listening = true;
+        } catch (IOException e) {
+            // nothing is listening, so the socket is stale
+            listening = false;
+        }
+        if (listening) {
+            Utils.logError("CommandServer cannot use socket " + path + " because another process is listening on it");
+            return false;
+        }
+
+        Utils.logToConsole("CommandServer removing stale socket " + path);
+        Files.delete(path);
+        return true;
+    }
+
+    private SocketChannel getClient() {
+        try {
+            ServerSocketChannel serverChannel = mServerChannel;
+            if (serverChannel == null) return null;
+
+            final SocketChannel channel = serverChannel.accept();
+            Utils.logToConsole("CommandServer accepted connection on socket " + mPath);
+            return channel;
+        } catch (AsynchronousCloseException e) {
+            // occurs if the server channel is closed during the call to accept()
+            return null;
+        } catch (Exception e) {
+            Utils.logException(e);
+            return null;
+        }
+    }
+}
@@ -60,7 +60,10 @@ class Utils {
      */
     static boolean invokeMenuItem(final Container container, final String[] path) throws IllegalStateException {
         if (SwingUtilities.isEventDispatchThread()) throw new IllegalStateException("Function must not be called on the event dispatch thread, as it may block the thread");
+        JfrEvents.MenuItemEvent jfr = JfrEvents.beginMenuItem();
+        int attempts = 0;
         while (true) {
+            attempts++;
             FutureTask<Boolean> task = new FutureTask<>(() -> {
                 String s = path[0];
                 for (int i = 1; i < path.length; i++) s = s + " > " + path[i];
@@ -75,13 +78,18 @@ class Utils {
             GuiDeferredExecutor.instance().execute(task);
 
             try {
-                if (task.get()) return true;
+                if (task.get()) {
+                    JfrEvents.endMenuItem(jfr, path, attempts, true);
+                    return true;
+                }
             } catch (InterruptedException e) {
                 logError("invokeMenuItem task interrupted");
+                JfrEvents.endMenuItem(jfr, path, attempts, false);
                 return false;
             } catch (ExecutionException e) {
                 Throwable t = e.getCause();
                 if (t instanceof IbcException) {
+                    JfrEvents.endMenuItem(jfr, path, attempts, false);
                     return false;
                 }
                 if (t instanceof RuntimeException) throw (RuntimeException)t;
@@ -114,6 +122,7 @@ class Utils {
     static void logError(String message) {
         getErrStream().println("!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!");
         getErrStream().println(formatMessage(message));
+        LogStore.getInstance().append("IBC", "ERROR: " + message);
         getErrStream().println("!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!");
     }
 
@@ -121,6 +130,7 @@ class Utils {
         getErrStream().println("!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!");
         getErrStream().println(formatMessage("An exception has occurred:"));
         t.printStackTrace(getErrStream());
+        LogStore.getInstance().appendException("IBC", t);
         getErrStream().println("!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!");
     }
 
@@ -131,6 +141,7 @@ class Utils {
      */
     static void logRawToConsole(String msg) {
         getOutStream().println(msg);
+        LogStore.getInstance().append("IBC", msg);
     }
 
     /**
@@ -140,6 +151,7 @@ class Utils {
      */
     static void logToConsole(String msg) {
         getOutStream().println(formatMessage(msg));
+        LogStore.getInstance().append("IBC", msg);
     }
 
     static PrintStream getErrStream() {
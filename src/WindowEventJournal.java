@@ -0,0 +1,484 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc;
+
+import java.awt.Component;
+import java.awt.Container;
+import java.awt.Window;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.swing.AbstractButton;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JLayeredPane;
+import javax.swing.JList;
+import javax.swing.JMenu;
+import javax.swing.JMenuBar;
+import javax.swing.JMenuItem;
+import javax.swing.JOptionPane;
+import javax.swing.JPasswordField;
+import javax.swing.JRadioButton;
+import javax.swing.JRootPane;
+import javax.swing.JTextArea;
+import javax.swing.JTextField;
+import javax.swing.JTextPane;
+import javax.swing.JToggleButton;
+import javax.swing.JTree;
+import javax.swing.ListModel;
+import javax.swing.text.JTextComponent;
+import javax.swing.tree.TreeModel;
+
+/**
+ * Records the window events seen by TwsListener in a compact binary journal,
+ * so that they can be replayed offline through the window handlers by
+ * WindowEventReplayer.
+ *
+ * Recording is enabled by setting WindowEventJournalFile to the journal's path.
+ * Each record holds the event ID, the window's class and title, a fingerprint of
+ * its component structure and the window handler that dealt with it. If
+ * WindowEventJournalStructure is set to yes, the full component tree is also
+ * recorded, which is what the replayer needs to rebuild an equivalent window.
+ *
+ * Records are encoded on the event dispatch thread (since that is the only
+ * thread that may examine the components) but written to the file by a separate
+ * thread: if that thread falls behind, records are discarded and counted rather
+ * than delaying the event dispatch thread.
+ *
+ * The journal format is:
+ *
+ *      header: int MAGIC, short VERSION, long startTime, boolean isGateway, UTF ibcVersion
+ *      record: int length, followed by length bytes containing:
+ *              long elapsedNanos, short eventID, byte windowKind, UTF windowClass,
+ *              UTF title, int fingerprint, boolean hasStructure,
+ *              [short childCount, node...], UTF handler
+ *      node:   byte kind, UTF className, UTF name, UTF text, byte flags,
+ *              short itemCount, UTF item..., short childCount, node...
+ *
+ * where strings that may be null are written with a leading boolean.
+ */
+final class WindowEventJournal {
+
+    static final int MAGIC = 0x49424357;  // "IBCW"
+    static final short VERSION = 1;
+
+    static final byte WINDOW_FRAME = 0;
+    static final byte WINDOW_DIALOG = 1;
+    static final byte WINDOW_OTHER = 2;
+
+    static final int FLAG_ENABLED = 1;
+    static final int FLAG_SELECTED = 2;
+    static final int FLAG_VISIBLE = 4;
+    static final int FLAG_EDITABLE = 8;
+
+    // long texts are truncated so that they always fit in a UTF record
+    private static final int MAX_TEXT = 8000;
+    private static final int MAX_ITEMS = 1000;
+
+    enum Kind {
+        CONTAINER,
+        ROOT_PANE,
+        LAYERED_PANE,
+        BUTTON,
+        CHECK_BOX,
+        RADIO_BUTTON,
+        TOGGLE_BUTTON,
+        LABEL,
+        TEXT_FIELD,
+        PASSWORD_FIELD,
+        TEXT_AREA,
+        TEXT_PANE,
+        COMBO_BOX,
+        LIST,
+        TREE,
+        OPTION_PANE,
+        MENU_BAR,
+        MENU,
+        MENU_ITEM,
+        OTHER
+    }
+
+    private static final WindowEventJournal instance = new WindowEventJournal();
+
+    private volatile boolean mEnabled;
+    private boolean mRecordStructure;
+    private long mStartNanos;
+    private DataOutputStream mOut;
+    private final BlockingQueue<byte[]> mQueue = new ArrayBlockingQueue<>(1000);
+    private final AtomicInteger mDropped = new AtomicInteger();
+
+    private WindowEventJournal() {}
+
+    static WindowEventJournal getInstance() {return instance;}
+
+    void start() {
+        String file = Settings.settings().getString("WindowEventJournalFile", "");
+        if (file.isEmpty()) return;
+        mRecordStructure = Settings.settings().getBoolean("WindowEventJournalStructure", false);
+        try {
+            mOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            mOut.writeInt(MAGIC);
+            mOut.writeShort(VERSION);
+            mOut.writeLong(System.currentTimeMillis());
+            mOut.writeBoolean(SessionManager.isGateway());
+            mOut.writeUTF(IbcVersionInfo.IBC_VERSION);
+            mOut.flush();
+        } catch (IOException e) {
+            Utils.logError("WindowEventJournal: can't create journal " + file + ": " + e.getMessage());
+            return;
+        }
+        mStartNanos = System.nanoTime();
+        mEnabled = true;
+        MyCachedThreadPool.getInstance().execute(this::writeRecords);
+        Utils.logToConsole("WindowEventJournal: recording window events to " + file +
+                            (mRecordStructure ? " including window structure" : ""));
+    }
+
+    /**
+     * Starts a record of a window event. This must be called on the event
+     * dispatch thread before the event is passed to the window handlers, so that
+     * the recorded structure is what the handlers saw.
+     * @param window
+     * the window
+     * @param eventID
+     * the window event
+     * @return
+     * the incomplete record, to be passed to end(); or null if recording is
+     * not enabled
+     */
+    Record begin(Window window, int eventID) {
+        if (!mEnabled) return null;
+        Record record = new Record();
+        try {
+            DataOutputStream out = record.out;
+            out.writeLong(System.nanoTime() - mStartNanos);
+            out.writeShort(eventID);
+            out.writeByte(window instanceof JFrame ? WINDOW_FRAME : window instanceof JDialog ? WINDOW_DIALOG : WINDOW_OTHER);
+            out.writeUTF(window.getClass().getName());
+            out.writeUTF(truncate(SwingUtils.getWindowTitle(window)));
+            out.writeInt(fingerprint(window));
+            out.writeBoolean(mRecordStructure);
+            if (mRecordStructure) writeChildren(window.getComponents(), out);
+        } catch (IOException | RuntimeException e) {
+            // components can change under our feet if TWS modifies them off the
+            // event dispatch thread, so just skip this window
+            return null;
+        }
+        return record;
+    }
+
+    /**
+     * Completes a record and queues it for writing.
+     * @param record
+     * the record returned by begin(), which may be null
+     * @param handler
+     * the window handler that recognised the window, or null if none did
+     */
+    void end(Record record, WindowHandler handler) {
+        if (record == null) return;
+        try {
+            record.out.writeUTF(handler == null ? "" : handler.getClass().getSimpleName());
+        } catch (IOException e) {
+            return;
+        }
+        if (!mQueue.offer(record.bytes.toByteArray())) mDropped.incrementAndGet();
+    }
+
+    private void writeRecords() {
+        Thread.currentThread().setName("WindowEventJournal");
+        try {
+            while (true) {
+                byte[] record = mQueue.take();
+                mOut.writeInt(record.length);
+                mOut.write(record);
+                if (mQueue.isEmpty()) mOut.flush();
+                int dropped = mDropped.getAndSet(0);
+                if (dropped != 0) Utils.logError("WindowEventJournal: " + dropped + " records discarded");
+            }
+        } catch (InterruptedException e) {
+            // IBC is shutting down
+        } catch (IOException e) {
+            Utils.logError("WindowEventJournal: recording stopped: " + e.getMessage());
+        } finally {
+            mEnabled = false;
+            try {
+                mOut.close();
+            } catch (IOException e) {
+                // nothing we can do
+            }
+        }
+    }
+
+    static final class Record {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        private final DataOutputStream out = new DataOutputStream(bytes);
+    }
+
+    /**
+     * Computes a hash of a window's component classes and texts, which is
+     * cheap to record for every event and is enough to tell whether two
+     * windows have the same layout.
+     */
+    static int fingerprint(Window window) {
+        int hash = 17;
+        ComponentIterator iter = new ComponentIterator(window);
+        while (iter.hasNext()) {
+            Component component = iter.next();
+            hash = 31 * hash + component.getClass().getName().hashCode();
+            String text = getText(component);
+            if (text != null) hash = 31 * hash + text.hashCode();
+        }
+        return hash;
+    }
+
+    private static void writeChildren(Component[] children, DataOutputStream out) throws IOException {
+        out.writeShort(children.length);
+        for (Component child : children) writeNode(child, out);
+    }
+
+    private static void writeNode(Component component, DataOutputStream out) throws IOException {
+        Kind kind = kindOf(component);
+        out.writeByte(kind.ordinal());
+        out.writeUTF(component.getClass().getName());
+        writeNullable(component.getName(), out);
+        writeNullable(getText(component), out);
+
+        int flags = 0;
+        if (component.isEnabled()) flags |= FLAG_ENABLED;
+        if (component.isVisible()) flags |= FLAG_VISIBLE;
+        if (component instanceof AbstractButton && ((AbstractButton) component).isSelected()) flags |= FLAG_SELECTED;
+        if (component instanceof JTextComponent && ((JTextComponent) component).isEditable()) flags |= FLAG_EDITABLE;
+        out.writeByte(flags);
+
+        List<String> items = getItems(component);
+        out.writeShort(items.size());
+        for (String item : items) out.writeUTF(item);
+
+        if (component instanceof JMenu) {
+            writeChildren(((JMenu) component).getMenuComponents(), out);
+        } else if (component instanceof Container) {
+            writeChildren(((Container) component).getComponents(), out);
+        } else {
+            out.writeShort(0);
+        }
+    }
+
+    private static Kind kindOf(Component component) {
+        // subclasses must be tested before their superclasses
+        if (component instanceof JRootPane) return Kind.ROOT_PANE;
+        if (component instanceof JLayeredPane) return Kind.LAYERED_PANE;
+        if (component instanceof JCheckBox) return Kind.CHECK_BOX;
+        if (component instanceof JRadioButton) return Kind.RADIO_BUTTON;
+        if (component instanceof JToggleButton) return Kind.TOGGLE_BUTTON;
+        if (component instanceof JButton) return Kind.BUTTON;
+        if (component instanceof JMenu) return Kind.MENU;
+        if (component instanceof JMenuItem) return Kind.MENU_ITEM;
+        if (component instanceof JMenuBar) return Kind.MENU_BAR;
+        if (component instanceof JLabel) return Kind.LABEL;
+        if (component instanceof JPasswordField) return Kind.PASSWORD_FIELD;
+        if (component instanceof JTextField) return Kind.TEXT_FIELD;
+        if (component instanceof JTextArea) return Kind.TEXT_AREA;
+        if (component instanceof JTextPane) return Kind.TEXT_PANE;
+        if (component instanceof JComboBox<?>) return Kind.COMBO_BOX;
+        if (component instanceof JList<?>) return Kind.LIST;
+        if (component instanceof JTree) return Kind.TREE;
+        if (component instanceof JOptionPane) return Kind.OPTION_PANE;
+        if (component instanceof Container) return Kind.CONTAINER;
+        return Kind.OTHER;
+    }
+
+    private static String getText(Component component) {
+        String text = null;
+        if (component instanceof AbstractButton) {
+            text = ((AbstractButton) component).getText();
+        } else if (component instanceof JLabel) {
+            text = ((JLabel) component).getText();
+        } else if (component instanceof JPasswordField) {
+            // never record passwords
+            text = null;
+        } else if (component instanceof JTextComponent) {
+            text = ((JTextComponent) component).getText();
+        } else if (component instanceof JOptionPane) {
+            Object message = ((JOptionPane) component).getMessage();
+            text = message == null ? null : message.toString();
+        }
+        return text == null ? null : truncate(text);
+    }
+
+    private static List<String> getItems(Component component) {
+        List<String> items = new ArrayList<>();
+        if (component instanceof JComboBox<?>) {
+            JComboBox<?> combo = (JComboBox<?>) component;
+            for (int i = 0; i < combo.getItemCount() && i < MAX_ITEMS; i++) items.add(truncate(String.valueOf(combo.getItemAt(i))));
+        } else if (component instanceof JList<?>) {
+            ListModel<?> model = ((JList<?>) component).getModel();
+            for (int i = 0; i < model.getSize() && i < MAX_ITEMS; i++) items.add(truncate(String.valueOf(model.getElementAt(i))));
+        } else if (component instanceof JTree) {
+            // tree nodes are recorded depth first, each prefixed by its depth
+            // as a single character so that the replayer can rebuild the tree
+            TreeModel model = ((JTree) component).getModel();
+            if (model.getRoot() != null) addTreeItems(model, model.getRoot(), 0, items);
+        }
+        return items;
+    }
+
+    private static void addTreeItems(TreeModel model, Object node, int depth, List<String> items) {
+        if (items.size() >= MAX_ITEMS) return;
+        items.add((char) ('0' + Math.min(depth, 74)) + truncate(String.valueOf(node)));
+        for (int i = 0; i < model.getChildCount(node); i++) addTreeItems(model, model.getChild(node, i), depth + 1, items);
+    }
+
+    private static String truncate(String s) {
+        return s.length() <= MAX_TEXT ? s : s.substring(0, MAX_TEXT);
+    }
+
+    private static void writeNullable(String s, DataOutputStream out) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) out.writeUTF(s);
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * A journal opened for reading.
+     */
+    static final class Reader
+            implements AutoCloseable {
+        private final DataInputStream mIn;
+        final long startTime;
+        final boolean isGateway;
+        final String ibcVersion;
+
+        Reader(DataInputStream in) throws IOException {
+            mIn = in;
+            if (in.readInt() != MAGIC) throw new IOException("not a window event journal");
+            short version = in.readShort();
+            if (version != VERSION) throw new IOException("unsupported journal version " + version);
+            startTime = in.readLong();
+            isGateway = in.readBoolean();
+            ibcVersion = in.readUTF();
+        }
+
+        /**
+         * Reads the next record.
+         * @return
+         * the record, or null at the end of the journal
+         * @throws IOException
+         * the journal is unreadable
+         */
+        Entry next() throws IOException {
+            int length;
+            try {
+                length = mIn.readInt();
+            } catch (EOFException e) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            try {
+                mIn.readFully(bytes);
+            } catch (EOFException e) {
+                // the last record is incomplete if IBC was killed while writing it
+                return null;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            Entry entry = new Entry();
+            entry.elapsedNanos = in.readLong();
+            entry.eventID = in.readShort();
+            entry.windowKind = in.readByte();
+            entry.windowClass = in.readUTF();
+            entry.title = in.readUTF();
+            entry.fingerprint = in.readInt();
+            if (in.readBoolean()) entry.children = readChildren(in);
+            entry.handler = in.readUTF();
+            return entry;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mIn.close();
+        }
+
+        private static List<Node> readChildren(DataInputStream in) throws IOException {
+            int count = in.readUnsignedShort();
+            if (count == 0) return Collections.emptyList();
+            List<Node> children = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) children.add(readNode(in));
+            return children;
+        }
+
+        private static Node readNode(DataInputStream in) throws IOException {
+            Node node = new Node();
+            int kind = in.readUnsignedByte();
+            node.kind = kind < Kind.values().length ? Kind.values()[kind] : Kind.OTHER;
+            node.className = in.readUTF();
+            node.name = readNullable(in);
+            node.text = readNullable(in);
+            node.flags = in.readUnsignedByte();
+            int itemCount = in.readUnsignedShort();
+            node.items = new ArrayList<>(itemCount);
+            for (int i = 0; i < itemCount; i++) node.items.add(in.readUTF());
+            node.children = readChildren(in);
+            return node;
+        }
+    }
+
+    static final class Entry {
+        long elapsedNanos;
+        int eventID;
+        byte windowKind;
+        String windowClass;
+        String title;
+        int fingerprint;
+        // null if the structure was not recorded
+        List<Node> children;
+        // empty if no handler recognised the window
+        String handler;
+    }
+
+    static final class Node {
+        Kind kind;
+        String className;
+        String name;
+        String text;
+        int flags;
+        List<String> items;
+        List<Node> children;
+
+        boolean hasFlag(int flag) {
+            return (flags & flag) != 0;
+        }
+    }
+}
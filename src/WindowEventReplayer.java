@@ -0,0 +1,387 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc;
+
+import java.awt.Component;
+import java.awt.Container;
+import java.awt.Frame;
+import java.awt.Window;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
+import javax.swing.JComponent;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JMenu;
+import javax.swing.JMenuBar;
+import javax.swing.JMenuItem;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JPasswordField;
+import javax.swing.JRadioButton;
+import javax.swing.JRootPane;
+import javax.swing.JTextArea;
+import javax.swing.JTextField;
+import javax.swing.JTextPane;
+import javax.swing.JToggleButton;
+import javax.swing.JTree;
+import javax.swing.JWindow;
+import javax.swing.RootPaneContainer;
+import javax.swing.SwingUtilities;
+import javax.swing.text.JTextComponent;
+import javax.swing.tree.DefaultMutableTreeNode;
+
+/**
+ * Replays a journal recorded by WindowEventJournal through IBC's window
+ * handlers, without TWS or a login.
+ *
+ * Usage:
+ *
+ *      java -cp IBC.jar ibcalpha.ibc.WindowEventReplayer [-i iniFile] [-m] [-x] journal
+ *
+ * where:
+ *
+ *      -i  the IBC settings file that the handlers should use
+ *      -m  replay at maximum speed rather than at the recorded times
+ *      -x  also call each recognising handler's handleWindow() method: note
+ *          that some handlers act on IBC itself (for example by exiting), so
+ *          this is best used with a settings file made for the purpose
+ *
+ * For each recorded event an equivalent window is built from standard Swing
+ * components (the recorded structure is needed for this; otherwise only the
+ * window's type and title are reproduced), and it is offered to the window
+ * handlers in the same order as TwsListener does. The handler that recognises
+ * it is compared with the one recorded, and the time taken by the handlers is
+ * measured.
+ *
+ * Synthetic windows are never shown, but a display is still needed to create
+ * them: on Linux without a desktop, run under Xvfb.
+ *
+ * The exit code is 0 if every replayed decision matched the recorded one, 1 if
+ * any did not, and 2 if the arguments are invalid or the journal unreadable.
+ */
+public class WindowEventReplayer {
+
+    private WindowEventReplayer() { }
+
+    public static void main(String[] args) throws Exception {
+        String iniFile = null;
+        boolean maxSpeed = false;
+        boolean handle = false;
+        String journal = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-i":
+                    if (++i >= args.length) usageAndExit("missing value for -i");
+                    iniFile = args[i];
+                    break;
+                case "-m":
+                    maxSpeed = true;
+                    break;
+                case "-x":
+                    handle = true;
+                    break;
+                default:
+                    if (args[i].startsWith("-") || journal != null) usageAndExit("invalid argument: " + args[i]);
+                    journal = args[i];
+            }
+        }
+        if (journal == null) usageAndExit("no journal specified");
+
+        try (WindowEventJournal.Reader reader = new WindowEventJournal.Reader(
+                new DataInputStream(new BufferedInputStream(new FileInputStream(journal))))) {
+            IbcTws.setupDefaultEnvironment(iniFile == null ? new String[0] : new String[] {iniFile}, reader.isGateway);
+            System.out.println("Replaying " + journal + " recorded by IBC " + reader.ibcVersion +
+                                " for " + (reader.isGateway ? "Gateway" : "TWS") + " at " + new Date(reader.startTime));
+            boolean allMatched = new Replay(IbcTws.createWindowHandlers(), maxSpeed, handle).run(reader);
+            System.exit(allMatched ? 0 : 1);
+        } catch (IOException e) {
+            System.err.println("Can't read journal " + journal + ": " + e.getMessage());
+            System.exit(2);
+        }
+    }
+
+    private static void usageAndExit(String error) {
+        System.err.println(error);
+        System.err.println("Usage: java -cp IBC.jar ibcalpha.ibc.WindowEventReplayer [-i iniFile] [-m] [-x] journal");
+        System.exit(2);
+    }
+
+    private static final class Replay {
+        private final List<WindowHandler> mHandlers;
+        private final boolean mMaxSpeed;
+        private final boolean mHandle;
+        private final LatencyHistogram mRecogniseLatency = new LatencyHistogram();
+        private final LatencyHistogram mHandleLatency = new LatencyHistogram();
+        private final Map<String, int[]> mDecisions = new TreeMap<>();
+
+        // the results of the event currently being replayed on the event dispatch thread
+        private WindowHandler mRecognisedBy;
+        private boolean mFiltered;
+        private long mRecogniseNanos;
+        private long mHandleNanos;
+        private Throwable mFailure;
+
+        Replay(List<WindowHandler> handlers, boolean maxSpeed, boolean handle) {
+            mHandlers = handlers;
+            mMaxSpeed = maxSpeed;
+            mHandle = handle;
+        }
+
+        boolean run(WindowEventJournal.Reader reader) throws IOException, InterruptedException {
+            long start = System.nanoTime();
+            int count = 0;
+            int mismatches = 0;
+            int failures = 0;
+
+            WindowEventJournal.Entry entry;
+            while ((entry = reader.next()) != null) {
+                count++;
+                if (!mMaxSpeed) {
+                    long wait = entry.elapsedNanos - (System.nanoTime() - start);
+                    if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+                }
+
+                final WindowEventJournal.Entry e = entry;
+                try {
+                    SwingUtilities.invokeAndWait(() -> replay(e));
+                } catch (InvocationTargetException ex) {
+                    mFailure = ex.getCause();
+                }
+
+                String replayed = mRecognisedBy == null ? "" : mRecognisedBy.getClass().getSimpleName();
+                boolean matched = replayed.equals(entry.handler);
+                if (!matched) mismatches++;
+                if (mFailure != null) failures++;
+                mDecisions.computeIfAbsent(replayed.isEmpty() ? "(unknown)" : replayed, k -> new int[1])[0]++;
+
+                System.out.println(count +
+                                    " +" + TimeUnit.NANOSECONDS.toMillis(entry.elapsedNanos) + "ms" +
+                                    " event=" + IbcEvent.quote(SwingUtils.windowEventToString(entry.eventID)) +
+                                    " title=" + IbcEvent.quote(entry.title) +
+                                    (entry.children == null ? " structure=no" : "") +
+                                    " recorded=" + (entry.handler.isEmpty() ? "-" : entry.handler) +
+                                    " replayed=" + (replayed.isEmpty() ? "-" : replayed) +
+                                    (mRecognisedBy == null ? "" : " filtered=" + mFiltered) +
+                                    " recognise=" + micros(mRecogniseNanos) +
+                                    (mHandleNanos == 0 ? "" : " handle=" + micros(mHandleNanos)) +
+                                    (matched ? "" : " MISMATCH") +
+                                    (mFailure == null ? "" : " failure=" + IbcEvent.quote(mFailure.toString())));
+            }
+
+            System.out.println("Replayed " + count + " events in " +
+                                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms: " +
+                                mismatches + " mismatches, " + failures + " failures");
+            for (Map.Entry<String, int[]> d : mDecisions.entrySet()) System.out.println("    " + d.getKey() + ": " + d.getValue()[0]);
+            System.out.println(mRecogniseLatency.toString("recognise"));
+            if (mHandle) System.out.println(mHandleLatency.toString("handle"));
+            return mismatches == 0;
+        }
+
+        // runs on the event dispatch thread, as the handlers do within IBC
+        private void replay(WindowEventJournal.Entry entry) {
+            mRecognisedBy = null;
+            mFiltered = false;
+            mRecogniseNanos = 0;
+            mHandleNanos = 0;
+            mFailure = null;
+
+            Window window = buildWindow(entry);
+            try {
+                long t0 = System.nanoTime();
+                for (WindowHandler wh : mHandlers) {
+                    if (wh.recogniseWindow(window, entry.eventID)) {
+                        mRecognisedBy = wh;
+                        break;
+                    }
+                }
+                if (mRecognisedBy != null) mFiltered = mRecognisedBy.filterEvent(window, entry.eventID);
+                mRecogniseNanos = System.nanoTime() - t0;
+                mRecogniseLatency.record(mRecogniseNanos, TimeUnit.NANOSECONDS);
+
+                if (mHandle && mFiltered) {
+                    long t1 = System.nanoTime();
+                    mRecognisedBy.handleWindow(window, entry.eventID);
+                    mHandleNanos = System.nanoTime() - t1;
+                    mHandleLatency.record(mHandleNanos, TimeUnit.NANOSECONDS);
+                }
+            } catch (RuntimeException e) {
+                mFailure = e;
+            } finally {
+                window.dispose();
+            }
+        }
+    }
+
+    private static String micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos) + "us";
+    }
+
+    private static Window buildWindow(WindowEventJournal.Entry entry) {
+        String title = entry.title.equals(SwingUtils.NO_TITLE) ? null : entry.title;
+        Window window;
+        switch (entry.windowKind) {
+            case WindowEventJournal.WINDOW_FRAME:
+                window = new JFrame(title);
+                break;
+            case WindowEventJournal.WINDOW_DIALOG:
+                window = new JDialog((Frame) null, title);
+                break;
+            default:
+                window = new JWindow();
+        }
+        if (entry.children == null) return window;
+
+        JRootPane rootPane = ((RootPaneContainer) window).getRootPane();
+        Container contentPane = ((RootPaneContainer) window).getContentPane();
+        for (WindowEventJournal.Node node : entry.children) {
+            if (node.kind != WindowEventJournal.Kind.ROOT_PANE) {
+                contentPane.add(buildComponent(node));
+                continue;
+            }
+            // rebuild the recorded root pane's menu bar and content pane
+            // within the synthetic window's own root pane
+            for (WindowEventJournal.Node layer : node.children) {
+                if (layer.kind != WindowEventJournal.Kind.LAYERED_PANE) continue;
+                for (WindowEventJournal.Node pane : layer.children) {
+                    if (pane.kind == WindowEventJournal.Kind.MENU_BAR) {
+                        rootPane.setJMenuBar((JMenuBar) buildComponent(pane));
+                    } else {
+                        for (WindowEventJournal.Node child : pane.children) contentPane.add(buildComponent(child));
+                    }
+                }
+            }
+        }
+        return window;
+    }
+
+    private static Component buildComponent(WindowEventJournal.Node node) {
+        final String text = node.text == null ? "" : node.text;
+        final boolean selected = node.hasFlag(WindowEventJournal.FLAG_SELECTED);
+        final String[] items = node.items.toArray(new String[0]);
+        final Component component;
+        boolean addChildren = false;
+
+        switch (node.kind) {
+            case BUTTON:
+                component = new JButton(text);
+                break;
+            case CHECK_BOX:
+                component = new JCheckBox(text, selected);
+                break;
+            case RADIO_BUTTON:
+                component = new JRadioButton(text, selected);
+                break;
+            case TOGGLE_BUTTON:
+                component = new JToggleButton(text, selected);
+                break;
+            case LABEL:
+                component = new JLabel(text);
+                break;
+            case TEXT_FIELD:
+                component = new JTextField(text);
+                break;
+            case PASSWORD_FIELD:
+                component = new JPasswordField();
+                break;
+            case TEXT_AREA:
+                component = new JTextArea(text);
+                break;
+            case TEXT_PANE:
+                JTextPane textPane = new JTextPane();
+                textPane.setText(text);
+                component = textPane;
+                break;
+            case COMBO_BOX:
+                component = new JComboBox<>(items);
+                break;
+            case LIST:
+                component = new JList<>(items);
+                break;
+            case TREE:
+                component = new JTree(buildTree(node.items));
+                break;
+            case OPTION_PANE:
+                // the option pane's own buttons are replaced by the recorded ones
+                JOptionPane optionPane = new JOptionPane(text);
+                optionPane.removeAll();
+                component = optionPane;
+                addChildren = true;
+                break;
+            case MENU_BAR:
+                component = new JMenuBar();
+                addChildren = true;
+                break;
+            case MENU:
+                JMenu menu = new JMenu(text);
+                for (WindowEventJournal.Node child : node.children) menu.add(buildComponent(child));
+                component = menu;
+                break;
+            case MENU_ITEM:
+                component = new JMenuItem(text);
+                break;
+            default:
+                component = new JPanel(null);
+                addChildren = true;
+        }
+
+        component.setName(node.name);
+        component.setEnabled(node.hasFlag(WindowEventJournal.FLAG_ENABLED));
+        component.setVisible(node.hasFlag(WindowEventJournal.FLAG_VISIBLE));
+        if (component instanceof JTextComponent) ((JTextComponent) component).setEditable(node.hasFlag(WindowEventJournal.FLAG_EDITABLE));
+        if (addChildren) {
+            for (WindowEventJournal.Node child : node.children) ((JComponent) component).add(buildComponent(child));
+        }
+        return component;
+    }
+
+    private static DefaultMutableTreeNode buildTree(List<String> items) {
+        // each item is prefixed by a single character giving its depth
+        DefaultMutableTreeNode root = null;
+        Deque<DefaultMutableTreeNode> path = new ArrayDeque<>();
+        for (String item : items) {
+            int depth = item.charAt(0) - '0';
+            DefaultMutableTreeNode node = new DefaultMutableTreeNode(item.substring(1));
+            while (path.size() > depth) path.pop();
+            if (path.isEmpty()) {
+                if (root != null) break;
+                root = node;
+            } else {
+                path.peek().add(node);
+            }
+            path.push(node);
+        }
+        return root == null ? new DefaultMutableTreeNode() : root;
+    }
+}
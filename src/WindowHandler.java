@@ -24,4 +24,13 @@ interface WindowHandler {
     boolean filterEvent(Window window, int eventId);
     void handleWindow(Window window, int eventID);
     boolean recogniseWindow(Window window);
+
+    /**
+     * Returns true if this handler recognises the window for the given event.
+     * Handlers that only act on some events can override this to avoid
+     * examining the window for other events.
+     */
+    default boolean recogniseWindow(Window window, int eventID) {
+        return recogniseWindow(window);
+    }
 }
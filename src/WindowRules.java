@@ -0,0 +1,484 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc;
+
+import java.awt.Component;
+import java.awt.Window;
+import java.awt.event.WindowEvent;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import javax.swing.AbstractButton;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JRadioButton;
+import javax.swing.text.JTextComponent;
+
+/**
+ * An immutable, compiled set of window rules.
+ *
+ * A rules file consists of sections, one per rule, like this:
+ *
+ *      [Dismiss market data farm notice]
+ *      window=dialog
+ *      titleContains=Market Data
+ *      label=connection is OK
+ *      event=opened
+ *      action=checkbox:Don't show this message again=true
+ *      action=click:OK|Close
+ *
+ * The predicates, all of which must match, are:
+ *
+ *  - window=dialog|frame|any (default any)
+ *  - class=&lt;the window's fully qualified class name&gt;
+ *  - title=&lt;the whole title&gt;
+ *  - titleContains=&lt;part of the title&gt;
+ *  - label=&lt;part of a label's text&gt;
+ *  - button=&lt;a button's text&gt;
+ *  - text=&lt;part of the text in a text field, area or pane&gt;
+ *  - setting=&lt;the name of a setting that must be 'yes'&gt;
+ *
+ * label=, button= and text= may be repeated. Text comparisons ignore case.
+ *
+ * event= lists the window events (opened, activated, closed etc, as in the
+ * LogStructureWhen setting) that the rule acts on: the default is opened.
+ *
+ * The actions are performed in order:
+ *
+ *  - action=click:&lt;button text&gt;[|&lt;alternative text&gt;]...
+ *  - action=checkbox:&lt;checkbox text&gt;=true|false
+ *  - action=radio:&lt;radio button text&gt;
+ *  - action=dispose
+ *
+ * Lines starting with # or ; are comments.
+ *
+ * Where several rules match a window, the first in the file is used. Rules are
+ * compiled so that rules that don't act on the event are discarded first, the
+ * cheap predicates (window type, class, title and setting) are evaluated next,
+ * rules with an exact title are found by a single lookup, and the window's
+ * components are traversed at most once, to build an index that is shared by
+ * all the rules' component predicates and actions.
+ */
+final class WindowRules {
+
+    static final WindowRules EMPTY = new WindowRules(Collections.emptyList());
+
+    private enum WindowKind {ANY, DIALOG, FRAME}
+
+    private static final class Rule {
+        final int ordinal;
+        final String name;
+        WindowKind kind = WindowKind.ANY;
+        String className;
+        String title;
+        String titleContains;
+        String setting;
+        final List<String> labels = new ArrayList<>();
+        final List<String> buttons = new ArrayList<>();
+        final List<String> texts = new ArrayList<>();
+        int eventMask;
+        final List<String[]> actions = new ArrayList<>();
+
+        Rule(int ordinal, String name) {
+            this.ordinal = ordinal;
+            this.name = name;
+        }
+
+        boolean needsComponents() {
+            return !labels.isEmpty() || !buttons.isEmpty() || !texts.isEmpty();
+        }
+
+        boolean matchesCheaply(Window window, String lowerTitle) {
+            if (kind == WindowKind.DIALOG && !(window instanceof JDialog)) return false;
+            if (kind == WindowKind.FRAME && !(window instanceof JFrame)) return false;
+            if (className != null && !className.equals(window.getClass().getName())) return false;
+            if (titleContains != null && !lowerTitle.contains(titleContains)) return false;
+            if (setting != null && !Settings.settings().getBoolean(setting, false)) return false;
+            return true;
+        }
+
+        boolean matchesComponents(ComponentIndex index) {
+            for (String label : labels) {
+                if (!index.containsLabel(label)) return false;
+            }
+            for (String button : buttons) {
+                if (index.getButton(button) == null) return false;
+            }
+            for (String text : texts) {
+                if (!index.containsText(text)) return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The rules that match a window, in file order.
+     */
+    static final class Match {
+        private final Window window;
+        private final List<Rule> rules;
+        private ComponentIndex index;
+
+        private Match(Window window, List<Rule> rules, ComponentIndex index) {
+            this.window = window;
+            this.rules = rules;
+            this.index = index;
+        }
+
+        Window getWindow() {
+            return window;
+        }
+
+        /**
+         * Returns the name of the first matching rule that acts on the given
+         * event, or null if there is none.
+         */
+        String getRuleName(int eventID) {
+            Rule rule = getRule(eventID);
+            return rule == null ? null : rule.name;
+        }
+
+        private Rule getRule(int eventID) {
+            int bit = eventBit(eventID);
+            for (Rule rule : rules) {
+                if ((rule.eventMask & bit) != 0) return rule;
+            }
+            return null;
+        }
+
+        /**
+         * Performs the actions of the first matching rule that acts on the
+         * given event. This must be called on the event dispatch thread.
+         */
+        void performActions(int eventID) {
+            Rule rule = getRule(eventID);
+            if (rule == null) return;
+            if (index == null) index = new ComponentIndex(window);
+            Utils.logToConsole("Window rule '" + rule.name + "' applies");
+            for (String[] action : rule.actions) {
+                if (!perform(action)) {
+                    Utils.logError("Window rule '" + rule.name + "': could not " + action[0] + " " + action[1]);
+                }
+            }
+        }
+
+        private boolean perform(String[] action) {
+            switch (action[0]) {
+                case "click":
+                    for (String text : action[1].split("\\|")) {
+                        JButton button = index.getButton(text.trim());
+                        if (button != null) {
+                            SwingUtils.clickButton(button);
+                            return true;
+                        }
+                    }
+                    return false;
+                case "checkbox": {
+                    int sep = action[1].lastIndexOf('=');
+                    JCheckBox checkBox = index.getCheckBox(action[1].substring(0, sep).trim());
+                    if (checkBox == null) return false;
+                    checkBox.setSelected(Boolean.parseBoolean(action[1].substring(sep + 1).trim()));
+                    return true;
+                }
+                case "radio": {
+                    JRadioButton radioButton = index.getRadioButton(action[1]);
+                    if (radioButton == null) return false;
+                    if (!radioButton.isSelected()) radioButton.doClick();
+                    return true;
+                }
+                case "dispose":
+                    window.dispose();
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    /*
+     * The texts of a window's components, gathered in a single traversal.
+     */
+    private static final class ComponentIndex {
+        private final List<String> labels = new ArrayList<>();
+        private final List<String> texts = new ArrayList<>();
+        private final Map<String, JButton> buttons = new HashMap<>();
+        private final Map<String, JCheckBox> checkBoxes = new HashMap<>();
+        private final Map<String, JRadioButton> radioButtons = new HashMap<>();
+
+        ComponentIndex(Window window) {
+            ComponentIterator iter = new ComponentIterator(window);
+            while (iter.hasNext()) {
+                Component component = iter.next();
+                if (component instanceof JLabel) {
+                    add(labels, ((JLabel) component).getText());
+                } else if (component instanceof JButton) {
+                    put(buttons, (JButton) component);
+                } else if (component instanceof JCheckBox) {
+                    put(checkBoxes, (JCheckBox) component);
+                } else if (component instanceof JRadioButton) {
+                    put(radioButtons, (JRadioButton) component);
+                } else if (component instanceof JTextComponent) {
+                    add(texts, ((JTextComponent) component).getText());
+                }
+            }
+        }
+
+        private static void add(List<String> list, String text) {
+            if (text != null) list.add(text.toLowerCase(Locale.ROOT));
+        }
+
+        // the first component with a given text is the one that SwingUtils would find
+        private static <T extends AbstractButton> void put(Map<String, T> map, T button) {
+            if (button.getText() != null) map.putIfAbsent(button.getText().toLowerCase(Locale.ROOT), button);
+        }
+
+        boolean containsLabel(String text) {
+            return containsText(labels, text);
+        }
+
+        boolean containsText(String text) {
+            return containsText(texts, text);
+        }
+
+        private static boolean containsText(List<String> list, String text) {
+            for (String s : list) {
+                if (s.contains(text)) return true;
+            }
+            return false;
+        }
+
+        JButton getButton(String text) {
+            return buttons.get(text.toLowerCase(Locale.ROOT));
+        }
+
+        JCheckBox getCheckBox(String text) {
+            return checkBoxes.get(text.toLowerCase(Locale.ROOT));
+        }
+
+        JRadioButton getRadioButton(String text) {
+            return radioButtons.get(text.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    private final int mRuleCount;
+    // the events that any rule acts on
+    private final int mEventMask;
+    private final Map<String, List<Rule>> mRulesByTitle = new HashMap<>();
+    private final List<Rule> mOtherRules = new ArrayList<>();
+
+    private WindowRules(List<Rule> rules) {
+        mRuleCount = rules.size();
+        int eventMask = 0;
+        for (Rule rule : rules) {
+            eventMask |= rule.eventMask;
+            if (rule.title != null) {
+                mRulesByTitle.computeIfAbsent(rule.title, k -> new ArrayList<>()).add(rule);
+            } else {
+                mOtherRules.add(rule);
+            }
+        }
+        mEventMask = eventMask;
+    }
+
+    int size() {
+        return mRuleCount;
+    }
+
+    /**
+     * Finds the rules that act on an event and match the window. Rules that
+     * don't act on the event are discarded first, so the window's components
+     * are only examined if a rule for this event needs them. This must be
+     * called on the event dispatch thread.
+     * @param window
+     * the window
+     * @param eventID
+     * the window event, or 0 to find the rules that match the window
+     * irrespective of the event
+     * @return
+     * the matching rules, or null if none match
+     */
+    Match match(Window window, int eventID) {
+        if (mRuleCount == 0) return null;
+        int bit = eventID == 0 ? ~0 : eventBit(eventID);
+        if ((mEventMask & bit) == 0) return null;
+        String title = SwingUtils.getWindowTitle(window);
+        String lowerTitle = title == null ? "" : title.toLowerCase(Locale.ROOT);
+        List<Rule> titled = mRulesByTitle.getOrDefault(lowerTitle, Collections.emptyList());
+
+        List<Rule> matched = null;
+        ComponentIndex index = null;
+        // merge the two lists, each of which is in file order
+        int i = 0, j = 0;
+        while (i < titled.size() || j < mOtherRules.size()) {
+            Rule rule;
+            if (j == mOtherRules.size() || (i < titled.size() && titled.get(i).ordinal < mOtherRules.get(j).ordinal)) {
+                rule = titled.get(i++);
+            } else {
+                rule = mOtherRules.get(j++);
+            }
+            if ((rule.eventMask & bit) == 0) continue;
+            if (!rule.matchesCheaply(window, lowerTitle)) continue;
+            if (rule.needsComponents()) {
+                if (index == null) index = new ComponentIndex(window);
+                if (!rule.matchesComponents(index)) continue;
+            }
+            if (matched == null) matched = new ArrayList<>();
+            matched.add(rule);
+        }
+        return matched == null ? null : new Match(window, matched, index);
+    }
+
+    /**
+     * Compiles the rules in a rules file.
+     * @param content
+     * the content of the rules file
+     * @return
+     * the compiled rules
+     * @throws IllegalArgumentException
+     * if the content is invalid: the message identifies the line
+     */
+    static WindowRules parse(String content) throws IllegalArgumentException {
+        List<Rule> rules = new ArrayList<>();
+        Rule rule = null;
+        int lineNumber = 0;
+        try (BufferedReader reader = new BufferedReader(new StringReader(content))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#") || line.startsWith(";")) continue;
+                if (line.startsWith("[") && line.endsWith("]")) {
+                    if (rule != null) validate(rule);
+                    rule = new Rule(rules.size(), line.substring(1, line.length() - 1).trim());
+                    rules.add(rule);
+                    continue;
+                }
+                if (rule == null) throw new IllegalArgumentException("a [rule name] is required before the first setting");
+                int sep = line.indexOf('=');
+                if (sep < 1) throw new IllegalArgumentException("expected <key>=<value>");
+                parseEntry(rule, line.substring(0, sep).trim().toLowerCase(Locale.ROOT), line.substring(sep + 1).trim());
+            }
+            if (rule != null) validate(rule);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("line " + lineNumber + ": " + e.getMessage());
+        } catch (IOException e) {
+            // not possible with a StringReader
+            throw new IllegalStateException(e);
+        }
+        return new WindowRules(rules);
+    }
+
+    private static void parseEntry(Rule rule, String key, String value) {
+        String lowerValue = value.toLowerCase(Locale.ROOT);
+        switch (key) {
+            case "window":
+                try {
+                    rule.kind = WindowKind.valueOf(value.toUpperCase(Locale.ROOT));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("window must be dialog, frame or any");
+                }
+                break;
+            case "class":
+                rule.className = value;
+                break;
+            case "title":
+                rule.title = lowerValue;
+                break;
+            case "titlecontains":
+                rule.titleContains = lowerValue;
+                break;
+            case "setting":
+                rule.setting = value;
+                break;
+            case "label":
+                rule.labels.add(lowerValue);
+                break;
+            case "button":
+                rule.buttons.add(lowerValue);
+                break;
+            case "text":
+                rule.texts.add(lowerValue);
+                break;
+            case "event":
+                for (String event : lowerValue.split(",")) {
+                    int eventID = parseEvent(event.trim());
+                    if (eventID == 0) throw new IllegalArgumentException("unknown event: " + event);
+                    rule.eventMask |= eventBit(eventID);
+                }
+                break;
+            case "action":
+                rule.actions.add(parseAction(value));
+                break;
+            default:
+                throw new IllegalArgumentException("unknown key: " + key);
+        }
+    }
+
+    private static String[] parseAction(String value) {
+        int sep = value.indexOf(':');
+        String verb = (sep < 0 ? value : value.substring(0, sep)).trim().toLowerCase(Locale.ROOT);
+        String argument = sep < 0 ? "" : value.substring(sep + 1).trim();
+        switch (verb) {
+            case "click":
+            case "radio":
+                if (argument.isEmpty()) throw new IllegalArgumentException(verb + " requires the control's text");
+                break;
+            case "checkbox":
+                int eq = argument.lastIndexOf('=');
+                if (eq < 1) throw new IllegalArgumentException("checkbox requires <text>=true|false");
+                String state = argument.substring(eq + 1).trim().toLowerCase(Locale.ROOT);
+                if (!state.equals("true") && !state.equals("false")) throw new IllegalArgumentException("checkbox requires <text>=true|false");
+                break;
+            case "dispose":
+                break;
+            default:
+                throw new IllegalArgumentException("unknown action: " + verb);
+        }
+        return new String[] {verb, argument};
+    }
+
+    private static void validate(Rule rule) {
+        if (rule.actions.isEmpty()) throw new IllegalArgumentException("rule '" + rule.name + "' has no actions");
+        if (rule.title == null && rule.titleContains == null && rule.className == null && !rule.needsComponents()) {
+            throw new IllegalArgumentException("rule '" + rule.name + "' would match every window");
+        }
+        if (rule.eventMask == 0) rule.eventMask = eventBit(WindowEvent.WINDOW_OPENED);
+    }
+
+    private static int parseEvent(String name) {
+        for (int eventID = WindowEvent.WINDOW_FIRST; eventID <= WindowEvent.WINDOW_LAST; eventID++) {
+            if (SwingUtils.windowEventToString(eventID).equalsIgnoreCase(name)) return eventID;
+        }
+        return 0;
+    }
+
+    private static int eventBit(int eventID) {
+        if (eventID < WindowEvent.WINDOW_FIRST || eventID > WindowEvent.WINDOW_LAST) return 0;
+        return 1 << (eventID - WindowEvent.WINDOW_FIRST);
+    }
+}
@@ -0,0 +1,136 @@
+// This file is part of IBC.
+// Copyright (C) 2004 Steven M. Kearns (skearns23@yahoo.com )
+// Copyright (C) 2004 - 2023 Richard L King (rlking@aultan.com)
+// For conditions of distribution and use, see copyright notice in COPYING.txt
+
+// IBC is free software: you can redistribute it and/or modify
+// it under the terms of the GNU General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+
+// IBC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+
+// You should have received a copy of the GNU General Public License
+// along with IBC.  If not, see <http://www.gnu.org/licenses/>.
+
+package ibcalpha.ibc;
+
+import java.awt.Window;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handles windows according to the rules in the file named by the
+ * WindowRulesFile setting (see WindowRules for its format), so that IBC can
+ * deal with a new TWS dialog without a new release.
+ *
+ * This handler is consulted after all the built-in handlers, so rules only
+ * apply to windows that IBC does not otherwise recognise.
+ *
+ * The file is checked for changes every WindowRulesReloadInterval seconds
+ * (default 5; 0 disables reloading). If a changed file is invalid, the error is
+ * logged and the previous rules remain in effect.
+ */
+class WindowRulesHandler implements WindowHandler {
+
+    private static final WindowRulesHandler instance = new WindowRulesHandler();
+
+    static WindowRulesHandler getInstance() {
+        return instance;
+    }
+
+    private volatile WindowRules mRules = WindowRules.EMPTY;
+    private volatile String mStatus = "no rules file";
+    private File mFile;
+    private long mLastModified;
+    private long mLength = -1;
+    private boolean mInitialised;
+
+    // only accessed on the event dispatch thread
+    private WindowRules.Match mMatch;
+
+    private WindowRulesHandler() {}
+
+    /**
+     * Loads the rules file, if any, and starts checking it for changes.
+     */
+    synchronized void initialise() {
+        if (mInitialised) return;
+        mInitialised = true;
+
+        String path = Settings.settings().getString("WindowRulesFile", "");
+        if (path.isEmpty()) return;
+        mFile = new File(path);
+        reload(false);
+
+        int interval = Settings.settings().getInt("WindowRulesReloadInterval", 5);
+        if (interval <= 0) return;
+        MyScheduledExecutorService.getInstance().scheduleWithFixedDelay(() -> reload(false), interval, interval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Reloads the rules file if it has changed.
+     * @param force
+     * true to reload the file even if it appears unchanged
+     * @return
+     * a description of the rules in effect
+     */
+    synchronized String reload(boolean force) {
+        if (mFile == null) return mStatus;
+        if (!mFile.isFile()) {
+            if (mLength != -1 || force) Utils.logError("Window rules file " + mFile + " not found: previous rules remain in effect");
+            mLength = -1;
+            mStatus = "rules file " + mFile + " not found; " + mRules.size() + " rules in effect";
+            return mStatus;
+        }
+        if (!force && mFile.lastModified() == mLastModified && mFile.length() == mLength) return mStatus;
+        mLastModified = mFile.lastModified();
+        mLength = mFile.length();
+
+        try {
+            mRules = WindowRules.parse(new String(Files.readAllBytes(mFile.toPath()), StandardCharsets.UTF_8));
+            mStatus = mRules.size() + " rules loaded from " + mFile;
+            Utils.logToConsole("Window rules: " + mStatus);
+        } catch (IOException | IllegalArgumentException e) {
+            mStatus = "error in " + mFile + ": " + e.getMessage() + "; " + mRules.size() + " rules in effect";
+            Utils.logError("Window rules: " + mStatus);
+        }
+        return mStatus;
+    }
+
+    String getStatus() {
+        return mStatus;
+    }
+
+    @Override
+    public boolean recogniseWindow(Window window) {
+        mMatch = mRules.match(window, 0);
+        return mMatch != null;
+    }
+
+    @Override
+    public boolean recogniseWindow(Window window, int eventID) {
+        // rules are tried for every event of every window that no built-in
+        // handler recognises, so the rules that don't act on this event are
+        // discarded before the window's components are examined
+        mMatch = mRules.match(window, eventID);
+        return mMatch != null;
+    }
+
+    @Override
+    public boolean filterEvent(Window window, int eventId) {
+        return mMatch != null && mMatch.getWindow() == window && mMatch.getRuleName(eventId) != null;
+    }
+
+    @Override
+    public void handleWindow(Window window, int eventID) {
+        if (mMatch == null || mMatch.getWindow() != window) return;
+        mMatch.performActions(eventID);
+    }
+}